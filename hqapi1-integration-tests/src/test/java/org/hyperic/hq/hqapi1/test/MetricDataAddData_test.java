@@ -115,6 +115,85 @@ public class MetricDataAddData_test extends MetricDataTestBase {
         hqAssertSuccess(deleteResponse);
     }
 
+    public void testAddDataMultipleBatches() throws Exception {
+
+        ResourceApi resourceApi = getApi().getResourceApi();
+        MetricApi metricApi = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        ResourcePrototypeResponse protoResponse =
+                resourceApi.getResourcePrototype("HTTP");
+        hqAssertSuccess(protoResponse);
+        ResourcePrototype pt = protoResponse.getResourcePrototype();
+
+        Resource platform = getLocalPlatformResource(false, false);
+
+        Map<String,String> params = new HashMap<String,String>();
+        params.put("hostname", "www.hyperic.com");
+        params.put("port", "80");
+        params.put("sotimeout", "10");
+        params.put("path", "/");
+        params.put("method", "GET");
+
+        Random r = new Random();
+        String name = "My HTTP Check " + r.nextInt();
+
+        ResourceResponse resp = resourceApi.createService(pt, platform,
+                                                          name, params);
+        hqAssertSuccess(resp);
+        Resource createdResource = resp.getResource();
+
+        pauseTest();
+
+        MetricsResponse metricsResponse =
+                metricApi.getMetrics(createdResource, true);
+        hqAssertSuccess(metricsResponse);
+
+        Metric m = null;
+        for (Metric metric : metricsResponse.getMetric()) {
+            if (!metric.getMetricTemplate().getName().equals("Availability")) {
+                m = metric;
+                break;
+            }
+        }
+
+        assertNotNull("Unable to find suitible metric for " +
+                      createdResource.getName(), m);
+
+        // Enough points to span several server side insert batches, placed
+        // an hour into the past to avoid collisions with current data.
+        final int NUM_POINTS = 2500;
+        long end = System.currentTimeMillis() - (60 * 60 * 1000);
+        long start = end - (NUM_POINTS * 1000);
+        List<DataPoint> dps = new ArrayList<DataPoint>();
+        for (int i = 0; i < NUM_POINTS; i++) {
+            DataPoint dp = new DataPoint();
+            dp.setTimestamp(start + (i * 1000));
+            dp.setValue(i);
+            dps.add(dp);
+        }
+
+        StatusResponse insertResponse = dataApi.addData(m, dps);
+        hqAssertSuccess(insertResponse);
+
+        // BatchInserter only inserts once every 10 seconds.
+        try {
+            Thread.sleep(10000);
+        } catch (Exception e) {
+            // Ignore
+        }
+
+        MetricDataResponse metricDataResponse = dataApi.getData(m, start, end);
+        hqAssertSuccess(metricDataResponse);
+        validateMetricData(metricDataResponse.getMetricData());
+        assertEquals("Invalid number of data points found", NUM_POINTS,
+                     metricDataResponse.getMetricData().getDataPoint().size());
+
+        // Clean up
+        StatusResponse deleteResponse = resourceApi.deleteResource(createdResource.getId());
+        hqAssertSuccess(deleteResponse);
+    }
+
     public void testAddDataInvalidMetric() throws Exception {
 
         MetricDataApi dataApi = getApi().getMetricDataApi();
@@ -0,0 +1,103 @@
+package org.hyperic.hq.hqapi1.test;
+
+import org.hyperic.hq.hqapi1.Histogram;
+import org.hyperic.hq.hqapi1.MetricApi;
+import org.hyperic.hq.hqapi1.MetricDataAnalyzer;
+import org.hyperic.hq.hqapi1.MetricDataApi;
+import org.hyperic.hq.hqapi1.QuantileSketch;
+import org.hyperic.hq.hqapi1.types.DataPoint;
+import org.hyperic.hq.hqapi1.types.MetricData;
+import org.hyperic.hq.hqapi1.types.MetricsDataResponse;
+import org.hyperic.hq.hqapi1.types.MetricsResponse;
+import org.hyperic.hq.hqapi1.types.Resource;
+
+import java.util.Arrays;
+
+public class MetricDataAnalyzer_test extends MetricDataTestBase {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    public MetricDataAnalyzer_test(String name) {
+        super(name);
+    }
+
+    public void testAnalyzeSlices() throws Exception {
+
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        assertTrue("No metrics found for " + platform.getName(),
+                   metricsResponse.getMetric().size() > 0);
+
+        long end = System.currentTimeMillis() - HOUR;
+        long start = end - 8 * HOUR;
+
+        MetricDataAnalyzer analyzer =
+                new MetricDataAnalyzer(0.01, Histogram.linear(0, 100, 10));
+        analyzer.analyze(dataApi, metricsResponse.getMetric(), start, end, HOUR, 4);
+
+        MetricsDataResponse dataResponse =
+                dataApi.getData(metricsResponse.getMetric(), start, end);
+        hqAssertSuccess(dataResponse);
+
+        long total = 0;
+        for (MetricData data : dataResponse.getMetricData()) {
+            int n = data.getDataPoint().size();
+            total += n;
+            if (n == 0) {
+                continue;
+            }
+
+            MetricDataAnalyzer.Statistics stats =
+                    analyzer.getMetricStatistics(data.getMetricId());
+            assertNotNull("No statistics for metric " + data.getMetricName(), stats);
+            QuantileSketch sketch = stats.getSketch();
+            assertEquals(n, sketch.getCount());
+            assertEquals(n, stats.getHistogram().getCount());
+
+            double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                DataPoint dp = data.getDataPoint().get(i);
+                values[i] = dp.getValue();
+            }
+            Arrays.sort(values);
+            double median = values[(n - 1) / 2];
+            assertEquals("Median out of range for " + data.getMetricName(),
+                         median, sketch.getQuantile(0.5),
+                         Math.abs(median) * 0.01 + 1e-9);
+            assertEquals(values[0], sketch.getMin());
+            assertEquals(values[n - 1], sketch.getMax());
+        }
+
+        assertEquals(total, analyzer.getTotal().getSketch().getCount());
+        assertEquals(total, analyzer.getResourceStatistics(platform.getId())
+                .getSketch().getCount());
+    }
+
+    public void testMerge() throws Exception {
+
+        QuantileSketch a = new QuantileSketch();
+        QuantileSketch b = new QuantileSketch();
+        for (int i = 1; i <= 1000; i++) {
+            if (i % 2 == 0) {
+                a.add(i);
+            } else {
+                b.add(i);
+            }
+        }
+        a.merge(b);
+        assertEquals(1000, a.getCount());
+        assertEquals(500, a.getQuantile(0.5), 500 * 0.01);
+        assertEquals(990, a.getQuantile(0.99), 990 * 0.01);
+
+        try {
+            a.merge(new QuantileSketch(0.05, QuantileSketch.DEFAULT_MAX_BUCKETS));
+            fail("Merged sketches with different accuracy");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
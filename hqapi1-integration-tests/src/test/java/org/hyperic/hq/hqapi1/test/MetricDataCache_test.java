@@ -0,0 +1,121 @@
+package org.hyperic.hq.hqapi1.test;
+
+import org.hyperic.hq.hqapi1.MetricApi;
+import org.hyperic.hq.hqapi1.MetricDataApi;
+import org.hyperic.hq.hqapi1.MetricDataCache;
+import org.hyperic.hq.hqapi1.types.DataPoint;
+import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.MetricData;
+import org.hyperic.hq.hqapi1.types.MetricDataResponse;
+import org.hyperic.hq.hqapi1.types.MetricsDataResponse;
+import org.hyperic.hq.hqapi1.types.MetricsResponse;
+import org.hyperic.hq.hqapi1.types.Resource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MetricDataCache_test extends MetricDataTestBase {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    public MetricDataCache_test(String name) {
+        super(name);
+    }
+
+    private List<Metric> getEnabledMetrics() throws Exception {
+        MetricApi api = getApi().getMetricApi();
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        assertTrue("No metrics found for " + platform.getName(),
+                   metricsResponse.getMetric().size() > 0);
+        return metricsResponse.getMetric();
+    }
+
+    private void assertSameData(MetricData expected, MetricData actual) {
+        assertEquals(expected.getMetricId(), actual.getMetricId());
+        List<DataPoint> e = expected.getDataPoint();
+        List<DataPoint> a = actual.getDataPoint();
+        assertEquals("Wrong number of data points for metric " +
+                     expected.getMetricName(), e.size(), a.size());
+        for (int i = 0; i < e.size(); i++) {
+            assertEquals(e.get(i).getTimestamp(), a.get(i).getTimestamp());
+            assertEquals(e.get(i).getValue(), a.get(i).getValue());
+        }
+    }
+
+    public void testOverlappingWindows() throws Exception {
+
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+        MetricDataCache cache = dataApi.createCache(16 * 1024 * 1024, 0);
+        Metric metric = getEnabledMetrics().get(0);
+
+        long now = System.currentTimeMillis();
+        long start = now - 4 * HOUR;
+        long end = now - HOUR;
+
+        // Prime with the middle of the range, then query around it.
+        MetricDataResponse cached = cache.getData(metric, start + HOUR, end - HOUR);
+        hqAssertSuccess(cached);
+        assertTrue(cache.getSize() > 0);
+
+        cached = cache.getData(metric, start, end);
+        hqAssertSuccess(cached);
+        validateMetricData(cached.getMetricData());
+
+        MetricDataResponse direct = dataApi.getData(metric, start, end);
+        hqAssertSuccess(direct);
+        assertSameData(direct.getMetricData(), cached.getMetricData());
+    }
+
+    public void testMultipleMetrics() throws Exception {
+
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+        MetricDataCache cache = dataApi.createCache(16 * 1024 * 1024, 0);
+        List<Metric> metrics = getEnabledMetrics();
+
+        long now = System.currentTimeMillis();
+        long start = now - 3 * HOUR;
+        long end = now - HOUR;
+
+        hqAssertSuccess(cache.getData(metrics.subList(0, 1), start, end));
+
+        MetricsDataResponse cached = cache.getData(metrics, start, end);
+        hqAssertSuccess(cached);
+        MetricsDataResponse direct = dataApi.getData(metrics, start, end);
+        hqAssertSuccess(direct);
+
+        assertEquals(direct.getMetricData().size(), cached.getMetricData().size());
+        for (int i = 0; i < direct.getMetricData().size(); i++) {
+            assertSameData(direct.getMetricData().get(i),
+                           cached.getMetricData().get(i));
+        }
+    }
+
+    public void testEviction() throws Exception {
+
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+        MetricDataCache cache = dataApi.createCache(1, 0);
+
+        long now = System.currentTimeMillis();
+        MetricsDataResponse response =
+                cache.getData(getEnabledMetrics(), now - 2 * HOUR, now - HOUR);
+        hqAssertSuccess(response);
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testInvalidMetricId() throws Exception {
+
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+        MetricDataCache cache = dataApi.createCache(16 * 1024 * 1024, 0);
+
+        List<Metric> metrics = new ArrayList<Metric>();
+        Metric m = new Metric();
+        m.setId(Integer.MAX_VALUE);
+        metrics.add(m);
+
+        long end = System.currentTimeMillis();
+        MetricsDataResponse response = cache.getData(metrics, end - HOUR, end);
+        hqAssertFailureObjectNotFound(response);
+    }
+}
@@ -0,0 +1,122 @@
+package org.hyperic.hq.hqapi1.test;
+
+import org.hyperic.hq.hqapi1.MetricApi;
+import org.hyperic.hq.hqapi1.MetricDataApi;
+import org.hyperic.hq.hqapi1.types.AvailabilityData;
+import org.hyperic.hq.hqapi1.types.AvailabilityDataResponse;
+import org.hyperic.hq.hqapi1.types.AvailabilityInterval;
+import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.MetricsResponse;
+import org.hyperic.hq.hqapi1.types.Resource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MetricDataGetAvailability_test extends MetricDataTestBase {
+
+    public MetricDataGetAvailability_test(String name) {
+        super(name);
+    }
+
+    public void testValidGet() throws Exception {
+
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        Metric avail = findAvailabilityMetric(platform);
+        assertNotNull("No availability metric found for " + platform.getName(),
+                      avail);
+
+        long end = System.currentTimeMillis();
+        long start = end - (8 * 60 * 60 * 1000);
+
+        List<Metric> metrics = new ArrayList<Metric>();
+        metrics.add(avail);
+        AvailabilityDataResponse response =
+                dataApi.getAvailability(metrics, start, end);
+        hqAssertSuccess(response);
+        assertEquals(1, response.getAvailabilityData().size());
+
+        AvailabilityData data = response.getAvailabilityData().get(0);
+        assertEquals(avail.getId(), data.getMetricId());
+        assertEquals(platform.getId().intValue(), data.getResourceId());
+        assertTrue("No availability intervals returned",
+                   data.getAvailabilityInterval().size() > 0);
+
+        long last = start;
+        for (AvailabilityInterval i : data.getAvailabilityInterval()) {
+            assertTrue("Interval starts before range", i.getStart() >= start);
+            assertTrue("Interval ends after range", i.getEnd() <= end);
+            assertTrue("Interval is empty", i.getStart() < i.getEnd());
+            assertTrue("Intervals overlap", i.getStart() >= last);
+            last = i.getEnd();
+        }
+    }
+
+    public void testGetNonAvailabilityMetric() throws Exception {
+
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+
+        List<Metric> metrics = new ArrayList<Metric>();
+        for (Metric m : metricsResponse.getMetric()) {
+            if (!m.getName().equals("Availability")) {
+                metrics.add(m);
+                break;
+            }
+        }
+        assertTrue("No non-availability metrics found", metrics.size() > 0);
+
+        long end = System.currentTimeMillis();
+        long start = end - (8 * 60 * 60 * 1000);
+        AvailabilityDataResponse response =
+                dataApi.getAvailability(metrics, start, end);
+        hqAssertFailureInvalidParameters(response);
+    }
+
+    public void testGetInvalidMetricId() throws Exception {
+
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        List<Metric> metrics = new ArrayList<Metric>();
+        Metric m = new Metric();
+        m.setId(Integer.MAX_VALUE);
+        metrics.add(m);
+
+        long end = System.currentTimeMillis();
+        long start = end - (8 * 60 * 60 * 1000);
+        AvailabilityDataResponse response =
+                dataApi.getAvailability(metrics, start, end);
+        hqAssertFailureObjectNotFound(response);
+    }
+
+    public void testGetInvalidRange() throws Exception {
+
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        List<Metric> metrics = new ArrayList<Metric>();
+        metrics.add(findAvailabilityMetric(platform));
+
+        long start = System.currentTimeMillis();
+        long end = start - (8 * 60 * 60 * 1000);
+        AvailabilityDataResponse response =
+                dataApi.getAvailability(metrics, start, end);
+        hqAssertFailureInvalidParameters(response);
+    }
+
+    public void testGetEmptyMetricList() throws Exception {
+
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        long end = System.currentTimeMillis();
+        long start = end - (8 * 60 * 60 * 1000);
+        AvailabilityDataResponse response =
+                dataApi.getAvailability(new ArrayList<Metric>(), start, end);
+        hqAssertFailureInvalidParameters(response);
+    }
+}
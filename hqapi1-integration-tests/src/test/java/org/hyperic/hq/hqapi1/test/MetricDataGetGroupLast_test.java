@@ -0,0 +1,140 @@
+package org.hyperic.hq.hqapi1.test;
+
+import org.hyperic.hq.hqapi1.GroupMetricSnapshot;
+import org.hyperic.hq.hqapi1.MetricApi;
+import org.hyperic.hq.hqapi1.MetricDataApi;
+import org.hyperic.hq.hqapi1.types.Group;
+import org.hyperic.hq.hqapi1.types.GroupLastMetricDataResponse;
+import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.MetricTemplate;
+import org.hyperic.hq.hqapi1.types.MetricsResponse;
+import org.hyperic.hq.hqapi1.types.Resource;
+import org.hyperic.hq.hqapi1.types.User;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class MetricDataGetGroupLast_test extends MetricDataTestBase {
+
+    public MetricDataGetGroupLast_test(String name) {
+        super(name);
+    }
+
+    public void testGetGroupLast() throws Exception {
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+        Resource platform = getLocalPlatformResource(false, false);
+
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        List<MetricTemplate> templates = new ArrayList<MetricTemplate>();
+        for (Metric m : metricsResponse.getMetric()) {
+            templates.add(m.getMetricTemplate());
+        }
+        assertTrue("No enabled metrics found for " + platform.getName(),
+                   templates.size() > 0);
+
+        Group group = createGroup(Collections.singletonList(platform));
+        try {
+            GroupLastMetricDataResponse response =
+                    dataApi.getGroupLastData(group, templates);
+            hqAssertSuccess(response);
+
+            GroupMetricSnapshot snapshot = new GroupMetricSnapshot(response);
+            assertEquals(1, snapshot.getMemberCount());
+            assertEquals(templates.size(), snapshot.getTemplateCount());
+            assertEquals(platform.getId().intValue(), snapshot.getResourceId(0));
+            assertEquals(0, snapshot.getRow(platform.getId()));
+
+            for (int col = 0; col < templates.size(); col++) {
+                assertEquals(templates.get(col).getId(), snapshot.getTemplateId(col));
+                if (snapshot.hasValue(0, col)) {
+                    assertTrue("Invalid timestamp", snapshot.getTimestamp(0, col) > 0);
+                } else {
+                    assertEquals(0, snapshot.getTimestamp(0, col));
+                }
+            }
+        } finally {
+            cleanupGroup(group);
+        }
+    }
+
+    public void testGetGroupLastUnauthorized() throws Exception {
+        MetricApi api = getApi().getMetricApi();
+        Resource platform = getLocalPlatformResource(false, false);
+
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        List<MetricTemplate> templates =
+                Collections.singletonList(metricsResponse.getMetric().get(0).getMetricTemplate());
+
+        List<User> users = createTestUsers(1);
+        User user = users.get(0);
+        MetricDataApi dataApi = getApi(user.getName(), TESTUSER_PASSWORD).getMetricDataApi();
+
+        Group group = createGroup(Collections.singletonList(platform));
+        try {
+            GroupLastMetricDataResponse response =
+                    dataApi.getGroupLastData(group, templates);
+            hqAssertFailurePermissionDenied(response);
+        } finally {
+            cleanupGroup(group);
+            deleteTestUsers(users);
+        }
+    }
+
+    public void testGetGroupLastMixedGroup() throws Exception {
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+        Resource platform = getLocalPlatformResource(false, false);
+
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        List<MetricTemplate> templates =
+                Collections.singletonList(metricsResponse.getMetric().get(0).getMetricTemplate());
+
+        Group group = createGroup(new ArrayList<Resource>());
+        try {
+            GroupLastMetricDataResponse response =
+                    dataApi.getGroupLastData(group, templates);
+            hqAssertFailureInvalidParameters(response);
+        } finally {
+            cleanupGroup(group);
+        }
+    }
+
+    public void testGetGroupLastInvalidGroup() throws Exception {
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+        Resource platform = getLocalPlatformResource(false, false);
+
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        List<MetricTemplate> templates =
+                Collections.singletonList(metricsResponse.getMetric().get(0).getMetricTemplate());
+
+        Group group = new Group();
+        group.setId(Integer.MAX_VALUE);
+        GroupLastMetricDataResponse response =
+                dataApi.getGroupLastData(group, templates);
+        hqAssertFailureObjectNotFound(response);
+    }
+
+    public void testGetGroupLastInvalidTemplate() throws Exception {
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+        Resource platform = getLocalPlatformResource(false, false);
+
+        MetricTemplate template = new MetricTemplate();
+        template.setId(Integer.MAX_VALUE);
+
+        Group group = createGroup(Collections.singletonList(platform));
+        try {
+            GroupLastMetricDataResponse response =
+                    dataApi.getGroupLastData(group, Collections.singletonList(template));
+            hqAssertFailureObjectNotFound(response);
+        } finally {
+            cleanupGroup(group);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.hyperic.hq.hqapi1.test;
 
 import org.hyperic.hq.hqapi1.MetricApi;
 import org.hyperic.hq.hqapi1.MetricDataApi;
+import org.hyperic.hq.hqapi1.LastMetricDataPoller;
 import org.hyperic.hq.hqapi1.types.Resource;
 import org.hyperic.hq.hqapi1.types.MetricsResponse;
 import org.hyperic.hq.hqapi1.types.MetricsDataResponse;
@@ -102,4 +103,76 @@ public class MetricDataGetLastMulti_test extends MetricDataTestBase {
         assertTrue("No disabled metrics with no data could be found",
                     lastMetricNoDataCount > 0);
     }
+
+    public void testGetSince() throws Exception {
+
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        List<Metric> metrics = metricsResponse.getMetric();
+
+        LastMetricsDataResponse dataResponse = dataApi.getDataSince(metrics, 0);
+        hqAssertSuccess(dataResponse);
+        assertNotNull("No watermark returned", dataResponse.getWatermark());
+
+        for (LastMetricData metricData : dataResponse.getLastMetricData()) {
+            validateLastMetricData(metricData);
+        }
+
+        // Nothing can have been collected after the current watermark
+        long watermark = dataResponse.getWatermark();
+        dataResponse = dataApi.getDataSince(metrics, watermark);
+        hqAssertSuccess(dataResponse);
+        for (LastMetricData metricData : dataResponse.getLastMetricData()) {
+            assertTrue("Data returned older than watermark " + watermark,
+                       metricData.getDataPoint().getTimestamp() > watermark);
+        }
+    }
+
+    public void testGetSinceInvalidTime() throws Exception {
+
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+
+        LastMetricsDataResponse dataResponse =
+                dataApi.getDataSince(metricsResponse.getMetric(), -1);
+        hqAssertFailureInvalidParameters(dataResponse);
+    }
+
+    public void testPoller() throws Exception {
+
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+
+        LastMetricDataPoller poller =
+                dataApi.createPoller(metricsResponse.getMetric(), 60000);
+        assertNull(poller.getWatermark());
+
+        LastMetricsDataResponse dataResponse = poller.poll();
+        hqAssertSuccess(dataResponse);
+        assertTrue("No data returned on first poll",
+                   dataResponse.getLastMetricData().size() > 0);
+        assertNotNull(poller.getWatermark());
+
+        // Values already returned are not returned again, even with lag.
+        dataResponse = poller.poll();
+        hqAssertSuccess(dataResponse);
+        for (LastMetricData metricData : dataResponse.getLastMetricData()) {
+            validateLastMetricData(metricData);
+        }
+
+        poller.reset();
+        assertNull(poller.getWatermark());
+    }
 }
@@ -0,0 +1,202 @@
+package org.hyperic.hq.hqapi1.test;
+
+import org.hyperic.hq.hqapi1.MetricApi;
+import org.hyperic.hq.hqapi1.MetricDataApi;
+import org.hyperic.hq.hqapi1.types.DataPoint;
+import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.MetricRankFunction;
+import org.hyperic.hq.hqapi1.types.MetricDataResponse;
+import org.hyperic.hq.hqapi1.types.MetricTemplate;
+import org.hyperic.hq.hqapi1.types.MetricsResponse;
+import org.hyperic.hq.hqapi1.types.RankedMetric;
+import org.hyperic.hq.hqapi1.types.RankedMetricsResponse;
+import org.hyperic.hq.hqapi1.types.Resource;
+import org.hyperic.hq.hqapi1.types.User;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public class MetricDataGetTop_test extends MetricDataTestBase {
+
+    private static final long WINDOW = 8 * 60 * 60 * 1000;
+
+    public MetricDataGetTop_test(String name) {
+        super(name);
+    }
+
+    private Metric getPlatformMetric() throws Exception {
+        MetricApi api = getApi().getMetricApi();
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        for (Metric m : metricsResponse.getMetric()) {
+            if (!m.getName().equals("Availability")) {
+                return m;
+            }
+        }
+        fail("No enabled metrics found for " + platform.getName());
+        return null;
+    }
+
+    private void validateRanking(RankedMetricsResponse response, int count,
+                                 boolean descending) {
+        hqAssertSuccess(response);
+        List<RankedMetric> ranked = response.getRankedMetric();
+        assertTrue("Too many metrics returned", ranked.size() <= count);
+        for (int i = 1; i < ranked.size(); i++) {
+            double prev = ranked.get(i - 1).getValue();
+            double cur = ranked.get(i).getValue();
+            assertTrue("Metrics out of order", descending ? prev >= cur : prev <= cur);
+        }
+        for (RankedMetric r : ranked) {
+            assertTrue("Resource name is empty", r.getResourceName().length() > 0);
+            assertTrue("Metric name is empty", r.getMetricName().length() > 0);
+        }
+    }
+
+    public void testTopByMax() throws Exception {
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+        MetricTemplate template = getPlatformMetric().getMetricTemplate();
+
+        long end = System.currentTimeMillis();
+        RankedMetricsResponse response =
+                dataApi.getTop(template, MetricRankFunction.MAX, 5,
+                               end - WINDOW, end);
+        validateRanking(response, 5, true);
+        assertTrue("No metrics ranked", response.getRankedMetric().size() > 0);
+    }
+
+    public void testBottomByAvg() throws Exception {
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+        MetricTemplate template = getPlatformMetric().getMetricTemplate();
+
+        long end = System.currentTimeMillis();
+        RankedMetricsResponse response =
+                dataApi.getBottom(template, MetricRankFunction.AVG, 5,
+                                  end - WINDOW, end);
+        validateRanking(response, 5, false);
+    }
+
+    public void testTopByLastForResources() throws Exception {
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+        Metric metric = getPlatformMetric();
+
+        List<Resource> resources = new ArrayList<Resource>();
+        resources.add(getLocalPlatformResource(false, false));
+
+        long end = System.currentTimeMillis();
+        RankedMetricsResponse response =
+                dataApi.getTop(metric.getMetricTemplate(), resources,
+                               MetricRankFunction.LAST, 10, end - WINDOW, end);
+        validateRanking(response, 1, true);
+        for (RankedMetric r : response.getRankedMetric()) {
+            assertEquals(metric.getId(), r.getMetricId());
+            assertNotNull("No timestamp for last value", r.getTimestamp());
+        }
+    }
+
+    public void testTopByLastBeforeLatestCollection() throws Exception {
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+        Metric metric = getPlatformMetric();
+
+        long now = System.currentTimeMillis();
+        MetricDataResponse dataResponse =
+                dataApi.getData(metric, now - WINDOW, now);
+        hqAssertSuccess(dataResponse);
+        List<DataPoint> points = dataResponse.getMetricData().getDataPoint();
+        if (points.size() < 2) {
+            System.out.println("Not enough data for " + metric.getName() +
+                               ", skipping test");
+            return;
+        }
+
+        // End the window at the second newest point so the latest
+        // collection falls after it.
+        List<DataPoint> sorted = new ArrayList<DataPoint>(points);
+        Collections.sort(sorted, new Comparator<DataPoint>() {
+            public int compare(DataPoint a, DataPoint b) {
+                return a.getTimestamp() < b.getTimestamp() ? -1 :
+                       (a.getTimestamp() == b.getTimestamp() ? 0 : 1);
+            }
+        });
+        DataPoint expected = sorted.get(sorted.size() - 2);
+        List<Resource> resources = new ArrayList<Resource>();
+        resources.add(getLocalPlatformResource(false, false));
+
+        RankedMetricsResponse response =
+                dataApi.getTop(metric.getMetricTemplate(), resources,
+                               MetricRankFunction.LAST, 10, now - WINDOW,
+                               expected.getTimestamp());
+        validateRanking(response, 1, true);
+        assertEquals("Metric not ranked", 1, response.getRankedMetric().size());
+        RankedMetric r = response.getRankedMetric().get(0);
+        assertEquals(expected.getTimestamp(), r.getTimestamp().longValue());
+        assertEquals(expected.getValue(), r.getValue());
+    }
+
+    public void testTopNotViewable() throws Exception {
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+        MetricTemplate template = getPlatformMetric().getMetricTemplate();
+        List<User> users = createTestUsers(1);
+        User user = users.get(0);
+        MetricDataApi userApi = getApi(user.getName(), TESTUSER_PASSWORD).getMetricDataApi();
+
+        List<Resource> resources = new ArrayList<Resource>();
+        resources.add(getLocalPlatformResource(false, false));
+
+        long end = System.currentTimeMillis();
+        RankedMetricsResponse response =
+                dataApi.getTop(template, resources, MetricRankFunction.MAX, 5,
+                               end - WINDOW, end);
+        hqAssertSuccess(response);
+        assertTrue("No metrics ranked", response.getRankedMetric().size() > 0);
+
+        response = userApi.getTop(template, resources, MetricRankFunction.MAX,
+                                  5, end - WINDOW, end);
+        hqAssertSuccess(response);
+        assertEquals(0, response.getRankedMetric().size());
+
+        response = userApi.getTop(template, MetricRankFunction.MAX, 5,
+                                  end - WINDOW, end);
+        hqAssertSuccess(response);
+        assertEquals(0, response.getRankedMetric().size());
+
+        deleteTestUsers(users);
+    }
+
+    public void testTopInvalidTemplate() throws Exception {
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+        MetricTemplate template = new MetricTemplate();
+        template.setId(Integer.MAX_VALUE);
+
+        long end = System.currentTimeMillis();
+        RankedMetricsResponse response =
+                dataApi.getTop(template, MetricRankFunction.MAX, 5,
+                               end - WINDOW, end);
+        hqAssertFailureObjectNotFound(response);
+    }
+
+    public void testTopInvalidCount() throws Exception {
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+        MetricTemplate template = getPlatformMetric().getMetricTemplate();
+
+        long end = System.currentTimeMillis();
+        RankedMetricsResponse response =
+                dataApi.getTop(template, MetricRankFunction.MAX, 0,
+                               end - WINDOW, end);
+        hqAssertFailureInvalidParameters(response);
+    }
+
+    public void testTopInvalidRange() throws Exception {
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+        MetricTemplate template = getPlatformMetric().getMetricTemplate();
+
+        long start = System.currentTimeMillis();
+        RankedMetricsResponse response =
+                dataApi.getTop(template, MetricRankFunction.MAX, 5,
+                               start, start - WINDOW);
+        hqAssertFailureInvalidParameters(response);
+    }
+}
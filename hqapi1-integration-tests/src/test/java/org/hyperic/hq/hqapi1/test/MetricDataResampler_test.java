@@ -0,0 +1,146 @@
+package org.hyperic.hq.hqapi1.test;
+
+import org.hyperic.hq.hqapi1.MetricApi;
+import org.hyperic.hq.hqapi1.MetricDataApi;
+import org.hyperic.hq.hqapi1.MetricDataResampler;
+import org.hyperic.hq.hqapi1.MetricDataResampler.Aggregation;
+import org.hyperic.hq.hqapi1.MetricDataResampler.Fill;
+import org.hyperic.hq.hqapi1.types.DataPoint;
+import org.hyperic.hq.hqapi1.types.MetricData;
+import org.hyperic.hq.hqapi1.types.MetricsDataResponse;
+import org.hyperic.hq.hqapi1.types.MetricsResponse;
+import org.hyperic.hq.hqapi1.types.Resource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MetricDataResampler_test extends MetricDataTestBase {
+
+    private static final long[] TS = { 0, 5, 10, 40, 45, 90 };
+    private static final double[] VALUES = { 1, 3, 2, 8, 10, 20 };
+    private static final double DELTA = 0.0000001;
+
+    public MetricDataResampler_test(String name) {
+        super(name);
+    }
+
+    private void assertSlots(double[] expected, double[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            if (Double.isNaN(expected[i])) {
+                assertTrue("Slot " + i + " should be empty", Double.isNaN(actual[i]));
+            } else {
+                assertEquals("Slot " + i, expected[i], actual[i], DELTA);
+            }
+        }
+    }
+
+    public void testFillNull() throws Exception {
+        MetricDataResampler r =
+                new MetricDataResampler(0, 99, 10, Fill.NULL, Aggregation.AVG);
+        assertEquals(10, r.getLength());
+        double n = Double.NaN;
+        assertSlots(new double[] { 2, 2, n, n, 9, n, n, n, n, 20 },
+                    r.resample(TS, VALUES, TS.length));
+    }
+
+    public void testFillPrevious() throws Exception {
+        MetricDataResampler r =
+                new MetricDataResampler(0, 99, 10, Fill.PREVIOUS, Aggregation.MAX);
+        assertSlots(new double[] { 3, 2, 2, 2, 10, 10, 10, 10, 10, 20 },
+                    r.resample(TS, VALUES, TS.length));
+    }
+
+    public void testFillLinear() throws Exception {
+        MetricDataResampler r =
+                new MetricDataResampler(0, 119, 10, Fill.LINEAR, Aggregation.LAST);
+        double n = Double.NaN;
+        assertSlots(new double[] { 3, 2, 2 + 8.0 / 3, 2 + 16.0 / 3,
+                                   10, 12, 14, 16, 18, 20, n, n },
+                    r.resample(TS, VALUES, TS.length));
+    }
+
+    public void testCount() throws Exception {
+        MetricDataResampler r =
+                new MetricDataResampler(0, 99, 10, Fill.LINEAR, Aggregation.COUNT);
+        assertSlots(new double[] { 2, 1, 0, 0, 2, 0, 0, 0, 0, 1 },
+                    r.resample(TS, VALUES, TS.length));
+    }
+
+    public void testCursorMatchesResample() throws Exception {
+        for (Fill fill : Fill.values()) {
+            MetricDataResampler r =
+                    new MetricDataResampler(0, 99, 10, fill, Aggregation.AVG);
+            MetricDataResampler.Cursor cursor = r.newCursor();
+            double[] streamed = new double[r.getLength()];
+            int pos = 0;
+            int i = 0;
+            for (long chunk = 0; chunk < 100; chunk += 30) {
+                while (i < TS.length && TS[i] < chunk + 30) {
+                    cursor.add(TS[i], VALUES[i]);
+                    i++;
+                }
+                cursor.advanceTo(chunk + 30);
+                pos += cursor.drain(streamed, pos, streamed.length - pos);
+            }
+            cursor.finish();
+            pos += cursor.drain(streamed, pos, streamed.length - pos);
+            assertEquals(r.getLength(), pos);
+            assertSlots(r.resample(TS, VALUES, TS.length), streamed);
+        }
+    }
+
+    public void testOutOfOrder() throws Exception {
+        MetricDataResampler r =
+                new MetricDataResampler(0, 99, 10, Fill.NULL, Aggregation.AVG);
+        MetricDataResampler.Cursor cursor = r.newCursor();
+        cursor.add(50, 1);
+        try {
+            cursor.add(10, 1);
+            fail("Out of order data point was accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testInvalidStep() throws Exception {
+        try {
+            new MetricDataResampler(0, 99, 0, Fill.NULL, Aggregation.AVG);
+            fail("Step of 0 was accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testResampleParallel() throws Exception {
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+
+        long end = System.currentTimeMillis();
+        long start = end - (8 * 60 * 60 * 1000);
+        MetricsDataResponse dataResponse =
+                dataApi.getData(metricsResponse.getMetric(), start, end);
+        hqAssertSuccess(dataResponse);
+
+        List<MetricData> data = dataResponse.getMetricData();
+        MetricDataResampler r =
+                new MetricDataResampler(start, end, 10 * 60 * 1000,
+                                        Fill.PREVIOUS, Aggregation.AVG);
+        double[][] parallel = r.resample(data, 4);
+        assertEquals(data.size(), parallel.length);
+        for (int i = 0; i < data.size(); i++) {
+            List<DataPoint> points = new ArrayList<DataPoint>(data.get(i).getDataPoint());
+            long[] ts = new long[points.size()];
+            double[] values = new double[points.size()];
+            for (int j = 0; j < ts.length; j++) {
+                ts[j] = points.get(j).getTimestamp();
+                values[j] = points.get(j).getValue();
+            }
+            assertSlots(r.resample(ts, values, ts.length), parallel[i]);
+        }
+    }
+}
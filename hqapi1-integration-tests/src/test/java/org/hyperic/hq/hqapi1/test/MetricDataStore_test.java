@@ -0,0 +1,115 @@
+package org.hyperic.hq.hqapi1.test;
+
+import org.hyperic.hq.hqapi1.MetricApi;
+import org.hyperic.hq.hqapi1.MetricDataApi;
+import org.hyperic.hq.hqapi1.MetricDataStore;
+import org.hyperic.hq.hqapi1.types.DataPoint;
+import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.MetricData;
+import org.hyperic.hq.hqapi1.types.MetricDataResponse;
+import org.hyperic.hq.hqapi1.types.MetricsResponse;
+import org.hyperic.hq.hqapi1.types.Resource;
+
+import java.io.File;
+import java.util.List;
+
+public class MetricDataStore_test extends MetricDataTestBase {
+
+    private File _dir;
+
+    public MetricDataStore_test(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+        _dir = File.createTempFile("metricdata", "store");
+        _dir.delete();
+    }
+
+    public void tearDown() throws Exception {
+        File[] files = _dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        _dir.delete();
+        super.tearDown();
+    }
+
+    public void testAppendAndQuery() throws Exception {
+
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        assertTrue("No metrics found for " + platform.getName(),
+                   metricsResponse.getMetric().size() > 0);
+        Metric metric = metricsResponse.getMetric().get(0);
+
+        long end = System.currentTimeMillis();
+        long start = end - (8 * 60 * 60 * 1000);
+        MetricDataResponse dataResponse = dataApi.getData(metric, start, end);
+        hqAssertSuccess(dataResponse);
+        List<DataPoint> expected = dataResponse.getMetricData().getDataPoint();
+
+        MetricDataStore store = new MetricDataStore(_dir);
+        assertEquals(expected.size(), store.append(dataResponse.getMetricData()));
+        // Appending the same data again is a no-op
+        assertEquals(0, store.append(dataResponse.getMetricData()));
+        store.close();
+
+        store = new MetricDataStore(_dir);
+        assertEquals(1, store.getMetricIds().length);
+        assertEquals(metric.getId(), store.getMetricIds()[0]);
+
+        MetricData stored = store.getData(metric.getId(), start, end);
+        assertEquals(expected.size(), stored.getDataPoint().size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getTimestamp(),
+                         stored.getDataPoint().get(i).getTimestamp());
+            assertEquals(expected.get(i).getValue(),
+                         stored.getDataPoint().get(i).getValue());
+        }
+
+        MetricDataStore.Summary summary = store.getSummary(metric.getId(), start, end);
+        assertEquals(expected.size(), summary.getCount());
+        double max = Double.NEGATIVE_INFINITY;
+        for (DataPoint dp : expected) {
+            max = Math.max(max, dp.getValue());
+        }
+        if (expected.size() > 0) {
+            assertEquals(max, summary.getMax());
+            assertEquals(expected.get(expected.size() - 1).getTimestamp(),
+                         store.getLastTimestamp(metric.getId()));
+        }
+        store.close();
+    }
+
+    public void testMaxOpen() throws Exception {
+        final int METRICS = 10;
+        MetricDataStore store = new MetricDataStore(_dir, 2);
+
+        // Append to more metrics than may be open, twice so each file is
+        // closed and reopened.
+        for (int round = 0; round < 2; round++) {
+            for (int id = 0; id < METRICS; id++) {
+                long[] ts = { round * 2, round * 2 + 1 };
+                double[] values = { id, id };
+                assertEquals(2, store.append(id, ts, values, ts.length));
+            }
+        }
+
+        assertEquals(METRICS, store.getMetricIds().length);
+        for (int id = 0; id < METRICS; id++) {
+            MetricData stored = store.getData(id, 0, Long.MAX_VALUE);
+            assertEquals(4, stored.getDataPoint().size());
+            assertEquals(3, store.getLastTimestamp(id));
+            assertEquals(4, store.getSummary(id, 0, Long.MAX_VALUE).getCount());
+        }
+        store.close();
+    }
+}
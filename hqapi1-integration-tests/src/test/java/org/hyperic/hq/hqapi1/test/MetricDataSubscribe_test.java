@@ -0,0 +1,175 @@
+package org.hyperic.hq.hqapi1.test;
+
+import org.hyperic.hq.hqapi1.MetricApi;
+import org.hyperic.hq.hqapi1.MetricDataApi;
+import org.hyperic.hq.hqapi1.MetricDataListener;
+import org.hyperic.hq.hqapi1.MetricDataSubscriber;
+import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.MetricData;
+import org.hyperic.hq.hqapi1.types.MetricSubscription;
+import org.hyperic.hq.hqapi1.types.MetricSubscriptionDataResponse;
+import org.hyperic.hq.hqapi1.types.MetricSubscriptionResponse;
+import org.hyperic.hq.hqapi1.types.MetricsResponse;
+import org.hyperic.hq.hqapi1.types.Resource;
+import org.hyperic.hq.hqapi1.types.StatusResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class MetricDataSubscribe_test extends MetricDataTestBase {
+
+    public MetricDataSubscribe_test(String name) {
+        super(name);
+    }
+
+    private List<Metric> getPlatformMetrics() throws Exception {
+        MetricApi api = getApi().getMetricApi();
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        assertTrue("No enabled metrics found for " + platform.getName(),
+                   metricsResponse.getMetric().size() > 0);
+        return metricsResponse.getMetric();
+    }
+
+    public void testSubscribePollUnsubscribe() throws Exception {
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+        List<Metric> metrics = getPlatformMetrics();
+
+        MetricSubscriptionResponse subResponse = dataApi.subscribe(metrics);
+        hqAssertSuccess(subResponse);
+        MetricSubscription subscription = subResponse.getMetricSubscription();
+        assertNotNull(subscription.getId());
+        assertTrue("Invalid ttl", subscription.getTtl() > 0);
+
+        long start = System.currentTimeMillis();
+        MetricSubscriptionDataResponse pollResponse =
+                dataApi.poll(subscription, 1000);
+        hqAssertSuccess(pollResponse);
+        if (pollResponse.getMetricData().isEmpty()) {
+            assertTrue("Poll returned before the timeout",
+                       System.currentTimeMillis() - start >= 1000);
+        }
+        for (MetricData data : pollResponse.getMetricData()) {
+            boolean found = false;
+            for (Metric m : metrics) {
+                found |= m.getId() == data.getMetricId();
+            }
+            assertTrue("Unexpected metric " + data.getMetricId(), found);
+            assertTrue("No data points", data.getDataPoint().size() > 0);
+        }
+
+        StatusResponse unsubResponse = dataApi.unsubscribe(subscription);
+        hqAssertSuccess(unsubResponse);
+
+        pollResponse = dataApi.poll(subscription, 0);
+        hqAssertFailureObjectNotFound(pollResponse);
+
+        unsubResponse = dataApi.unsubscribe(subscription);
+        hqAssertFailureObjectNotFound(unsubResponse);
+    }
+
+    public void testSubscribeInvalidMetric() throws Exception {
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Metric m = new Metric();
+        m.setId(Integer.MAX_VALUE);
+        MetricSubscriptionResponse response =
+                dataApi.subscribe(Collections.singletonList(m));
+        hqAssertFailureObjectNotFound(response);
+    }
+
+    public void testSubscribeNoMetrics() throws Exception {
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        MetricSubscriptionResponse response =
+                dataApi.subscribe(new ArrayList<Metric>());
+        hqAssertFailureInvalidParameters(response);
+    }
+
+    public void testPollInvalidSubscription() throws Exception {
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        MetricSubscription subscription = new MetricSubscription();
+        subscription.setId("invalid");
+        MetricSubscriptionDataResponse response = dataApi.poll(subscription, 0);
+        hqAssertFailureObjectNotFound(response);
+    }
+
+    public void testPollInvalidTimeout() throws Exception {
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        MetricSubscriptionResponse subResponse =
+                dataApi.subscribe(getPlatformMetrics());
+        hqAssertSuccess(subResponse);
+        MetricSubscription subscription = subResponse.getMetricSubscription();
+
+        MetricSubscriptionDataResponse response = dataApi.poll(subscription, -1);
+        hqAssertFailureInvalidParameters(response);
+
+        hqAssertSuccess(dataApi.unsubscribe(subscription));
+    }
+
+    public void testSubscribeLimit() throws Exception {
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+        List<Metric> metrics = getPlatformMetrics();
+
+        // Other subscriptions of this user count towards the limit, so
+        // subscribe until denied.
+        final int MAX_SUBSCRIPTIONS = 10;
+        List<MetricSubscription> subscriptions = new ArrayList<MetricSubscription>();
+        MetricSubscriptionResponse response = null;
+        try {
+            for (int i = 0; i <= MAX_SUBSCRIPTIONS; i++) {
+                response = dataApi.subscribe(metrics);
+                if (response.getMetricSubscription() == null) {
+                    break;
+                }
+                hqAssertSuccess(response);
+                subscriptions.add(response.getMetricSubscription());
+            }
+            hqAssertFailureOperationDenied(response);
+            assertTrue("Too many subscriptions allowed",
+                       subscriptions.size() <= MAX_SUBSCRIPTIONS);
+        } finally {
+            for (MetricSubscription subscription : subscriptions) {
+                hqAssertSuccess(dataApi.unsubscribe(subscription));
+            }
+        }
+    }
+
+    public void testSubscriber() throws Exception {
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        final List<String> errors =
+                Collections.synchronizedList(new ArrayList<String>());
+        MetricDataListener listener = new MetricDataListener() {
+            public void onData(List<MetricData> data) {
+                for (MetricData d : data) {
+                    if (d.getDataPoint().isEmpty()) {
+                        errors.add("No data points for " + d.getMetricName());
+                    }
+                }
+            }
+
+            public void onDataLost(int dropped) {
+            }
+
+            public void onError(String reason, Exception cause) {
+                errors.add(reason);
+            }
+        };
+
+        MetricDataSubscriber subscriber =
+                dataApi.createSubscriber(getPlatformMetrics(), listener);
+        subscriber.setPollTimeout(1000);
+        subscriber.start();
+        assertTrue(subscriber.isRunning());
+        Thread.sleep(3000);
+        subscriber.stop();
+        assertFalse(subscriber.isRunning());
+
+        assertTrue("Subscriber errors: " + errors, errors.isEmpty());
+    }
+}
@@ -0,0 +1,192 @@
+package org.hyperic.hq.hqapi1.test;
+
+import org.hyperic.hq.hqapi1.MetricApi;
+import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.MetricResponse;
+import org.hyperic.hq.hqapi1.types.MetricScheduleResponse;
+import org.hyperic.hq.hqapi1.types.MetricsResponse;
+import org.hyperic.hq.hqapi1.types.Resource;
+import org.hyperic.hq.hqapi1.types.User;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class MetricUpdateSchedule_test extends MetricTestBase {
+
+    public MetricUpdateSchedule_test(String name) {
+        super(name);
+    }
+
+    private Metric findMetric(Resource r, boolean enabled) throws Exception {
+        MetricApi api = getApi().getMetricApi();
+        MetricsResponse metrics = api.getMetrics(r, false);
+        hqAssertSuccess(metrics);
+        for (Metric m : metrics.getMetric()) {
+            if (m.isEnabled() == enabled && !m.getName().equals("Availability")) {
+                return m;
+            }
+        }
+        fail("Unable to find " + (enabled ? "enabled" : "disabled") +
+             " metric for " + r.getName());
+        return null;
+    }
+
+    public void testUpdateIntervalByMetric() throws Exception {
+        MetricApi api = getApi().getMetricApi();
+        Resource platform = getLocalPlatformResource(false, false);
+        Metric metric = findMetric(platform, true);
+
+        final long interval = metric.getInterval();
+        List<Metric> metrics = Collections.singletonList(metric);
+
+        MetricScheduleResponse response =
+                api.updateSchedule(metrics, null, interval * 2);
+        hqAssertSuccess(response);
+        assertEquals(Integer.valueOf(1), response.getUpdated());
+        assertEquals(Integer.valueOf(1), response.getResources());
+
+        MetricResponse metricResponse = api.getMetric(metric.getId());
+        hqAssertSuccess(metricResponse);
+        assertEquals(interval * 2, metricResponse.getMetric().getInterval());
+
+        // Cannot reschedule so quickly without getting ObjectNotFoundException
+        // for ScheduleRevNum
+        pauseTest();
+
+        response = api.updateSchedule(metrics, null, interval);
+        hqAssertSuccess(response);
+        assertEquals(Integer.valueOf(1), response.getUpdated());
+    }
+
+    public void testUpdateUnchanged() throws Exception {
+        MetricApi api = getApi().getMetricApi();
+        Resource platform = getLocalPlatformResource(false, false);
+        Metric metric = findMetric(platform, true);
+
+        MetricScheduleResponse response =
+                api.updateSchedule(Collections.singletonList(metric), true,
+                                   metric.getInterval());
+        hqAssertSuccess(response);
+        assertEquals(Integer.valueOf(0), response.getUpdated());
+        assertEquals(Integer.valueOf(0), response.getResources());
+    }
+
+    public void testEnableByTemplate() throws Exception {
+        MetricApi api = getApi().getMetricApi();
+        Resource platform = getLocalPlatformResource(false, false);
+        Metric metric = findMetric(platform, false);
+
+        List<Resource> resources = new ArrayList<Resource>();
+        resources.add(platform);
+
+        MetricScheduleResponse response =
+                api.updateSchedule(metric.getMetricTemplate(), resources, true, 0l);
+        hqAssertSuccess(response);
+        assertEquals(Integer.valueOf(1), response.getUpdated());
+
+        MetricResponse metricResponse = api.getMetric(metric.getId());
+        hqAssertSuccess(metricResponse);
+        assertTrue("Metric " + metric.getName() + " not enabled",
+                   metricResponse.getMetric().isEnabled());
+        assertEquals(metric.getMetricTemplate().getDefaultInterval(),
+                     metricResponse.getMetric().getInterval());
+
+        // Cannot reschedule so quickly without getting ObjectNotFoundException
+        // for ScheduleRevNum
+        pauseTest();
+
+        response = api.updateSchedule(metric.getMetricTemplate(), resources,
+                                      false, null);
+        hqAssertSuccess(response);
+
+        metricResponse = api.getMetric(metric.getId());
+        hqAssertSuccess(metricResponse);
+        assertFalse("Metric " + metric.getName() + " still enabled",
+                    metricResponse.getMetric().isEnabled());
+    }
+
+    public void testUpdateUnauthorized() throws Exception {
+        MetricApi api = getApi().getMetricApi();
+        Resource platform = getLocalPlatformResource(false, false);
+        Metric metric = findMetric(platform, true);
+        final long interval = metric.getInterval();
+
+        List<User> users = createTestUsers(1);
+        User user = users.get(0);
+        MetricApi apiUnauthorized = getApi(user.getName(), TESTUSER_PASSWORD).
+                getMetricApi();
+
+        MetricScheduleResponse response =
+                apiUnauthorized.updateSchedule(Collections.singletonList(metric),
+                                               null, interval * 2);
+        hqAssertSuccess(response);
+        assertEquals(Integer.valueOf(0), response.getUpdated());
+        assertEquals(1, response.getDeniedMetricId().size());
+        assertEquals(metric.getId(),
+                     response.getDeniedMetricId().get(0).intValue());
+
+        List<Resource> resources = Collections.singletonList(platform);
+        response = apiUnauthorized.updateSchedule(metric.getMetricTemplate(),
+                                                  resources, false, null);
+        hqAssertSuccess(response);
+        assertEquals(Integer.valueOf(0), response.getUpdated());
+        assertEquals(1, response.getDeniedMetricId().size());
+
+        MetricResponse metricResponse = api.getMetric(metric.getId());
+        hqAssertSuccess(metricResponse);
+        assertTrue("Metric " + metric.getName() + " disabled by unauthorized user",
+                   metricResponse.getMetric().isEnabled());
+        assertEquals(interval, metricResponse.getMetric().getInterval());
+
+        deleteTestUsers(users);
+    }
+
+    public void testUpdateInvalidMetric() throws Exception {
+        MetricApi api = getApi().getMetricApi();
+
+        Metric m = new Metric();
+        m.setId(Integer.MAX_VALUE);
+        MetricScheduleResponse response =
+                api.updateSchedule(Collections.singletonList(m), null, 60000l);
+        hqAssertFailureObjectNotFound(response);
+    }
+
+    public void testUpdateInvalidInterval() throws Exception {
+        MetricApi api = getApi().getMetricApi();
+        Resource platform = getLocalPlatformResource(false, false);
+        Metric metric = findMetric(platform, true);
+
+        MetricScheduleResponse response =
+                api.updateSchedule(Collections.singletonList(metric), null, 1234l);
+        hqAssertFailureInvalidParameters(response);
+    }
+
+    public void testEnableNoInterval() throws Exception {
+        MetricApi api = getApi().getMetricApi();
+        Resource platform = getLocalPlatformResource(false, false);
+        Metric metric = findMetric(platform, false);
+
+        MetricScheduleResponse response =
+                api.updateSchedule(Collections.singletonList(metric), true, null);
+        hqAssertFailureInvalidParameters(response);
+    }
+
+    public void testUpdateNoChange() throws Exception {
+        MetricApi api = getApi().getMetricApi();
+        Resource platform = getLocalPlatformResource(false, false);
+        Metric metric = findMetric(platform, true);
+
+        MetricScheduleResponse response =
+                api.updateSchedule(Collections.singletonList(metric), null, null);
+        hqAssertFailureInvalidParameters(response);
+    }
+
+    public void testUpdateNoMetrics() throws Exception {
+        MetricApi api = getApi().getMetricApi();
+
+        MetricScheduleResponse response =
+                api.updateSchedule(new ArrayList<Metric>(), null, 60000l);
+        hqAssertFailureInvalidParameters(response);
+    }
+}
@@ -0,0 +1,154 @@
+package org.hyperic.hq.hqapi1.test;
+
+import org.hyperic.hq.hqapi1.ResourceApi;
+import org.hyperic.hq.hqapi1.ResourceCache;
+import org.hyperic.hq.hqapi1.types.Resource;
+import org.hyperic.hq.hqapi1.types.ResourceInfo;
+import org.hyperic.hq.hqapi1.types.ResourceResponse;
+import org.hyperic.hq.hqapi1.types.ResourcesResponse;
+import org.hyperic.hq.hqapi1.types.StatusResponse;
+
+public class ResourceCache_test extends ResourceTestBase {
+
+    private static final long TTL = 10 * 60 * 1000;
+
+    public ResourceCache_test(String name) {
+        super(name);
+    }
+
+    public void testGetById() throws Exception {
+        ResourceCache cache = getApi().getResourceApi().createCache(TTL);
+        Resource platform = getLocalPlatformResource(false, true);
+
+        ResourceResponse response = cache.getResource(platform.getId(), false, true);
+        hqAssertSuccess(response);
+        validateResource(response.getResource());
+        assertEquals(platform.getId(), response.getResource().getId());
+        assertEquals(platform.getResource().size(),
+                     response.getResource().getResource().size());
+        assertTrue(cache.getSize() > 0);
+
+        response = cache.getResource(platform.getId(), false, false);
+        hqAssertSuccess(response);
+        assertEquals(0, response.getResource().getResource().size());
+    }
+
+    public void testGetByAeid() throws Exception {
+        ResourceCache cache = getApi().getResourceApi().createCache(TTL);
+        Resource platform = getLocalPlatformResource(false, false);
+
+        String aeid = platform.getTypeId() + ":" + platform.getInstanceId();
+        ResourceResponse response = cache.getResource(aeid, false, false);
+        hqAssertSuccess(response);
+        assertEquals(platform.getId(), response.getResource().getId());
+    }
+
+    public void testGetPlatformByNameAndFqdn() throws Exception {
+        ResourceCache cache = getApi().getResourceApi().createCache(TTL);
+        Resource platform = getLocalPlatformResource(false, false);
+
+        ResourceResponse response =
+                cache.getPlatformResource(platform.getName(), false, false);
+        hqAssertSuccess(response);
+        assertEquals(platform.getId(), response.getResource().getId());
+
+        for (ResourceInfo info : platform.getResourceInfo()) {
+            if (info.getKey().equals("fqdn")) {
+                response = cache.getPlatformResourceByFqdn(info.getValue(),
+                                                           false, false);
+                hqAssertSuccess(response);
+                assertEquals(platform.getId(), response.getResource().getId());
+            }
+        }
+    }
+
+    public void testGetPlatformForChild() throws Exception {
+        ResourceCache cache = getApi().getResourceApi().createCache(TTL);
+        Resource platform = getLocalPlatformResource(false, true);
+        assertTrue("No servers found for " + platform.getName(),
+                   platform.getResource().size() > 0);
+
+        Resource server = platform.getResource().get(0);
+        ResourceResponse response = cache.getPlatformResource(server.getId(),
+                                                              false, false);
+        hqAssertSuccess(response);
+        assertEquals(platform.getId(), response.getResource().getId());
+    }
+
+    public void testGetByPrototype() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+        ResourceCache cache = api.createCache(TTL);
+        Resource platform = getLocalPlatformResource(false, false);
+
+        ResourcesResponse cached =
+                cache.getResources(platform.getResourcePrototype(), false, false);
+        hqAssertSuccess(cached);
+        ResourcesResponse direct =
+                api.getResources(platform.getResourcePrototype(), false, false);
+        hqAssertSuccess(direct);
+        assertEquals(direct.getResource().size(), cached.getResource().size());
+    }
+
+    public void testReturnsCopies() throws Exception {
+        ResourceCache cache = getApi().getResourceApi().createCache(TTL);
+        Resource platform = getLocalPlatformResource(false, false);
+
+        ResourceResponse response = cache.getResource(platform.getId(), false, false);
+        hqAssertSuccess(response);
+        response.getResource().setName("Modified");
+
+        response = cache.getResource(platform.getId(), false, false);
+        hqAssertSuccess(response);
+        assertEquals(platform.getName(), response.getResource().getName());
+    }
+
+    private boolean contains(ResourcesResponse response, Resource resource) {
+        for (Resource r : response.getResource()) {
+            if (r.getId().equals(resource.getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void testInvalidateResource() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+        ResourceCache cache = api.createCache(TTL);
+        Resource platform = getLocalPlatformResource(false, false);
+        hqAssertSuccess(cache.getResource(platform.getId(), false, false));
+
+        Resource service = createTestHTTPService();
+
+        // Created after the inventory was loaded, found through the api.
+        hqAssertSuccess(cache.getResource(service.getId(), false, false));
+        ResourcesResponse byPrototype =
+                cache.getResources(service.getResourcePrototype(), false, false);
+        hqAssertSuccess(byPrototype);
+        assertFalse(contains(byPrototype, service));
+
+        hqAssertSuccess(cache.invalidate(platform));
+        byPrototype = cache.getResources(service.getResourcePrototype(), false, false);
+        hqAssertSuccess(byPrototype);
+        assertTrue("Service " + service.getName() + " not found after refresh",
+                   contains(byPrototype, service));
+
+        StatusResponse deleteResponse = api.deleteResource(service.getId());
+        hqAssertSuccess(deleteResponse);
+    }
+
+    public void testInvalidResourceId() throws Exception {
+        ResourceCache cache = getApi().getResourceApi().createCache(TTL);
+
+        ResourceResponse response = cache.getResource(Integer.MAX_VALUE, false, false);
+        hqAssertFailureObjectNotFound(response);
+    }
+
+    public void testInvalidTtl() throws Exception {
+        try {
+            getApi().getResourceApi().createCache(0);
+            fail("Cache created with a ttl of 0");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
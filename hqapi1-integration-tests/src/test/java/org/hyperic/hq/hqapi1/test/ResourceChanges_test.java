@@ -0,0 +1,245 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+package org.hyperic.hq.hqapi1.test;
+
+import org.hyperic.hq.hqapi1.ResourceApi;
+import org.hyperic.hq.hqapi1.types.Resource;
+import org.hyperic.hq.hqapi1.types.ResourceChange;
+import org.hyperic.hq.hqapi1.types.ResourceChangeType;
+import org.hyperic.hq.hqapi1.types.ResourceChangesResponse;
+import org.hyperic.hq.hqapi1.types.StatusResponse;
+import org.hyperic.hq.hqapi1.types.User;
+
+import java.util.List;
+
+public class ResourceChanges_test extends ResourceTestBase {
+
+    public ResourceChanges_test(String name) {
+        super(name);
+    }
+
+    private ResourceChange findChange(ResourceChangesResponse response,
+                                      ResourceChangeType type,
+                                      Resource r) {
+        for (ResourceChange c : response.getResourceChange()) {
+            if (c.getType() == type &&
+                c.getTypeId() == r.getTypeId().intValue() &&
+                c.getInstanceId() == r.getInstanceId().intValue()) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    public void testGetChangesNone() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        ResourceChangesResponse response =
+                api.getResourceChanges(Long.MAX_VALUE, false);
+        hqAssertSuccess(response);
+        assertEquals(0, response.getResourceChange().size());
+        assertNotNull("No change token returned", response.getToken());
+    }
+
+    public void testGetChangesInvalidToken() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        ResourceChangesResponse response =
+                api.getResourceChanges("invalid", false);
+        hqAssertFailureInvalidParameters(response);
+    }
+
+    public void testGetChangesCreatedAndDeleted() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        // Use a token from the server to avoid clock differences
+        ResourceChangesResponse start =
+                api.getResourceChanges(Long.MAX_VALUE, false);
+        hqAssertSuccess(start);
+        String token = start.getToken();
+
+        Resource service = createTestHTTPService();
+
+        ResourceChangesResponse response = api.getResourceChanges(token, true);
+        hqAssertSuccess(response);
+        ResourceChange created = findChange(response, ResourceChangeType.CREATED,
+                                            service);
+        assertNotNull("Created resource " + service.getName() + " not found",
+                      created);
+        assertEquals(service.getId(), created.getResource().getId());
+        assertNotNull(created.getResource().getFingerprint());
+        assertNotNull(response.getToken());
+
+        // Cannot delete resources soon after modifying them..
+        try {
+            Thread.sleep(2000);
+        } catch (InterruptedException e) {
+            // Ignore
+        }
+
+        StatusResponse deleteResponse = api.deleteResource(service.getId());
+        hqAssertSuccess(deleteResponse);
+
+        // Deletions are recorded asynchronously
+        ResourceChange deleted = null;
+        for (int i = 0; i < 10 && deleted == null; i++) {
+            pauseTest();
+            response = api.getResourceChanges(token, false);
+            hqAssertSuccess(response);
+            if (!response.isComplete()) {
+                // Server restarted or changes dropped, nothing to verify
+                return;
+            }
+            deleted = findChange(response, ResourceChangeType.DELETED, service);
+        }
+        assertNotNull("Deleted resource " + service.getName() + " not found",
+                      deleted);
+        assertNull(deleted.getResource());
+        assertNull("Deleted resource reported as created",
+                   findChange(response, ResourceChangeType.CREATED, service));
+    }
+
+    public void testGetChangesNotRepeated() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        ResourceChangesResponse start =
+                api.getResourceChanges(Long.MAX_VALUE, false);
+        hqAssertSuccess(start);
+
+        Resource service = createTestHTTPService();
+
+        ResourceChangesResponse response =
+                api.getResourceChanges(start.getToken(), false);
+        hqAssertSuccess(response);
+        assertNotNull("Created resource " + service.getName() + " not found",
+                      findChange(response, ResourceChangeType.CREATED, service));
+
+        // The creation falls in the token's lag window but was already
+        // returned.
+        ResourceChangesResponse next =
+                api.getResourceChanges(response.getToken(), false);
+        hqAssertSuccess(next);
+        assertNull("Created resource " + service.getName() + " returned again",
+                   findChange(next, ResourceChangeType.CREATED, service));
+
+        // Cannot delete resources soon after modifying them..
+        try {
+            Thread.sleep(2000);
+        } catch (InterruptedException e) {
+            // Ignore
+        }
+
+        StatusResponse deleteResponse = api.deleteResource(service.getId());
+        hqAssertSuccess(deleteResponse);
+    }
+
+    public void testGetChangesDeletedUnauthorized() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        ResourceChangesResponse start =
+                api.getResourceChanges(Long.MAX_VALUE, false);
+        hqAssertSuccess(start);
+
+        Resource service = createTestHTTPService();
+
+        List<User> users = createTestUsers(1);
+        User user = users.get(0);
+        ResourceApi apiUnauthorized = getApi(user.getName(), TESTUSER_PASSWORD).
+                getResourceApi();
+
+        // Cannot delete resources soon after modifying them..
+        try {
+            Thread.sleep(2000);
+        } catch (InterruptedException e) {
+            // Ignore
+        }
+
+        StatusResponse deleteResponse = api.deleteResource(service.getId());
+        hqAssertSuccess(deleteResponse);
+
+        // Deletions are recorded asynchronously
+        ResourceChange deleted = null;
+        for (int i = 0; i < 10 && deleted == null; i++) {
+            pauseTest();
+            ResourceChangesResponse response =
+                    api.getResourceChanges(start.getToken(), false);
+            hqAssertSuccess(response);
+            if (!response.isComplete()) {
+                // Server restarted or changes dropped, nothing to verify
+                deleteTestUsers(users);
+                return;
+            }
+            deleted = findChange(response, ResourceChangeType.DELETED, service);
+        }
+        assertNotNull("Deleted resource " + service.getName() + " not found",
+                      deleted);
+
+        ResourceChangesResponse response =
+                apiUnauthorized.getResourceChanges(start.getToken(), false);
+        hqAssertSuccess(response);
+        assertNull("Deleted resource returned to unauthorized user",
+                   findChange(response, ResourceChangeType.DELETED, service));
+        assertFalse("Changes with withheld deletions reported complete",
+                    response.isComplete());
+
+        deleteTestUsers(users);
+    }
+
+    public void testGetChangesUnauthorized() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        ResourceChangesResponse start =
+                api.getResourceChanges(Long.MAX_VALUE, false);
+        hqAssertSuccess(start);
+
+        Resource service = createTestHTTPService();
+
+        List<User> users = createTestUsers(1);
+        User user = users.get(0);
+        ResourceApi apiUnauthorized = getApi(user.getName(), TESTUSER_PASSWORD).
+                getResourceApi();
+
+        ResourceChangesResponse response =
+                apiUnauthorized.getResourceChanges(start.getToken(), false);
+        hqAssertSuccess(response);
+        assertNull("Unviewable resource returned",
+                   findChange(response, ResourceChangeType.CREATED, service));
+
+        deleteTestUsers(users);
+
+        // Cannot delete resources soon after modifying them..
+        try {
+            Thread.sleep(2000);
+        } catch (InterruptedException e) {
+            // Ignore
+        }
+
+        StatusResponse deleteResponse = api.deleteResource(service.getId());
+        hqAssertSuccess(deleteResponse);
+    }
+}
@@ -137,6 +137,96 @@ public class ResourceFind_test extends ResourceTestBase {
         assertTrue("Found matches for '" + DESC + "'", response.getResource().size() == 0);
     }
 
+    public void testFindByDescriptionExact() throws Exception {
+        final String DESC = "Hyperic HQ monitor Agent";
+        ResourceApi api = getApi().getResourceApi();
+
+        ResourcesResponse response =
+                api.getResources(DESC, ResourceApi.DescriptionMatch.EXACT,
+                                 false, false, 100);
+        hqAssertSuccess(response);
+        assertTrue("Found no matches for '" + DESC + "'",
+                   response.getResource().size() > 0);
+
+        // Partial value matches nothing exactly
+        response = api.getResources("HQ monitor", ResourceApi.DescriptionMatch.EXACT,
+                                    false, false, 100);
+        hqAssertSuccess(response);
+        assertEquals(0, response.getResource().size());
+    }
+
+    public void testFindByDescriptionPrefix() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        ResourcesResponse response =
+                api.getResources("Hyperic HQ", ResourceApi.DescriptionMatch.PREFIX,
+                                 false, false, 100);
+        hqAssertSuccess(response);
+        assertTrue("Found no matches for prefix",
+                   response.getResource().size() > 0);
+
+        response = api.getResources("HQ monitor", ResourceApi.DescriptionMatch.PREFIX,
+                                    false, false, 100);
+        hqAssertSuccess(response);
+        assertEquals(0, response.getResource().size());
+    }
+
+    public void testFindByDescriptionRanking() throws Exception {
+        final String DESC = "Hyperic HQ monitor Agent";
+        ResourceApi api = getApi().getResourceApi();
+
+        ResourcesResponse exact =
+                api.getResources(DESC, ResourceApi.DescriptionMatch.EXACT,
+                                 false, false, 1000);
+        hqAssertSuccess(exact);
+        ResourcesResponse contains =
+                api.getResources(DESC, ResourceApi.DescriptionMatch.CONTAINS,
+                                 false, false, 1000);
+        hqAssertSuccess(contains);
+
+        // Exact matches are ranked first
+        assertTrue(contains.getResource().size() >= exact.getResource().size());
+        for (int i = 0; i < exact.getResource().size(); i++) {
+            assertEquals(exact.getResource().get(i).getId(),
+                         contains.getResource().get(i).getId());
+        }
+    }
+
+    public void testFindByDescriptionLimit() throws Exception {
+        final String DESC = "HQ";
+        ResourceApi api = getApi().getResourceApi();
+
+        ResourcesResponse all = api.getResources(DESC, false, false);
+        hqAssertSuccess(all);
+        assertTrue("Found no matches for '" + DESC + "'", all.getResource().size() > 0);
+
+        ResourcesResponse limited =
+                api.getResources(DESC, ResourceApi.DescriptionMatch.CONTAINS,
+                                 false, false, 1);
+        hqAssertSuccess(limited);
+        assertEquals(1, limited.getResource().size());
+    }
+
+    public void testFindByDescriptionWildcards() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        // Wildcards in the description are matched literally
+        ResourcesResponse response =
+                api.getResources("%", ResourceApi.DescriptionMatch.CONTAINS,
+                                 false, false, 10);
+        hqAssertSuccess(response);
+        for (Resource r : response.getResource()) {
+            assertTrue(r.getDescription().indexOf('%') >= 0);
+        }
+
+        response = api.getResources("_", ResourceApi.DescriptionMatch.PREFIX,
+                                    false, false, 10);
+        hqAssertSuccess(response);
+        for (Resource r : response.getResource()) {
+            assertTrue(r.getDescription().startsWith("_"));
+        }
+    }
+
     public void testFindResourceByAgentUnauthorized() throws Exception {
         List<User> users = createTestUsers(1);
         User user = users.get(0);
@@ -188,4 +278,37 @@ public class ResourceFind_test extends ResourceTestBase {
 
         deleteTestUsers(users);
     }
+
+    public void testFindResourceByPrototypePagedUnauthorized() throws Exception {
+        List<User> users = createTestUsers(1);
+        User user = users.get(0);
+        ResourceApi api = getApi(user.getName(), TESTUSER_PASSWORD).getResourceApi();
+
+        // Use admin user to get local platform..
+        Resource localPlatform = getLocalPlatformResource(false, false);
+
+        ResourcesResponse response =
+                api.getResources(localPlatform.getResourcePrototype(), false, false, 0, 10);
+        hqAssertSuccess(response);
+
+        assertTrue("Found resources with unauthorized user", response.getResource().size() == 0);
+        assertNull(response.getNext());
+
+        deleteTestUsers(users);
+    }
+
+    public void testGetResourcesByIdsUnauthorized() throws Exception {
+        List<User> users = createTestUsers(1);
+        User user = users.get(0);
+        ResourceApi api = getApi(user.getName(), TESTUSER_PASSWORD).getResourceApi();
+
+        // Use admin user to get local platform..
+        Resource localPlatform = getLocalPlatformResource(false, false);
+
+        ResourcesResponse response =
+                api.getResources(new int[] { localPlatform.getId() }, false, false);
+        hqAssertFailurePermissionDenied(response);
+
+        deleteTestUsers(users);
+    }
 }
@@ -371,7 +371,94 @@ public class ResourceGet_test extends ResourceTestBase {
         
         assertTrue(response.getResource().size() > 0);
     }
+
+    public void testGetPlatformResourcesWithChildren() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        Resource localPlatform = getLocalPlatformResource(false, true);
+        ResourcesResponse response = api.getPlatformResources(false, true);
+        hqAssertSuccess(response);
+
+        Resource listed = null;
+        for (Resource r : response.getResource()) {
+            validateResource(r);
+            if (r.getId().equals(localPlatform.getId())) {
+                listed = r;
+            }
+        }
+        assertNotNull("Local platform not found", listed);
+        assertEquals(localPlatform.getResource().size(),
+                     listed.getResource().size());
+        for (int i = 0; i < listed.getResource().size(); i++) {
+            Resource expected = localPlatform.getResource().get(i);
+            Resource actual = listed.getResource().get(i);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getResource().size(),
+                         actual.getResource().size());
+        }
+    }
     
+    public void testGetResourcesByIds() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        Resource localPlatform = getLocalPlatformResource(false, true);
+        List<Resource> servers = localPlatform.getResource();
+        assertTrue("No servers found for " + localPlatform.getName(),
+                   servers.size() > 0);
+
+        // Request the servers in reverse, followed by the platform
+        int[] ids = new int[servers.size() + 1];
+        for (int i = 0; i < servers.size(); i++) {
+            ids[i] = servers.get(servers.size() - 1 - i).getId();
+        }
+        ids[servers.size()] = localPlatform.getId();
+
+        ResourcesResponse response = api.getResources(ids, false, true);
+        hqAssertSuccess(response);
+        assertEquals(ids.length, response.getResource().size());
+        for (int i = 0; i < ids.length; i++) {
+            Resource r = response.getResource().get(i);
+            validateResource(r);
+            assertEquals(ids[i], r.getId().intValue());
+        }
+
+        Resource platform = response.getResource().get(servers.size());
+        assertEquals(servers.size(), platform.getResource().size());
+    }
+
+    public void testGetResourcesByIdsVerbose() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        Resource localPlatform = getLocalPlatformResource(true, false);
+        ResourcesResponse response =
+                api.getResources(new int[] { localPlatform.getId() }, true, false);
+        hqAssertSuccess(response);
+        assertEquals(1, response.getResource().size());
+        Resource r = response.getResource().get(0);
+        validateResource(r);
+        assertEquals(localPlatform.getResourceConfig().size(),
+                     r.getResourceConfig().size());
+        assertEquals(0, r.getResource().size());
+    }
+
+    public void testGetResourcesByInvalidId() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        Resource localPlatform = getLocalPlatformResource(false, false);
+        ResourcesResponse response =
+                api.getResources(new int[] { localPlatform.getId(),
+                                             Integer.MAX_VALUE }, false, false);
+        hqAssertFailureObjectNotFound(response);
+    }
+
+    public void testGetResourcesByNoIds() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        ResourcesResponse response = api.getResources(new int[0], false, false);
+        hqAssertSuccess(response);
+        assertEquals(0, response.getResource().size());
+    }
+
     public void testGetPlatformResourceByIp() throws Exception {
 
         Resource r = getLocalPlatformResource(false, false);
@@ -395,4 +482,71 @@ public class ResourceGet_test extends ResourceTestBase {
         hqAssertFailureObjectNotFound(getResponse);
     }
 
-}
\ No newline at end of file
+    public void testGetResourceDepth() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+        Resource platform = getLocalPlatformResource(false, false);
+
+        ResourceResponse response = api.getResource(platform.getId(), false,
+                                                    1, null);
+        hqAssertSuccess(response);
+        List<Resource> children = response.getResource().getResource();
+        assertTrue("No children found for " + platform.getName(),
+                   children.size() > 0);
+        for (Resource child : children) {
+            assertEquals("Children returned beyond the requested depth",
+                         0, child.getResource().size());
+        }
+    }
+
+    public void testGetResourceChildPrototype() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+        Resource service = createTestHTTPService();
+        Resource platform = getLocalPlatformResource(false, false);
+
+        ResourceResponse response = api.getResource(platform.getId(), false,
+                                                    2, "HTTP");
+        hqAssertSuccess(response);
+        boolean found = false;
+        for (Resource child : response.getResource().getResource()) {
+            if (child.getId().equals(service.getId())) {
+                found = true;
+            }
+            if ("HTTP".equals(child.getResourcePrototype().getName())) {
+                continue;
+            }
+            // Anything else must lead to an HTTP service
+            assertTrue(child.getName() + " has no HTTP children",
+                       child.getResource().size() > 0);
+            for (Resource grandChild : child.getResource()) {
+                assertEquals("HTTP", grandChild.getResourcePrototype().getName());
+            }
+        }
+        assertTrue("HTTP service " + service.getName() + " not found", found);
+
+        // Cleanup
+        hqAssertSuccess(api.deleteResource(service.getId()));
+    }
+
+    public void testGetResourceInvalidDepth() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+        Resource platform = getLocalPlatformResource(false, false);
+
+        ResourceResponse response = api.getResource(platform.getId(), false,
+                                                    0, null);
+        hqAssertFailureInvalidParameters(response);
+    }
+
+    public void testGetPlatformResourcesDepth() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        ResourcesResponse response = api.getPlatformResources(false, 1, null);
+        hqAssertSuccess(response);
+        assertTrue(response.getResource().size() > 0);
+        for (Resource platform : response.getResource()) {
+            for (Resource child : platform.getResource()) {
+                assertEquals("Children returned beyond the requested depth",
+                             0, child.getResource().size());
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1.test;
+
+import org.hyperic.hq.hqapi1.ResourceApi;
+import org.hyperic.hq.hqapi1.ResourcePager;
+import org.hyperic.hq.hqapi1.types.Agent;
+import org.hyperic.hq.hqapi1.types.Resource;
+import org.hyperic.hq.hqapi1.types.ResourcePrototype;
+import org.hyperic.hq.hqapi1.types.ResourcePrototypeResponse;
+import org.hyperic.hq.hqapi1.types.ResourcesResponse;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class ResourcePaging_test extends ResourceTestBase {
+
+    public ResourcePaging_test(String name) {
+        super(name);
+    }
+
+    private Set<Integer> getIds(List<Resource> resources) {
+        Set<Integer> ids = new HashSet<Integer>();
+        for (Resource r : resources) {
+            ids.add(r.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Read all pages, checking each is ordered by id and within the limit.
+     */
+    private List<Resource> readPages(ResourcePager pager, int pageSize)
+        throws Exception
+    {
+        List<Resource> resources = new ArrayList<Resource>();
+        int last = 0;
+        while (pager.hasNext()) {
+            ResourcesResponse page = pager.next();
+            hqAssertSuccess(page);
+            assertTrue("Page too large", page.getResource().size() <= pageSize);
+            for (Resource r : page.getResource()) {
+                assertTrue("Resources not ordered by id", r.getId() > last);
+                last = r.getId();
+                validateResource(r);
+            }
+            resources.addAll(page.getResource());
+        }
+        return resources;
+    }
+
+    public void testPlatformPages() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        ResourcesResponse all = api.getPlatformResources(false, false);
+        hqAssertSuccess(all);
+
+        List<Resource> paged = readPages(api.getPlatformResourcePager(false, false, 1), 1);
+        assertEquals(all.getResource().size(), paged.size());
+        assertEquals(getIds(all.getResource()), getIds(paged));
+    }
+
+    public void testPlatformFirstPage() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        ResourcesResponse page = api.getPlatformResources(false, false, 0, 1);
+        hqAssertSuccess(page);
+        assertEquals(1, page.getResource().size());
+
+        if (page.getNext() != null) {
+            assertEquals(page.getResource().get(0).getId(), page.getNext());
+            ResourcesResponse second =
+                    api.getPlatformResources(false, false, page.getNext(), 1);
+            hqAssertSuccess(second);
+            assertTrue(second.getResource().get(0).getId() > page.getNext());
+        }
+    }
+
+    public void testPrototypePages() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        ResourcePrototypeResponse protoResponse = api.getResourcePrototype("CPU");
+        hqAssertSuccess(protoResponse);
+        ResourcePrototype pt = protoResponse.getResourcePrototype();
+
+        ResourcesResponse all = api.getResources(pt, false, false);
+        hqAssertSuccess(all);
+
+        List<Resource> paged = readPages(api.getResourcePager(pt, false, false, 2), 2);
+        assertEquals(getIds(all.getResource()), getIds(paged));
+    }
+
+    public void testAgentPages() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+        Agent a = getRunningAgent();
+
+        ResourcesResponse all = api.getResources(a, false, false);
+        hqAssertSuccess(all);
+
+        List<Resource> paged = readPages(api.getResourcePager(a, false, true, 1), 1);
+        assertEquals(getIds(all.getResource()), getIds(paged));
+    }
+
+    public void testPagerClose() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        ResourcePager pager = api.getPlatformResourcePager(false, false, 1);
+        hqAssertSuccess(pager.next());
+        pager.close();
+        assertFalse(pager.hasNext());
+    }
+
+    public void testInvalidLimit() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        ResourcesResponse response = api.getPlatformResources(false, false, 0, 0);
+        hqAssertFailureInvalidParameters(response);
+
+        Agent a = getRunningAgent();
+        response = api.getResources(a, false, false, 0, -1);
+        hqAssertFailureInvalidParameters(response);
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+package org.hyperic.hq.hqapi1.test;
+
+import org.hyperic.hq.hqapi1.ResourceApi;
+import org.hyperic.hq.hqapi1.ResourceFingerprint;
+import org.hyperic.hq.hqapi1.ResourceSyncResult;
+import org.hyperic.hq.hqapi1.types.Resource;
+import org.hyperic.hq.hqapi1.types.ResourceConfig;
+import org.hyperic.hq.hqapi1.types.ResourceResponse;
+import org.hyperic.hq.hqapi1.types.StatusResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ResourceSync_test extends ResourceTestBase {
+
+    public ResourceSync_test(String name) {
+        super(name);
+    }
+
+    public void testFingerprintVerbose() throws Exception {
+        Resource platform = getLocalPlatformResource(true, false);
+        assertNotNull("No fingerprint returned for " + platform.getName(),
+                      platform.getFingerprint());
+        assertEquals(ResourceFingerprint.compute(platform),
+                     platform.getFingerprint());
+    }
+
+    public void testFingerprintNotVerbose() throws Exception {
+        Resource platform = getLocalPlatformResource(false, false);
+        assertNull(platform.getFingerprint());
+    }
+
+    public void testFingerprintIgnoresOrder() throws Exception {
+        Resource r = getLocalPlatformResource(true, false);
+        String fingerprint = ResourceFingerprint.compute(r);
+
+        List<ResourceConfig> configs =
+                new ArrayList<ResourceConfig>(r.getResourceConfig());
+        r.getResourceConfig().clear();
+        for (int i = configs.size() - 1; i >= 0; i--) {
+            r.getResourceConfig().add(configs.get(i));
+        }
+        assertEquals(fingerprint, ResourceFingerprint.compute(r));
+
+        r.setDescription(r.getDescription() + " changed");
+        assertFalse(fingerprint.equals(ResourceFingerprint.compute(r)));
+    }
+
+    public void testGetChangedUnchanged() throws Exception {
+        List<Resource> existing = new ArrayList<Resource>();
+        existing.add(getLocalPlatformResource(true, true));
+
+        List<Resource> resources = new ArrayList<Resource>();
+        resources.add(getLocalPlatformResource(true, true));
+
+        List<Resource> changed = ResourceFingerprint.getChanged(resources,
+                                                                existing);
+        assertEquals("Unchanged resources returned", 0, changed.size());
+    }
+
+    public void testSyncChangedConfig() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+        Resource service = createTestHTTPService();
+
+        List<Resource> existing = new ArrayList<Resource>();
+        existing.add(getLocalPlatformResource(true, true));
+
+        final String UPDATED_HOSTNAME = "www.yahoo.com";
+        Resource platform = getLocalPlatformResource(true, true);
+        Resource updatedService = null;
+        for (Resource child : platform.getResource()) {
+            if (child.getId().equals(service.getId())) {
+                updatedService = child;
+            }
+        }
+        assertNotNull("Unable to find " + service.getName() + " under " +
+                      platform.getName(), updatedService);
+        for (ResourceConfig c : updatedService.getResourceConfig()) {
+            if (c.getKey().equals("hostname")) {
+                c.setValue(UPDATED_HOSTNAME);
+            }
+        }
+
+        List<Resource> resources = new ArrayList<Resource>();
+        resources.add(platform);
+
+        // Only the path to the changed service should be sent
+        List<Resource> changed = ResourceFingerprint.getChanged(resources,
+                                                                existing);
+        assertEquals(1, changed.size());
+        assertEquals(1, changed.get(0).getResource().size());
+        assertEquals(service.getId(),
+                     changed.get(0).getResource().get(0).getId());
+
+        StatusResponse syncResponse = api.syncResources(resources, existing);
+        hqAssertSuccess(syncResponse);
+
+        ResourceResponse getResponse = api.getResource(service.getId(),
+                                                       true, false);
+        hqAssertSuccess(getResponse);
+        Resource synced = getResponse.getResource();
+        boolean foundHostname = false;
+        for (ResourceConfig c : synced.getResourceConfig()) {
+            if (c.getKey().equals("hostname")) {
+                assertEquals(UPDATED_HOSTNAME, c.getValue());
+                foundHostname = true;
+            }
+        }
+        assertTrue("Unable to find hostname configuration for " +
+                   synced.getName(), foundHostname);
+        assertEquals(ResourceFingerprint.compute(updatedService),
+                     synced.getFingerprint());
+
+        // Cannot delete resources soon after modifying them..
+        try {
+            Thread.sleep(2000);
+        } catch (InterruptedException e) {
+            // Ignore
+        }
+
+        // Cleanup
+        StatusResponse deleteResponse = api.deleteResource(service.getId());
+        hqAssertSuccess(deleteResponse);
+    }
+
+    public void testSyncModifiedAfterFetch() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+        Resource service = createTestHTTPService();
+
+        // A verbose fetch carries the fingerprint of the unmodified content
+        ResourceResponse fetchResponse = api.getResource(service.getId(),
+                                                         true, false);
+        hqAssertSuccess(fetchResponse);
+        Resource fetched = fetchResponse.getResource();
+        assertNotNull(fetched.getFingerprint());
+
+        final String UPDATED_HOSTNAME = "www.yahoo.com";
+        for (ResourceConfig c : fetched.getResourceConfig()) {
+            if (c.getKey().equals("hostname")) {
+                c.setValue(UPDATED_HOSTNAME);
+            }
+        }
+
+        // Sync the modified Resource as fetched, stale fingerprint included
+        Resource platform = getLocalPlatformResource(true, false);
+        platform.getResource().add(fetched);
+        List<Resource> resources = new ArrayList<Resource>();
+        resources.add(platform);
+        StatusResponse syncResponse = api.syncResources(resources);
+        hqAssertSuccess(syncResponse);
+
+        ResourceResponse getResponse = api.getResource(service.getId(),
+                                                       true, false);
+        hqAssertSuccess(getResponse);
+        boolean foundHostname = false;
+        for (ResourceConfig c : getResponse.getResource().getResourceConfig()) {
+            if (c.getKey().equals("hostname")) {
+                assertEquals(UPDATED_HOSTNAME, c.getValue());
+                foundHostname = true;
+            }
+        }
+        assertTrue("Unable to find hostname configuration for " +
+                   service.getName(), foundHostname);
+
+        // Cannot delete resources soon after modifying them..
+        try {
+            Thread.sleep(2000);
+        } catch (InterruptedException e) {
+            // Ignore
+        }
+
+        // Cleanup
+        StatusResponse deleteResponse = api.deleteResource(service.getId());
+        hqAssertSuccess(deleteResponse);
+    }
+
+    public void testSyncBatched() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        List<Resource> resources = new ArrayList<Resource>();
+        resources.add(getLocalPlatformResource(true, false));
+        resources.add(getLocalPlatformResource(true, false));
+
+        ResourceSyncResult result = api.syncResources(resources, 1, 2, 0);
+        assertTrue(result.isSuccess());
+        assertEquals(2, result.getBatches().size());
+        assertEquals(2, result.getNumSynced());
+        for (ResourceSyncResult.Batch batch : result.getBatches()) {
+            hqAssertSuccess(batch.getResponse());
+            assertEquals(1, batch.getAttempts());
+            assertNull(batch.getFailureMessage());
+        }
+    }
+
+    public void testSyncBatchedPartialFailure() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        // No prototype given
+        Resource invalid = new Resource();
+        invalid.setName("Invalid sync resource");
+
+        List<Resource> resources = new ArrayList<Resource>();
+        resources.add(getLocalPlatformResource(true, false));
+        resources.add(invalid);
+
+        ResourceSyncResult result = api.syncResources(resources, 1, 2, 1);
+        assertFalse(result.isSuccess());
+        assertEquals(1, result.getNumSynced());
+        assertEquals(1, result.getFailedBatches().size());
+
+        ResourceSyncResult.Batch failed = result.getFailedBatches().get(0);
+        assertEquals(1, failed.getFromIndex());
+        assertEquals(2, failed.getAttempts());
+        hqAssertFailureInvalidParameters(failed.getResponse());
+        assertNotNull(failed.getFailureMessage());
+        assertTrue(result.getBatches().get(0).isSuccess());
+    }
+
+    public void testSyncBatchedInvalidSize() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+        try {
+            api.syncResources(new ArrayList<Resource>(), 0, 1, 0);
+            fail("Batch size of 0 accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+package org.hyperic.hq.hqapi1.test;
+
+import org.hyperic.hq.hqapi1.ResourceApi;
+import org.hyperic.hq.hqapi1.ResourceTree;
+import org.hyperic.hq.hqapi1.types.Resource;
+import org.hyperic.hq.hqapi1.types.ResourceResponse;
+
+import java.util.List;
+
+public class ResourceTree_test extends ResourceTestBase {
+
+    public ResourceTree_test(String name) {
+        super(name);
+    }
+
+    private int count(Resource r) {
+        int num = 1;
+        for (Resource child : r.getResource()) {
+            num += count(child);
+        }
+        return num;
+    }
+
+    private int count(ResourceTree.Node node) throws Exception {
+        int num = 1;
+        for (ResourceTree.Node child : node.getChildren()) {
+            num += count(child);
+        }
+        return num;
+    }
+
+    public void testLazyChildren() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+        Resource platform = getLocalPlatformResource(false, true);
+
+        ResourceTree tree = api.createTree(getLocalPlatformResource(false, false),
+                                           false);
+        ResourceTree.Node root = tree.getRoot();
+        assertFalse(root.isLoaded());
+
+        List<ResourceTree.Node> children = root.getChildren();
+        assertTrue(root.isLoaded());
+        assertEquals(platform.getResource().size(), children.size());
+        for (int i = 0; i < children.size(); i++) {
+            ResourceTree.Node child = children.get(i);
+            assertEquals(platform.getResource().get(i).getId(),
+                         child.getResource().getId());
+            assertSame(root, child.getParent());
+            assertFalse(child.isLoaded());
+        }
+    }
+
+    public void testParallelLoad() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+        Resource platform = getLocalPlatformResource(false, true);
+
+        ResourceTree tree = api.createTree(platform, false);
+        List<ResourceResponse> failures = tree.load(tree.getRoot(), 3, 4);
+        assertEquals(0, failures.size());
+        for (ResourceTree.Node child : tree.getRoot().getChildren()) {
+            assertTrue(child.isLoaded());
+        }
+
+        // The loaded tree matches the full listing
+        assertEquals(count(platform), count(tree.getRoot()));
+    }
+
+    public void testInvalidParallel() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+        ResourceTree tree = api.createTree(getLocalPlatformResource(false, false),
+                                           false);
+        try {
+            tree.load(tree.getRoot().getChildren(), 0);
+            fail("Parallel of 0 accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -46,7 +46,75 @@ public class WADLMetricData_test extends WADLTestBase {
         ids.add(2);
 
         LastMetricsDataResponse response =
-                multiLast.getAsLastMetricsDataResponse(ids);
+                multiLast.getAsLastMetricsDataResponse(ids, null);
+        hqAssertFailure(response);
+    }
+
+    public void testGetAvailability() throws Exception {
+        HttpLocalhost8080HquHqapi1.MetricDataGetAvailabilityHqu avail =
+                new HttpLocalhost8080HquHqapi1.MetricDataGetAvailabilityHqu();
+
+        List<Integer> ids = new ArrayList<Integer>();
+        ids.add(0);
+        ids.add(2);
+
+        AvailabilityDataResponse response =
+                avail.getAsAvailabilityDataResponse(ids, 0l,
+                                                    System.currentTimeMillis());
+        hqAssertFailure(response);
+    }
+
+    public void testGetTop() throws Exception {
+        HttpLocalhost8080HquHqapi1.MetricDataGetTopHqu top =
+                new HttpLocalhost8080HquHqapi1.MetricDataGetTopHqu();
+
+        RankedMetricsResponse response =
+                top.getAsRankedMetricsResponse(Integer.MAX_VALUE, null, null,
+                                               "max", "top", 10, 0l,
+                                               System.currentTimeMillis());
+        hqAssertFailure(response);
+    }
+
+    public void testGetGroupLast() throws Exception {
+        HttpLocalhost8080HquHqapi1.MetricDataGetGroupLastHqu groupLast =
+                new HttpLocalhost8080HquHqapi1.MetricDataGetGroupLastHqu();
+
+        List<Integer> templateIds = new ArrayList<Integer>();
+        templateIds.add(0);
+
+        GroupLastMetricDataResponse response =
+                groupLast.getAsGroupLastMetricDataResponse(Integer.MAX_VALUE,
+                                                           templateIds);
+        hqAssertFailure(response);
+    }
+
+    public void testSubscribe() throws Exception {
+        HttpLocalhost8080HquHqapi1.MetricDataSubscribeHqu subscribe =
+                new HttpLocalhost8080HquHqapi1.MetricDataSubscribeHqu();
+
+        List<Integer> ids = new ArrayList<Integer>();
+        ids.add(Integer.MAX_VALUE);
+
+        MetricSubscriptionResponse response =
+                subscribe.getAsMetricSubscriptionResponse(ids);
+        hqAssertFailure(response);
+    }
+
+    public void testPoll() throws Exception {
+        HttpLocalhost8080HquHqapi1.MetricDataPollHqu poll =
+                new HttpLocalhost8080HquHqapi1.MetricDataPollHqu();
+
+        MetricSubscriptionDataResponse response =
+                poll.getAsMetricSubscriptionDataResponse("invalid", 0l);
+        hqAssertFailure(response);
+    }
+
+    public void testUnsubscribe() throws Exception {
+        HttpLocalhost8080HquHqapi1.MetricDataUnsubscribeHqu unsubscribe =
+                new HttpLocalhost8080HquHqapi1.MetricDataUnsubscribeHqu();
+
+        StatusResponse response =
+                unsubscribe.getAsStatusResponse("invalid");
         hqAssertFailure(response);
     }
 
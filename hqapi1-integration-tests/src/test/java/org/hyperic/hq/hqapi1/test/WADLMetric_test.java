@@ -14,6 +14,7 @@ MetricGetResourceDataHqu
 MetricGetTemplatesHqu
 MetricSyncMetricsHqu
 MetricSyncTemplatesHqu
+MetricUpdateScheduleHqu
  */
 
 public class WADLMetric_test extends WADLTestBase {
@@ -49,7 +50,8 @@ public class WADLMetric_test extends WADLTestBase {
                 new HttpLocalhost8080HquHqapi1.MetricGetDataHqu();
 
         ResourcesResponse resources =
-                resourceFind.getAsResourcesResponse(null, "CPU", null, false, false);
+                resourceFind.getAsResourcesResponse(null, "CPU", null, false, false,
+                                                    null, null, null, null, null);
         hqAssertSuccess(resources);
         assertTrue("No resources found", resources.getResource().size() > 0);
 
@@ -89,4 +91,18 @@ public class WADLMetric_test extends WADLTestBase {
         MetricResponse metricResponse = getMetric.getAsMetricResponse(m.getId());
         hqAssertSuccess(metricResponse);
     }
+
+    public void testUpdateSchedule() throws Exception {
+
+        HttpLocalhost8080HquHqapi1.MetricUpdateScheduleHqu updateSchedule =
+                new HttpLocalhost8080HquHqapi1.MetricUpdateScheduleHqu();
+
+        MetricScheduleRequest request = new MetricScheduleRequest();
+        request.getMetricId().add(Integer.MAX_VALUE);
+        request.setInterval(60000l);
+
+        MetricScheduleResponse response =
+                updateSchedule.postApplicationXmlAsMetricScheduleResponse(request);
+        hqAssertFailure(response);
+    }
 }
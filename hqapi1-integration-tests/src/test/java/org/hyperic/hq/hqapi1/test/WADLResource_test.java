@@ -9,7 +9,8 @@ public class WADLResource_test extends WADLTestBase {
         HttpLocalhost8080HquHqapi1.ResourceGetHqu resourceGet = new HttpLocalhost8080HquHqapi1.ResourceGetHqu();
 
         ResourcesResponse response =
-                resourceFind.getAsResourcesResponse(null, "CPU", null, false, false);
+                resourceFind.getAsResourcesResponse(null, "CPU", null, false, false,
+                                                    null, null, null, null, null);
         hqAssertSuccess(response);
         assertTrue("No resources found", response.getResource().size() > 0);
 
@@ -17,12 +18,54 @@ public class WADLResource_test extends WADLTestBase {
         ResourceResponse getResponse = resourceGet.getAsResourceResponse(r.getId(),
                                                                          null,
                                                                          false,
-                                                                         false);
+                                                                         false,
+                                                                         null,
+                                                                         null);
         hqAssertSuccess(getResponse);
         assertTrue("Resource names do not match",
                    r.getName().equals(getResponse.getResource().getName()));
     }
 
+    public void testGetResources() throws Exception {
+        HttpLocalhost8080HquHqapi1.ResourceFindHqu resourceFind = new HttpLocalhost8080HquHqapi1.ResourceFindHqu();
+        HttpLocalhost8080HquHqapi1.ResourceGetResourcesHqu getResources =
+                new HttpLocalhost8080HquHqapi1.ResourceGetResourcesHqu();
+
+        ResourcesResponse response =
+                resourceFind.getAsResourcesResponse(null, "CPU", null, false, false,
+                                                    null, null, null, null, null);
+        hqAssertSuccess(response);
+        assertTrue("No resources found", response.getResource().size() > 0);
+
+        ResourcesRequest request = new ResourcesRequest();
+        for (Resource r : response.getResource()) {
+            Resource req = new Resource();
+            req.setId(r.getId());
+            request.getResource().add(req);
+        }
+
+        ResourcesResponse getResponse =
+                getResources.postApplicationXmlAsResourcesResponse(request);
+        hqAssertSuccess(getResponse);
+        assertEquals(response.getResource().size(),
+                     getResponse.getResource().size());
+    }
+
+    public void testGetChanges() throws Exception {
+        HttpLocalhost8080HquHqapi1.ResourceGetChangesHqu getChanges =
+                new HttpLocalhost8080HquHqapi1.ResourceGetChangesHqu();
+
+        ResourceChangesResponse response =
+                getChanges.getAsResourceChangesResponse(Long.MAX_VALUE, null, false);
+        hqAssertSuccess(response);
+        assertNotNull(response.getToken());
+
+        response = getChanges.getAsResourceChangesResponse(null,
+                                                           response.getToken(),
+                                                           false);
+        hqAssertSuccess(response);
+    }
+
     public void testCreatePlatform() throws Exception {
         HttpLocalhost8080HquHqapi1.ResourceCreatePlatformHqu createPlatform =
                 new HttpLocalhost8080HquHqapi1.ResourceCreatePlatformHqu();
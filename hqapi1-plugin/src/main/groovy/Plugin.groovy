@@ -8,6 +8,15 @@ class Plugin extends HQUPlugin {
     void initialize(File pluginDir) {
         super.initialize(pluginDir)
         addAdminView(true, '/api/index.hqu', 'HQ Web Services Api')
+        InventoryChanges.getInstance().start()
+    }
+
+    void deinitialize() {
+        // Release the zevent listeners so a redeployed plugin does not
+        // leave the old ones, and its classloader, registered.
+        InventoryChanges.getInstance().stop()
+        MetricSubscriptions.getInstance().stop()
+        super.deinitialize()
     }
 }
 
@@ -1,14 +1,50 @@
 import org.hyperic.hq.hqu.rendit.BaseController
 
 import groovy.xml.StreamingMarkupBuilder
+import javax.xml.stream.XMLInputFactory
+import org.apache.commons.fileupload.servlet.ServletFileUpload
 import org.hyperic.hq.hqapi1.ErrorCode
+import org.hyperic.hq.authz.shared.AuthzConstants
+import org.hyperic.hq.authz.shared.PermissionException
+import org.hyperic.hq.authz.shared.PermissionManagerFactory
 
 class ApiController extends BaseController {
 
     // Statistics object
     private static _methodStats = [:]
     private static final STATS_LOCK = new Object()
+
+    // Resource type name to view operation, used by filterViewable()
+    private static final VIEW_OPERATIONS = [
+        (AuthzConstants.platformResType) : AuthzConstants.platformOpViewPlatform,
+        (AuthzConstants.serverResType)   : AuthzConstants.serverOpViewServer,
+        (AuthzConstants.serviceResType)  : AuthzConstants.serviceOpViewService
+    ]
+
+    // Resource type name to modify operation, passed to findOperationScopes()
+    // by MetricController.updateSchedule()
+    protected static final MODIFY_OPERATIONS = [
+        (AuthzConstants.platformResType) : AuthzConstants.platformOpModifyPlatform,
+        (AuthzConstants.serverResType)   : AuthzConstants.serverOpModifyServer,
+        (AuthzConstants.serviceResType)  : AuthzConstants.serviceOpModifyService
+    ]
+
+    // Group resource type name to view operation, used by isGroupViewable()
+    private static final GROUP_VIEW_OPERATIONS = [
+        (AuthzConstants.groupResType) : AuthzConstants.groupOpViewResourceGroup
+    ]
     
+    /**
+     * Create a factory for streaming request bodies.  Request bodies are
+     * untrusted, so DTDs and external entities are not supported.
+     */
+    protected static XMLInputFactory createXMLInputFactory() {
+        def factory = XMLInputFactory.newInstance()
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false)
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false)
+        return factory
+    }
+
     /**
      * Get the ResponseStatus Success XML.
      */
@@ -68,6 +104,83 @@ class ApiController extends BaseController {
         }
     }
 
+    /**
+     * Resolve the instance ids of the Resources of each of the given types
+     * that the user may perform the type's operation on, using one query per
+     * type.
+     *
+     * @param types Resource type names.  Types without an operation in the
+     * given map are skipped.
+     * @param operations Map of resource type name to operation name.
+     *
+     * @return Map of resource type name to the Set of permitted instance ids,
+     * or null if the user is an administrator and is permitted everything.
+     */
+    protected Map findOperationScopes(Collection types, Map operations) {
+        def permMan = PermissionManagerFactory.getInstance()
+        if (permMan.hasAdminPermission(user.id)) {
+            return null
+        }
+
+        def scopes = [:]
+        for (type in types) {
+            def op = operations[type]
+            if (op != null && !scopes.containsKey(type)) {
+                scopes[type] = new HashSet(permMan.findOperationScopeBySubject(user, op, type))
+            }
+        }
+        return scopes
+    }
+
+    /**
+     * Filter the given Resources down to those the user can view.  Rather
+     * than checking each Resource, the ids of the platforms, servers and
+     * services the user can view are resolved with one query per type that
+     * appears in the candidates, and the candidates are filtered in memory.
+     *
+     * @return The viewable Resources, in their original order.
+     */
+    protected List filterViewable(Collection resources) {
+        if (!resources) {
+            return []
+        }
+        def scopes = findOperationScopes(resources*.resourceType*.name as Set,
+                                         VIEW_OPERATIONS)
+        if (scopes == null) {
+            return new ArrayList(resources)
+        }
+
+        def viewable = []
+        for (r in resources) {
+            def scope = scopes[r.resourceType.name]
+            if (scope == null) {
+                // Not an appdef Resource, fall back to checking it directly
+                try {
+                    viewable << checkViewPermission(r)
+                } catch (PermissionException e) {
+                    log.debug("Ignoring resource " + r.name + " due to permissions")
+                }
+            } else if (scope.contains(r.instanceId)) {
+                viewable << r
+            } else {
+                log.debug("Ignoring resource " + r.name + " due to permissions")
+            }
+        }
+        return viewable
+    }
+
+    /**
+     * Check whether the user can view the given group.  Viewing a group does
+     * not grant view permission on its members, use filterViewable() for
+     * those.
+     */
+    protected boolean isGroupViewable(group) {
+        def scopes = findOperationScopes([AuthzConstants.groupResType],
+                                         GROUP_VIEW_OPERATIONS)
+        return scopes == null ||
+               scopes[AuthzConstants.groupResType].contains(group.id)
+    }
+
     /**
      * Get the resource based on the given id.  If the resource is not found,
      * null is returned.
@@ -152,6 +265,30 @@ class ApiController extends BaseController {
         }
     }
 
+    /**
+     * Get POST data from the client as a stream.  Unlike getPostData() the
+     * request body is not buffered, so this should be used for requests that
+     * can be arbitrarily large.
+     *
+     * @return The InputStream for the post data, or null if no post data
+     * was given.
+     */
+    protected InputStream getPostDataStream() {
+        def request = invokeArgs.request
+        if (request.contentType.contains("multipart")) {
+            def items = new ServletFileUpload().getItemIterator(request)
+            while (items.hasNext()) {
+                def item = items.next()
+                if (item.fieldName == 'postdata') {
+                    return item.openStream()
+                }
+            }
+            return null
+        } else {
+            return request.inputStream
+        }
+    }
+
     def dispatchRequest() {
 
         long start = System.currentTimeMillis()
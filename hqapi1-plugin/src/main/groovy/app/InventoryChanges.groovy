@@ -0,0 +1,107 @@
+import org.apache.commons.logging.Log
+import org.apache.commons.logging.LogFactory
+import org.hyperic.hq.appdef.server.session.ResourceDeletedZevent
+import org.hyperic.hq.appdef.server.session.ResourceUpdatedZevent
+import org.hyperic.hq.zevents.ZeventListener
+import org.hyperic.hq.zevents.ZeventManager
+
+/**
+ * Log of inventory changes served by resource/getChanges.
+ *
+ * Created and renamed Resources can be found from the creation and
+ * modification times of the platform, server and service tables, but
+ * deletions and configuration changes leave no trace there.  While started,
+ * a buffered listener records the ResourceDeletedZevents and
+ * ResourceUpdatedZevents published by the appdef managers.  The log is held
+ * in memory, so changes made before the listener was started or dropped
+ * once MAX_CHANGES is exceeded are unknown, see isComplete().  The
+ * listener is started and stopped with the plugin.
+ */
+class InventoryChanges {
+
+    // Maximum changes held.  Once exceeded the oldest changes are dropped.
+    static final int MAX_CHANGES = 100000
+
+    static final String MODIFIED = "modified"
+    static final String DELETED  = "deleted"
+
+    private static final Log _log = LogFactory.getLog(InventoryChanges.class)
+    private static final InventoryChanges INSTANCE = new InventoryChanges()
+
+    // Maps of type, time and AppdefEntityID, oldest first
+    private final LinkedList _changes = new LinkedList()
+    // Time the listener was started, or 0 if it is not running
+    private long _startTime = 0
+    // Time of the newest change that has been dropped
+    private long _droppedTime = 0
+
+    private ZeventListener _listener
+
+    static InventoryChanges getInstance() {
+        return INSTANCE
+    }
+
+    synchronized void start() {
+        if (_listener != null) {
+            return
+        }
+        _listener = { events -> record(events) } as ZeventListener
+        def zMan = ZeventManager.getInstance()
+        zMan.addBufferedListener(ResourceDeletedZevent.class, _listener)
+        zMan.addBufferedListener(ResourceUpdatedZevent.class, _listener)
+        _startTime = System.currentTimeMillis()
+        _log.debug("Recording inventory changes")
+    }
+
+    synchronized void stop() {
+        if (_listener == null) {
+            return
+        }
+        def zMan = ZeventManager.getInstance()
+        zMan.removeBufferedListener(ResourceDeletedZevent.class, _listener)
+        zMan.removeBufferedListener(ResourceUpdatedZevent.class, _listener)
+        _listener = null
+        _startTime = 0
+        _changes.clear()
+    }
+
+    /**
+     * Get the changes recorded at or after the given time, oldest first.
+     *
+     * @return List of maps of type, time and the AppdefEntityID as id.
+     */
+    synchronized List getChanges(long since) {
+        def changes = []
+        def i = _changes.descendingIterator()
+        while (i.hasNext()) {
+            def change = i.next()
+            if (change.time < since) {
+                break
+            }
+            changes << change
+        }
+        return changes.reverse()
+    }
+
+    /**
+     * Check whether every deletion and configuration change made at or
+     * after the given time is known.
+     */
+    synchronized boolean isComplete(long since) {
+        return _listener != null && since >= _startTime && since > _droppedTime
+    }
+
+    private synchronized void record(List events) {
+        // Events are delivered shortly after they are published, so the
+        // recorded time is never earlier than the change itself.
+        long now = System.currentTimeMillis()
+        for (event in events) {
+            def type = (event instanceof ResourceDeletedZevent) ? DELETED : MODIFIED
+            if (_changes.size() >= MAX_CHANGES) {
+                _droppedTime = _changes.removeFirst().time
+            }
+            _changes.addLast([type: type, time: now,
+                              id: event.getAppdefEntityID()])
+        }
+    }
+}
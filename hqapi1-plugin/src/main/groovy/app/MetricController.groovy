@@ -11,9 +11,19 @@ import org.hyperic.hq.measurement.shared.TemplateManager
 import org.hyperic.hq.measurement.shared.MeasurementManager
 import org.hyperic.hq.appdef.shared.ConfigManager
 import org.hyperic.hq.product.ProductPlugin
+import org.hyperic.hq.hibernate.SessionManager
+import org.hyperic.hq.measurement.server.session.AgentScheduleSyncZevent
+
+import javax.xml.stream.XMLStreamConstants
+import javax.xml.stream.XMLStreamException
 
 class MetricController extends ApiController {
 
+    private static final XML_FACTORY = createXMLInputFactory()
+
+    // Maximum number of ids given in a single 'in' clause
+    private static final int MAX_IN_CLAUSE = 1000
+
     private Closure getMetricXML(m) {
         { doc -> 
             Metric(id             : m.id,
@@ -286,6 +296,231 @@ class MetricController extends ApiController {
         }
     }
 
+    /**
+     * Read a MetricScheduleRequest with a streaming parser, since requests
+     * may list tens of thousands of ids.
+     */
+    private Map readScheduleRequest(InputStream is) {
+        def request = [metricIds: [], resourceIds: []]
+        def reader = XML_FACTORY.createXMLStreamReader(is, "UTF-8")
+        try {
+            reader.nextTag() // MetricScheduleRequest
+            request.templateId = reader.getAttributeValue(null, "templateId")?.toInteger()
+            request.enabled = reader.getAttributeValue(null, "enabled")?.toBoolean()
+            request.interval = reader.getAttributeValue(null, "interval")?.toLong()
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    if (reader.localName == "MetricId") {
+                        request.metricIds << reader.elementText.trim().toInteger()
+                    } else if (reader.localName == "ResourceId") {
+                        request.resourceIds << reader.elementText.trim().toInteger()
+                    }
+                }
+            }
+        } finally {
+            reader.close()
+        }
+        return request
+    }
+
+    def updateSchedule(params) {
+        def failureXml = null
+        def request
+
+        try {
+            def is = getPostDataStream()
+            if (is == null) {
+                failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                           "No schedule request given")
+            } else {
+                request = readScheduleRequest(is)
+            }
+        } catch (XMLStreamException e) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Unable to parse schedule request: " +
+                                       e.getMessage())
+        } catch (NumberFormatException e) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Invalid id in schedule request: " +
+                                       e.getMessage())
+        }
+
+        if (!failureXml) {
+            if (request.metricIds && (request.templateId || request.resourceIds)) {
+                failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                           "Only one of metric ids or template " +
+                                           "and resource ids may be given")
+            } else if (!request.metricIds &&
+                       !(request.templateId && request.resourceIds)) {
+                failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                           "Metric ids or template and resource " +
+                                           "ids required")
+            } else if (request.enabled == null && request.interval == null) {
+                failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                           "No enabled flag or interval given")
+            } else if (request.enabled && request.interval == null) {
+                failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                           "No interval given for enabling metrics")
+            } else if (request.interval != null && request.interval != 0 &&
+                       !validInterval(request.interval)) {
+                failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                           "Invalid interval " + request.interval)
+            } else if (request.templateId &&
+                       !metricHelper.findTemplateById(request.templateId)) {
+                failureXml = getFailureXML(ErrorCode.OBJECT_NOT_FOUND,
+                                           "Unable to find template with id " +
+                                           request.templateId)
+            }
+        }
+
+        def updated = 0
+        def resourceIds = [] as Set
+        def denied = []
+        if (!failureXml) {
+            try {
+                def session = SessionManager.currentSession()
+
+                // Load only the columns needed to work out which metrics
+                // change, rather than the Measurement objects.
+                def select = "select m.id, m.template.defaultInterval, " +
+                             "m.resource.id, m.enabled, m.interval, " +
+                             "m.resource.resourceType.name, " +
+                             "m.resource.instanceId " +
+                             "from Measurement m where "
+                def ids
+                if (request.metricIds) {
+                    select += "m.id in (:ids)"
+                    ids = request.metricIds.unique()
+                } else {
+                    select += "m.template.id = :tid and m.resource.id in (:ids)"
+                    ids = request.resourceIds.unique()
+                }
+                def rows = []
+                for (int i = 0; i < ids.size(); i += MAX_IN_CLAUSE) {
+                    def query = session.createQuery(select)
+                        .setParameterList("ids", ids.subList(i, Math.min(i + MAX_IN_CLAUSE,
+                                                                        ids.size())))
+                    if (!request.metricIds) {
+                        query.setInteger("tid", request.templateId)
+                    }
+                    rows.addAll(query.list())
+                }
+
+                if (request.metricIds && rows.size() != ids.size()) {
+                    def found = rows.collect { it[0] } as Set
+                    def missing = ids.find { !found.contains(it) }
+                    failureXml = getFailureXML(ErrorCode.OBJECT_NOT_FOUND,
+                                               "Unable to find metric with id " +
+                                               missing)
+                } else {
+                    // The bulk update bypasses the permission checks made
+                    // by enableMeasurement() and friends, so drop the
+                    // metrics of resources the user cannot modify first.
+                    def scopes = findOperationScopes(rows.collect { it[5] } as Set,
+                                                     MODIFY_OPERATIONS)
+                    if (scopes != null) {
+                        rows = rows.findAll { row ->
+                            if (scopes[row[5]]?.contains(row[6])) {
+                                return true
+                            }
+                            denied << row[0]
+                            return false
+                        }
+                    }
+
+                    // Group the metrics that change by their new interval so
+                    // each group is a single update per batch of ids.
+                    def byInterval = [:]
+                    for (row in rows) {
+                        def enabled = row[3]
+                        def interval = row[4]
+                        def newEnabled = (request.enabled != null) ? request.enabled : enabled
+                        def newInterval = interval
+                        if (request.interval != null) {
+                            // An interval of 0 resets to the template default
+                            newInterval = request.interval ?: row[1]
+                        }
+                        if (newEnabled == enabled && newInterval == interval) {
+                            continue
+                        }
+                        def key = (request.interval != null) ? newInterval : null
+                        def group = byInterval[key]
+                        if (group == null) {
+                            group = []
+                            byInterval[key] = group
+                        }
+                        group << row[0]
+                        resourceIds << row[2]
+                    }
+
+                    def sets = ["m.mtime = :now"]
+                    if (request.enabled != null) {
+                        sets << "m.enabled = :enabled"
+                    }
+                    if (request.interval != null) {
+                        sets << "m.interval = :interval"
+                    }
+                    def hql = "update Measurement m set " + sets.join(", ") +
+                              " where m.id in (:ids)"
+                    long now = System.currentTimeMillis()
+                    byInterval.each { interval, metricIds ->
+                        for (int i = 0; i < metricIds.size(); i += MAX_IN_CLAUSE) {
+                            def query = session.createQuery(hql)
+                                .setLong("now", now)
+                                .setParameterList("ids", metricIds.subList(i,
+                                                  Math.min(i + MAX_IN_CLAUSE,
+                                                           metricIds.size())))
+                            if (request.enabled != null) {
+                                query.setBoolean("enabled", request.enabled)
+                            }
+                            if (request.interval != null) {
+                                query.setLong("interval", interval)
+                            }
+                            updated += query.executeUpdate()
+                        }
+                    }
+
+                    // A single sync event for all affected resources.  The
+                    // schedule synchronizer groups them by agent so each
+                    // agent is rescheduled once.
+                    if (resourceIds) {
+                        def aeids = []
+                        def rids = resourceIds as List
+                        for (int i = 0; i < rids.size(); i += MAX_IN_CLAUSE) {
+                            def resources = session.createQuery(
+                                "from Resource r where r.id in (:ids)")
+                                .setParameterList("ids", rids.subList(i,
+                                                  Math.min(i + MAX_IN_CLAUSE,
+                                                           rids.size())))
+                                .list()
+                            aeids.addAll(resources*.entityId)
+                        }
+                        ZeventManager.getInstance().enqueueEventAfterCommit(
+                            new AgentScheduleSyncZevent(aeids))
+                    }
+                }
+            } catch (Exception e) {
+                log.error("UnexpectedError: " + e.getMessage(), e)
+                failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR)
+            }
+        }
+
+        renderXml() {
+            MetricScheduleResponse(failureXml ? [:] :
+                                   [updated: updated,
+                                    resources: resourceIds.size()]) {
+                if (failureXml) {
+                    out << failureXml
+                } else {
+                    out << getSuccessXML()
+                    for (id in denied) {
+                        DeniedMetricId(id)
+                    }
+                }
+            }
+        }
+    }
+
     def syncTemplates(params) {
 
         def syncRequest = new XmlParser().parseText(getPostData())
@@ -0,0 +1,264 @@
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArraySet
+
+import org.apache.commons.logging.Log
+import org.apache.commons.logging.LogFactory
+import org.hyperic.hq.measurement.server.session.MeasurementZevent
+import org.hyperic.hq.zevents.ZeventListener
+import org.hyperic.hq.zevents.ZeventManager
+
+/**
+ * Registry of the metric subscriptions served by metricData/subscribe and
+ * metricData/poll.
+ *
+ * While at least one subscription exists a buffered listener receives the
+ * MeasurementZevents published as the measurement inserters write data and
+ * queues each data point on the subscriptions interested in its metric.
+ * Subscriptions that have not been polled within SUBSCRIPTION_TTL are
+ * expired, and the listener is removed once the last one is gone or the
+ * plugin is unloaded, see stop().
+ *
+ * Each poll holds a request thread while it waits, so the number of
+ * subscriptions and concurrent polls of each subject are limited.
+ */
+class MetricSubscriptions {
+
+    // Time after the last poll before a subscription is expired
+    static final long SUBSCRIPTION_TTL = 5 * 60 * 1000
+
+    // Maximum data points held for a subscription between polls.  Once
+    // exceeded the oldest points are dropped.
+    static final int MAX_QUEUED = 10000
+
+    // Maximum subscriptions held by a single subject
+    static final int MAX_SUBSCRIPTIONS = 10
+
+    // Maximum polls a single subject may have waiting at once
+    static final int MAX_POLLS = 2
+
+    private static final Log _log = LogFactory.getLog(MetricSubscriptions.class)
+    private static final MetricSubscriptions INSTANCE = new MetricSubscriptions()
+
+    // Subscription id -> MetricSubscription
+    private final Map _subscriptions = new ConcurrentHashMap()
+    // Metric id -> Set of MetricSubscriptions
+    private final Map _byMetric = new ConcurrentHashMap()
+    // Subject id -> number of polls waiting
+    private final Map _polls = [:]
+
+    private ZeventListener _listener
+
+    static MetricSubscriptions getInstance() {
+        return INSTANCE
+    }
+
+    /**
+     * Create a subscription.
+     *
+     * @param subjectId The id of the subject that owns the subscription.
+     * @param metrics Map of metric id to a map of resourceId, resourceName
+     *        and metricName, used when rendering the queued data.
+     *
+     * @return The subscription, or null if the subject already holds
+     *         MAX_SUBSCRIPTIONS subscriptions.
+     */
+    synchronized MetricSubscription subscribe(Integer subjectId, Map metrics) {
+        expire()
+        if (_subscriptions.values().count { it.subjectId == subjectId } >=
+            MAX_SUBSCRIPTIONS) {
+            return null
+        }
+        def sub = new MetricSubscription(UUID.randomUUID().toString(),
+                                         subjectId, metrics)
+        _subscriptions[sub.id] = sub
+        for (metricId in metrics.keySet()) {
+            def subs = _byMetric[metricId]
+            if (subs == null) {
+                subs = new CopyOnWriteArraySet()
+                _byMetric[metricId] = subs
+            }
+            subs << sub
+        }
+        if (_listener == null) {
+            _listener = { events -> dispatch(events) } as ZeventListener
+            ZeventManager.getInstance().addBufferedListener(MeasurementZevent.class,
+                                                            _listener)
+        }
+        return sub
+    }
+
+    /**
+     * Look up a subscription owned by the given subject, or null if it does
+     * not exist, has expired or belongs to another subject.
+     */
+    MetricSubscription getSubscription(String id, Integer subjectId) {
+        def sub = id ? _subscriptions[id] : null
+        if (sub == null || sub.subjectId != subjectId) {
+            return null
+        }
+        return sub
+    }
+
+    synchronized void unsubscribe(MetricSubscription sub) {
+        _subscriptions.remove(sub.id)
+        for (metricId in sub.metrics.keySet()) {
+            def subs = _byMetric[metricId]
+            if (subs != null) {
+                subs.remove(sub)
+                if (subs.isEmpty()) {
+                    _byMetric.remove(metricId)
+                }
+            }
+        }
+        sub.close()
+        if (_subscriptions.isEmpty() && _listener != null) {
+            ZeventManager.getInstance().removeBufferedListener(MeasurementZevent.class,
+                                                               _listener)
+            _listener = null
+        }
+    }
+
+    /**
+     * Wait up to the given timeout for data on a subscription, see
+     * MetricSubscription.take().
+     *
+     * @return The result of the poll, or null if the subject already has
+     *         MAX_POLLS polls waiting.
+     */
+    Map poll(MetricSubscription sub, long timeout) {
+        synchronized (_polls) {
+            def polls = _polls[sub.subjectId] ?: 0
+            if (polls >= MAX_POLLS) {
+                return null
+            }
+            _polls[sub.subjectId] = polls + 1
+        }
+        try {
+            return sub.take(timeout)
+        } finally {
+            synchronized (_polls) {
+                def polls = _polls[sub.subjectId] - 1
+                if (polls > 0) {
+                    _polls[sub.subjectId] = polls
+                } else {
+                    _polls.remove(sub.subjectId)
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove every subscription, releasing waiting polls, and the zevent
+     * listener.  Called when the plugin is unloaded so the listener does not
+     * keep the plugin's classloader registered.
+     */
+    synchronized void stop() {
+        for (sub in new ArrayList(_subscriptions.values())) {
+            unsubscribe(sub)
+        }
+        if (_listener != null) {
+            ZeventManager.getInstance().removeBufferedListener(MeasurementZevent.class,
+                                                               _listener)
+            _listener = null
+        }
+    }
+
+    /**
+     * Expire subscriptions that have not been polled recently.
+     */
+    synchronized void expire() {
+        long now = System.currentTimeMillis()
+        for (sub in new ArrayList(_subscriptions.values())) {
+            if (sub.isExpired(now)) {
+                _log.debug("Expiring metric subscription " + sub.id)
+                unsubscribe(sub)
+            }
+        }
+    }
+
+    private void dispatch(List events) {
+        if (_subscriptions.isEmpty()) {
+            return
+        }
+        for (event in events) {
+            def metricId = event.sourceId.id
+            def subs = _byMetric[metricId]
+            if (subs) {
+                def value = event.payload.value
+                for (sub in subs) {
+                    sub.offer(metricId, value.timestamp, value.value)
+                }
+            }
+        }
+        expire()
+    }
+}
+
+/**
+ * A single subscription and its queue of data points that have not yet been
+ * returned by a poll.
+ */
+class MetricSubscription {
+
+    final String id
+    final Integer subjectId
+    final Map metrics
+
+    private final LinkedList _queue = new LinkedList()
+    private long _lastPolled = System.currentTimeMillis()
+    private int _polling = 0
+    private int _dropped = 0
+    private boolean _closed = false
+
+    MetricSubscription(String id, Integer subjectId, Map metrics) {
+        this.id = id
+        this.subjectId = subjectId
+        this.metrics = metrics
+    }
+
+    synchronized void offer(Integer metricId, long timestamp, double value) {
+        if (_queue.size() >= MetricSubscriptions.MAX_QUEUED) {
+            _queue.removeFirst()
+            _dropped++
+        }
+        _queue.addLast([metricId: metricId, timestamp: timestamp, value: value])
+        notifyAll()
+    }
+
+    /**
+     * Wait up to the given timeout for data to arrive and return everything
+     * queued, which may be empty if the timeout elapsed.
+     *
+     * @return Map with the list of queued data points as 'data' and the number
+     * of points dropped since the previous poll as 'dropped'.
+     */
+    synchronized Map take(long timeout) {
+        _polling++
+        try {
+            long deadline = System.currentTimeMillis() + timeout
+            while (_queue.isEmpty() && !_closed) {
+                long remaining = deadline - System.currentTimeMillis()
+                if (remaining <= 0) {
+                    break
+                }
+                wait(remaining)
+            }
+            def result = [data: new ArrayList(_queue), dropped: _dropped]
+            _queue.clear()
+            _dropped = 0
+            return result
+        } finally {
+            _polling--
+            _lastPolled = System.currentTimeMillis()
+        }
+    }
+
+    synchronized boolean isExpired(long now) {
+        return _polling == 0 && now - _lastPolled > MetricSubscriptions.SUBSCRIPTION_TTL
+    }
+
+    synchronized void close() {
+        _closed = true
+        notifyAll()
+    }
+}
@@ -1,20 +1,46 @@
 import org.hyperic.hq.context.Bootstrap;
 import org.hyperic.hq.hqapi1.ErrorCode;
 
+import javax.xml.stream.XMLStreamConstants
+import javax.xml.stream.XMLStreamException
 
+import org.hyperic.hq.hibernate.SessionManager
+import org.hyperic.hq.measurement.MeasurementConstants
 import org.hyperic.hq.measurement.server.session.DataPoint as DP
 import org.hyperic.hq.measurement.server.session.MeasurementInserterHolder;
+import org.hyperic.hq.measurement.shared.AvailabilityManager
+import org.hyperic.hq.measurement.shared.DataManager
 
 class MetricdataController extends ApiController {
 
+    // Number of data points passed to the inserter at a time by put()
+    private static final int INSERT_BATCH_SIZE = 1000
+
+    private static final XML_FACTORY = createXMLInputFactory()
+
+    // Maximum number of ids given in a single 'in' clause
+    private static final int MAX_IN_CLAUSE = 1000
+
+    private static final Comparator TIMESTAMP_COMPARATOR =
+        { a, b -> a.timestamp <=> b.timestamp } as Comparator
+
+    // Functions and orders accepted by getTop()
+    private static final RANK_FUNCTIONS = ['last', 'avg', 'min', 'max']
+    private static final RANK_ORDERS = ['top', 'bottom']
+    private static final int DEFAULT_RANK_COUNT = 10
+
+    // Time a poll() waits for new data when no timeout is given, and the
+    // longest wait allowed.
+    private static final long DEFAULT_POLL_TIMEOUT = 30000
+    private static final long MAX_POLL_TIMEOUT = 120000
+
     private Closure getMetricDataXML(r) {
         { doc ->
             MetricData(resourceId: r.resource.id,
                        resourceName: r.resource.name,
                        metricId: r.metric.id,
                        metricName: r.metric.template.name) {
-                // TODO: Backend does not always return data in asending order
-                for (dp in r.data.sort {a, b -> a.timestamp <=> b.timestamp}) {
+                for (dp in sortByTimestamp(r.data)) {
                     DataPoint(timestamp : dp.timestamp,
                               value     : dp.value)
                 }
@@ -22,6 +48,63 @@ class MetricdataController extends ApiController {
         }
     }
 
+    /**
+     * Ensure the given data points are in ascending timestamp order.  The
+     * backend does not always return data in ascending order, but usually
+     * does, so the data is only sorted (in place) once an out of order
+     * point is found.
+     */
+    private List sortByTimestamp(List data) {
+        long last = Long.MIN_VALUE
+        for (dp in data) {
+            if (dp.timestamp < last) {
+                Collections.sort(data, TIMESTAMP_COMPARATOR)
+                break
+            }
+            last = dp.timestamp
+        }
+        return data
+    }
+
+    /**
+     * Render the availability of a Measurement as a list of intervals of
+     * constant state, clipped to the requested time range.
+     */
+    private Closure getAvailabilityDataXML(metric, List rle, long start,
+                                           long end) {
+        { doc ->
+            AvailabilityData(resourceId: metric.resource.id,
+                             resourceName: metric.resource.name,
+                             metricId: metric.id,
+                             metricName: metric.template.name) {
+                for (avail in rle.sort { it.startime }) {
+                    long intervalStart = Math.max(avail.startime, start)
+                    long intervalEnd = Math.min(avail.endtime, end)
+                    if (intervalStart >= intervalEnd) {
+                        continue
+                    }
+                    AvailabilityInterval(start: intervalStart,
+                                         end:   intervalEnd,
+                                         value: avail.availVal)
+                }
+            }
+        }
+    }
+
+    private Closure getRankedMetricXML(r) {
+        { doc ->
+            def attrs = [resourceId: r.metric.resource.id,
+                         resourceName: r.metric.resource.name,
+                         metricId: r.metric.id,
+                         metricName: r.metric.template.name,
+                         value: r.value]
+            if (r.timestamp != null) {
+                attrs.timestamp = r.timestamp
+            }
+            RankedMetric(attrs)
+        }
+    }
+
     private Closure getLastMetricDataXML(r) {
         { doc ->
             LastMetricData(resourceId: r.resource.id,
@@ -95,8 +178,17 @@ class MetricdataController extends ApiController {
                 return getFailureXML(ErrorCode.INVALID_PARAMETERS,
                                      "Metric id not given")
             }
-            def metric = metricHelper.findMeasurementById(mid)
-            if (!metric) {
+        }
+        return null
+    }
+
+    /**
+     * Validate that each of the requested metric ids was found, returning a
+     * Closure representing the error or null if all metrics exist.
+     */
+    private Closure validateMeasurements(metricIds, Map measurements) {
+        for (mid in metricIds) {
+            if (!measurements[mid]) {
                 return getFailureXML(ErrorCode.OBJECT_NOT_FOUND,
                                      "Metric id " + mid + " not found")
             }
@@ -104,14 +196,78 @@ class MetricdataController extends ApiController {
         return null
     }
 
+    /**
+     * Load the Measurements for the given ids, along with their templates
+     * and resources, using a single query per MAX_IN_CLAUSE ids.
+     *
+     * @return A Map of metric id to Measurement.  Ids that could not be
+     * found are not included.
+     */
+    private Map findMeasurementsById(metricIds) {
+        def ids = new ArrayList(new LinkedHashSet(metricIds))
+        def measurements = [:]
+        def session = SessionManager.currentSession()
+
+        for (int i = 0; i < ids.size(); i += MAX_IN_CLAUSE) {
+            def batch = ids.subList(i, Math.min(i + MAX_IN_CLAUSE, ids.size()))
+            def found = session.createQuery(
+                "select m from Measurement m join fetch m.template " +
+                "join fetch m.resource where m.id in (:ids)")
+                .setParameterList("ids", batch).list()
+            for (m in found) {
+                measurements[m.id] = m
+            }
+        }
+        return measurements
+    }
+
+    /**
+     * Get the last data point for each of the given Measurements.
+     * Availability and measurement data are stored separately, so at most
+     * two queries are issued regardless of the number of Measurements.
+     *
+     * @param since If not null, measurement data collected at or before
+     * this time is not considered.
+     *
+     * @return A Map of metric id to MetricValue.  Metrics with no data are
+     * not included.
+     */
+    private Map findLastDataPoints(measurements, Long since) {
+        def availIds = []
+        def dataIds = []
+        for (m in measurements) {
+            if (m.template.isAvailability()) {
+                availIds << m.id
+            } else {
+                dataIds << m.id
+            }
+        }
+
+        def lastValues = [:]
+        if (availIds) {
+            def availMan = Bootstrap.getBean(AvailabilityManager.class)
+            lastValues.putAll(availMan.getLastAvail(availIds as Integer[]))
+        }
+        if (dataIds) {
+            def dataMan = Bootstrap.getBean(DataManager.class)
+            long cutoff = (since != null) ? since : MeasurementConstants.TIMERANGE_UNLIMITED
+            lastValues.putAll(dataMan.getLastDataPoints(dataIds, cutoff))
+        }
+        return lastValues
+    }
+
     def get(params) {
         def metricId = params.getOne("id")?.toInteger()
         def start = params.getOne("start")?.toLong()
         def end = params.getOne("end")?.toLong()
 
         def failureXml = validateParameters([metricId], start, end)
-        def metric = metricHelper.findMeasurementById(metricId)
+        def metric
         def data
+        if (!failureXml) {
+            metric = metricHelper.findMeasurementById(metricId)
+            failureXml = validateMeasurements([metricId], [(metricId): metric])
+        }
         if (!failureXml) {
             try {
                 data = metric.getData(start, end)
@@ -139,8 +295,12 @@ class MetricdataController extends ApiController {
         def metricId = params.getOne("id")?.toInteger()
 
         def failureXml = validateParameters([metricId])
-        def metric = metricHelper.findMeasurementById(metricId)
+        def metric
         def data
+        if (!failureXml) {
+            metric = metricHelper.findMeasurementById(metricId)
+            failureXml = validateMeasurements([metricId], [(metricId): metric])
+        }
         if (!failureXml) {
             try {
                 data = metric.getLastDataPoint()
@@ -171,20 +331,15 @@ class MetricdataController extends ApiController {
 
         def failureXml = validateParameters(metricIds, start, end)
 
-        def results = []
-        
+        def measurements
+
         if (!failureXml) {
-            for (m in metricIds) {
-                try {
-                    // TODO: Switch to collections based API
-                    def metric = metricHelper.findMeasurementById(m)
-                    def data = metric.getData(start, end)
-                    results << [resource: metric.resource,
-                                metric: metric, data: data]
-                } catch (Exception e) {
-                    log.error("UnexpectedError: " + e.getMessage(), e);
-                    failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR)
-                }
+            try {
+                measurements = findMeasurementsById(metricIds)
+                failureXml = validateMeasurements(metricIds, measurements)
+            } catch (Exception e) {
+                log.error("UnexpectedError: " + e.getMessage(), e);
+                failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR)
             }
         }
 
@@ -194,7 +349,17 @@ class MetricdataController extends ApiController {
                     out << failureXml
                 } else {
                     out << getSuccessXML()
-                    for (result in results) {
+                    // Each series is fetched as it is written to the response
+                    // so only a single series is held in memory at a time.
+                    // Since the status has already been written, errors
+                    // fetching data abort the response rather than being
+                    // reported as a failure status.  The backend has no
+                    // collection based API for raw data, so each series is
+                    // a separate query.
+                    for (m in metricIds) {
+                        def metric = measurements[m]
+                        def result = [resource: metric.resource, metric: metric,
+                                      data: metric.getData(start, end)]
                         out << getMetricDataXML(result)
                     }
                 }
@@ -202,29 +367,526 @@ class MetricdataController extends ApiController {
         }
     }
 
+    def getAvailability(params) {
+        def metricIds = params.get("id")*.toInteger()
+        def start = params.getOne("start")?.toLong()
+        def end = params.getOne("end")?.toLong()
+
+        def failureXml = validateParameters(metricIds, start, end)
+
+        def measurements
+
+        if (!failureXml) {
+            try {
+                measurements = findMeasurementsById(metricIds)
+                failureXml = validateMeasurements(metricIds, measurements)
+                if (!failureXml) {
+                    for (m in metricIds) {
+                        if (!measurements[m].template.isAvailability()) {
+                            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                                       "Metric id " + m +
+                                                       " is not an availability metric")
+                            break
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                log.error("UnexpectedError: " + e.getMessage(), e);
+                failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR)
+            }
+        }
+
+        renderXml() {
+            AvailabilityDataResponse() {
+                if (failureXml) {
+                    out << failureXml
+                } else {
+                    out << getSuccessXML()
+                    // Availability is stored run length encoded, so each
+                    // series is returned as intervals without expanding it
+                    // into data points.
+                    def availMan = Bootstrap.getBean(AvailabilityManager.class)
+                    for (m in metricIds) {
+                        def metric = measurements[m]
+                        def rle = availMan.getHistoricalAvailData(metric.resource,
+                                                                  start, end)
+                        out << getAvailabilityDataXML(metric, rle, start, end)
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the enabled Measurements for the given template, limited to the
+     * given resource ids if not null, using a single query per
+     * MAX_IN_CLAUSE ids.
+     */
+    private List findMeasurementsByTemplate(Integer templateId, List resourceIds) {
+        def session = SessionManager.currentSession()
+        def hql = "select m from Measurement m join fetch m.template " +
+                  "join fetch m.resource where m.template.id = :tid " +
+                  "and m.enabled = true"
+
+        if (resourceIds == null) {
+            return session.createQuery(hql).setInteger("tid", templateId).list()
+        }
+
+        def measurements = []
+        def ids = new ArrayList(new LinkedHashSet(resourceIds))
+        for (int i = 0; i < ids.size(); i += MAX_IN_CLAUSE) {
+            def batch = ids.subList(i, Math.min(i + MAX_IN_CLAUSE, ids.size()))
+            measurements.addAll(session.createQuery(hql + " and m.resource.id in (:ids)")
+                                .setInteger("tid", templateId)
+                                .setParameterList("ids", batch).list())
+        }
+        return measurements
+    }
+
+    /**
+     * Compute the value each Measurement is ranked by.  Aggregates are
+     * computed by the backend with one query for availability and one for
+     * measurement data.
+     *
+     * @return A List of Maps with metric, value and, for last values, the
+     * timestamp.  Measurements without data in the window are not included.
+     */
+    private List computeRankValues(List measurements, String function,
+                                   long start, long end) {
+        def values = []
+        if (function == 'last') {
+            // The cutoff excludes data at or before it, so a point stamped
+            // exactly at start is still considered.
+            def lastValues = findLastDataPoints(measurements, start - 1)
+            for (m in measurements) {
+                def dp = lastValues[m.id]
+                if (dp && dp.timestamp > end) {
+                    // Collected after the window, so the newest point at or
+                    // before end has to be looked up separately.  There is
+                    // no collection based API for raw data, so this costs a
+                    // query per metric collected after end, which is only
+                    // the case when end is in the past.
+                    dp = m.getData(start, end).max { it.timestamp }
+                }
+                if (dp && dp.timestamp >= start && dp.timestamp <= end) {
+                    values << [metric: m, value: dp.value, timestamp: dp.timestamp]
+                }
+            }
+            return values
+        }
+
+        def index
+        switch (function) {
+            case 'avg': index = MeasurementConstants.IND_AVG; break
+            case 'min': index = MeasurementConstants.IND_MIN; break
+            default:    index = MeasurementConstants.IND_MAX; break
+        }
+
+        def avail = measurements.findAll { it.template.isAvailability() }
+        def data = measurements.findAll { !it.template.isAvailability() }
+        def aggregates = [:]
+        if (avail) {
+            def availMan = Bootstrap.getBean(AvailabilityManager.class)
+            aggregates.putAll(availMan.getAggregateData(avail*.id as Integer[],
+                                                        start, end))
+        }
+        if (data) {
+            def dataMan = Bootstrap.getBean(DataManager.class)
+            aggregates.putAll(dataMan.getAggregateDataByMetric(data, start, end,
+                                                               false))
+        }
+        for (m in measurements) {
+            def agg = aggregates[m.id]
+            if (agg != null && !Double.isNaN(agg[index])) {
+                values << [metric: m, value: agg[index]]
+            }
+        }
+        return values
+    }
+
+    def getTop(params) {
+        def templateId = params.getOne("templateId")?.toInteger()
+        def groupId = params.getOne("groupId")?.toInteger()
+        def resourceIds = params.get("resourceId")*.toInteger()
+        def function = params.getOne("function", "max")
+        def order = params.getOne("order", "top")
+        def count = params.getOne("count")?.toInteger() ?: DEFAULT_RANK_COUNT
+        def start = params.getOne("start")?.toLong()
+        def end = params.getOne("end")?.toLong()
+
+        def failureXml
+        def results = []
+
+        if (!templateId) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Template id not given")
+        } else if (start == null || end == null || start < 0 || end < start) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Invalid time range")
+        } else if (!RANK_FUNCTIONS.contains(function)) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Function must be one of " + RANK_FUNCTIONS)
+        } else if (!RANK_ORDERS.contains(order)) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Order must be one of " + RANK_ORDERS)
+        } else if (count < 1) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Count must be > 0")
+        } else if (groupId && resourceIds) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Only one of group id or resource ids " +
+                                       "may be given")
+        } else if (!metricHelper.findTemplateById(templateId)) {
+            failureXml = getFailureXML(ErrorCode.OBJECT_NOT_FOUND,
+                                       "Template with id " + templateId +
+                                       " not found")
+        }
+
+        if (!failureXml) {
+            try {
+                // Without a group or resources all resources of the
+                // template's prototype are ranked.  In every case only
+                // resources the user can view are considered.
+                def scope = null
+                if (groupId) {
+                    def group = getGroup(groupId, null)
+                    if (!group) {
+                        failureXml = getFailureXML(ErrorCode.OBJECT_NOT_FOUND,
+                                                   "Group with id " + groupId +
+                                                   " not found")
+                    } else {
+                        scope = group.resources*.id
+                    }
+                } else if (resourceIds) {
+                    scope = resourceIds
+                }
+
+                if (!failureXml) {
+                    def measurements = (scope == null || scope) ?
+                        findMeasurementsByTemplate(templateId, scope) : []
+                    def viewable = new HashSet(filterViewable(measurements*.resource)*.id)
+                    measurements = measurements.findAll { viewable.contains(it.resource.id) }
+                    def values = computeRankValues(measurements, function,
+                                                   start, end)
+                    if (order == 'top') {
+                        values.sort { a, b -> b.value <=> a.value }
+                    } else {
+                        values.sort { a, b -> a.value <=> b.value }
+                    }
+                    results = values.size() > count ? values[0..<count] : values
+                }
+            } catch (Exception e) {
+                log.error("UnexpectedError: " + e.getMessage(), e);
+                failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR)
+            }
+        }
+
+        renderXml() {
+            RankedMetricsResponse() {
+                if (failureXml) {
+                    out << failureXml
+                } else {
+                    out << getSuccessXML()
+                    for (r in results) {
+                        out << getRankedMetricXML(r)
+                    }
+                }
+            }
+        }
+    }
+
+    def getGroupLast(params) {
+        def groupId = params.getOne("groupId")?.toInteger()
+        def templateIds = params.get("templateId")*.toInteger()
+
+        def failureXml
+        def group
+        def templates = []
+        def members = []
+        def lastValues = [:]
+
+        if (!groupId) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Group id not given")
+        } else if (!templateIds || templateIds.any { it == null }) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Template id not given")
+        } else {
+            group = getGroup(groupId, null)
+            if (!group) {
+                failureXml = getFailureXML(ErrorCode.OBJECT_NOT_FOUND,
+                                           "Group with id " + groupId +
+                                           " not found")
+            } else if (!isGroupViewable(group)) {
+                failureXml = getFailureXML(ErrorCode.PERMISSION_DENIED)
+            } else if (!group.resourcePrototype) {
+                failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                           "Group " + group.name + " is not a " +
+                                           "compatible group")
+            }
+        }
+
+        if (!failureXml) {
+            for (tid in templateIds) {
+                def template = metricHelper.findTemplateById(tid)
+                if (!template) {
+                    failureXml = getFailureXML(ErrorCode.OBJECT_NOT_FOUND,
+                                               "Template with id " + tid +
+                                               " not found")
+                    break
+                }
+                templates << template
+            }
+        }
+
+        // Map of resource id -> template id -> MetricValue
+        def snapshot = [:]
+        if (!failureXml) {
+            try {
+                // Members the user cannot view are left out of the snapshot
+                members = filterViewable(group.resources).sort { it.name }
+                def session = SessionManager.currentSession()
+                def measurements = []
+                def ids = members*.id
+                for (int i = 0; i < ids.size(); i += MAX_IN_CLAUSE) {
+                    def batch = ids.subList(i, Math.min(i + MAX_IN_CLAUSE, ids.size()))
+                    measurements.addAll(session.createQuery(
+                        "select m from Measurement m join fetch m.template " +
+                        "join fetch m.resource where m.template.id in (:tids) " +
+                        "and m.resource.id in (:ids)")
+                        .setParameterList("tids", templateIds)
+                        .setParameterList("ids", batch).list())
+                }
+                lastValues = findLastDataPoints(measurements, null)
+                for (m in measurements) {
+                    def row = snapshot[m.resource.id]
+                    if (row == null) {
+                        row = [:]
+                        snapshot[m.resource.id] = row
+                    }
+                    row[m.template.id] = lastValues[m.id]
+                }
+            } catch (Exception e) {
+                log.error("UnexpectedError: " + e.getMessage(), e);
+                failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR)
+            }
+        }
+
+        renderXml() {
+            GroupLastMetricDataResponse() {
+                if (failureXml) {
+                    out << failureXml
+                } else {
+                    out << getSuccessXML()
+                    for (t in templates) {
+                        GroupLastMetricTemplate(id: t.id, name: t.name)
+                    }
+                    // Values and timestamps are written as lists in template
+                    // order, NaN and 0 where a member has no data.
+                    for (r in members) {
+                        def row = snapshot[r.id] ?: [:]
+                        def values = new StringBuilder()
+                        def timestamps = new StringBuilder()
+                        for (t in templates) {
+                            def dp = row[t.id]
+                            if (values.length() > 0) {
+                                values.append(' ')
+                                timestamps.append(' ')
+                            }
+                            values.append(dp ? dp.value : Double.NaN)
+                            timestamps.append(dp ? dp.timestamp : 0)
+                        }
+                        GroupLastMetricMember(resourceId: r.id,
+                                              resourceName: r.name,
+                                              values: values.toString(),
+                                              timestamps: timestamps.toString())
+                    }
+                }
+            }
+        }
+    }
+
+    def subscribe(params) {
+        def metricIds = params.get("id")*.toInteger()
+
+        def failureXml = validateParameters(metricIds)
+        def subscription
+
+        if (!failureXml) {
+            try {
+                def measurements = findMeasurementsById(metricIds)
+                failureXml = validateMeasurements(metricIds, measurements)
+                if (!failureXml) {
+                    def metrics = [:]
+                    for (m in measurements.values()) {
+                        metrics[m.id] = [resourceId: m.resource.id,
+                                         resourceName: m.resource.name,
+                                         metricName: m.template.name]
+                    }
+                    subscription = MetricSubscriptions.getInstance()
+                                       .subscribe(user.id, metrics)
+                    if (!subscription) {
+                        failureXml = getFailureXML(ErrorCode.OPERATION_DENIED,
+                                                   "At most " +
+                                                   MetricSubscriptions.MAX_SUBSCRIPTIONS +
+                                                   " subscriptions are allowed")
+                    }
+                }
+            } catch (Exception e) {
+                log.error("UnexpectedError: " + e.getMessage(), e);
+                failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR)
+            }
+        }
+
+        renderXml() {
+            MetricSubscriptionResponse() {
+                if (failureXml) {
+                    out << failureXml
+                } else {
+                    out << getSuccessXML()
+                    MetricSubscription(id: subscription.id,
+                                       ttl: MetricSubscriptions.SUBSCRIPTION_TTL)
+                }
+            }
+        }
+    }
+
+    def poll(params) {
+        def subscriptionId = params.getOne("subscriptionId")
+        def timeout = params.getOne("timeout")?.toLong()
+        if (timeout == null) {
+            timeout = DEFAULT_POLL_TIMEOUT
+        }
+
+        def failureXml
+        def subscription
+        def result
+
+        if (!subscriptionId) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Subscription id not given")
+        } else if (timeout < 0 || timeout > MAX_POLL_TIMEOUT) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Timeout must be between 0 and " +
+                                       MAX_POLL_TIMEOUT)
+        } else {
+            def subscriptions = MetricSubscriptions.getInstance()
+            subscription = subscriptions.getSubscription(subscriptionId, user.id)
+            if (!subscription) {
+                failureXml = getFailureXML(ErrorCode.OBJECT_NOT_FOUND,
+                                           "Subscription " + subscriptionId +
+                                           " not found")
+            } else {
+                result = subscriptions.poll(subscription, timeout)
+                if (result == null) {
+                    failureXml = getFailureXML(ErrorCode.OPERATION_DENIED,
+                                               "At most " +
+                                               MetricSubscriptions.MAX_POLLS +
+                                               " polls may wait at once")
+                }
+            }
+        }
+
+        renderXml() {
+            MetricSubscriptionDataResponse(failureXml ? [:] : [dropped: result.dropped]) {
+                if (failureXml) {
+                    out << failureXml
+                } else {
+                    out << getSuccessXML()
+                    def byMetric = result.data.groupBy { it.metricId }
+                    for (metricId in byMetric.keySet()) {
+                        def info = subscription.metrics[metricId]
+                        MetricData(resourceId: info.resourceId,
+                                   resourceName: info.resourceName,
+                                   metricId: metricId,
+                                   metricName: info.metricName) {
+                            for (dp in sortByTimestamp(byMetric[metricId])) {
+                                DataPoint(timestamp : dp.timestamp,
+                                          value     : dp.value)
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    def unsubscribe(params) {
+        def subscriptionId = params.getOne("subscriptionId")
+
+        def failureXml
+        def subscriptions = MetricSubscriptions.getInstance()
+        def subscription = subscriptions.getSubscription(subscriptionId, user.id)
+        if (!subscriptionId) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Subscription id not given")
+        } else if (!subscription) {
+            failureXml = getFailureXML(ErrorCode.OBJECT_NOT_FOUND,
+                                       "Subscription " + subscriptionId +
+                                       " not found")
+        } else {
+            subscriptions.unsubscribe(subscription)
+        }
+
+        renderXml() {
+            StatusResponse() {
+                if (failureXml) {
+                    out << failureXml
+                } else {
+                    out << getSuccessXML()
+                }
+            }
+        }
+    }
+
     def getMultiLast(params) {
         def metricIds = params.get("id")*.toInteger()
+        def since = params.getOne("since")?.toLong()
 
         def failureXml = validateParameters(metricIds)
+        if (!failureXml && since != null && since < 0) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Since time must be >= 0")
+        }
 
         def results = []
+        def watermark = null
 
         if (!failureXml) {
-            for (m in metricIds) {
-                try {
-                    def metric = metricHelper.findMeasurementById(m)
-                    def data = metric.getLastDataPoint()
-                    results << [resource: metric.resource,
-                                metric: metric, data: data]
-                } catch (Exception e) {
-                    log.error("UnexpectedError: " + e.getMessage(), e);
-                    failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR)
+            try {
+                def measurements = findMeasurementsById(metricIds)
+                failureXml = validateMeasurements(metricIds, measurements)
+                if (!failureXml) {
+                    def lastValues = findLastDataPoints(measurements.values(),
+                                                        since)
+                    for (m in metricIds) {
+                        def metric = measurements[m]
+                        def data = lastValues[m]
+                        if (data && (watermark == null || data.timestamp > watermark)) {
+                            watermark = data.timestamp
+                        }
+                        // When polling with since, only return metrics that
+                        // have been collected after the caller's watermark.
+                        if (since != null && (!data || data.timestamp <= since)) {
+                            continue
+                        }
+                        results << [resource: metric.resource,
+                                    metric: metric, data: data]
+                    }
                 }
+            } catch (Exception e) {
+                log.error("UnexpectedError: " + e.getMessage(), e);
+                failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR)
             }
         }
 
+        if (watermark == null) {
+            watermark = since
+        }
+        def attrs = (!failureXml && watermark != null) ? [watermark: watermark] : [:]
+
         renderXml() {
-            LastMetricsDataResponse() {
+            LastMetricsDataResponse(attrs) {
                 if (failureXml) {
                     out << failureXml
                 } else {
@@ -282,43 +944,34 @@ class MetricdataController extends ApiController {
 
     def put(params) {
 
-        def inserter = null
-
         def failureXml = null
+        def reader = null
 
-        def dataRequest = new XmlParser().parseText(getPostData())
-        def metricId = dataRequest.'@metricId'?.toInteger()
+        try {
+            def is = getPostDataStream()
+            if (is == null) {
+                failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                           "No data points given")
+            } else {
+                reader = XML_FACTORY.createXMLStreamReader(is, "UTF-8")
+                reader.nextTag() // DataPointsRequest
+                def metricId = reader.getAttributeValue(null, "metricId")?.toInteger()
 
-        def metric = metricHelper.findMeasurementById(metricId)
-        if (!metric) {
-            failureXml = getFailureXML(ErrorCode.OBJECT_NOT_FOUND,
-                                       "Unable to find metric with id = " +
-                                       metricId)
-        } else {
-            try {
-            	def points = []
-            	for (dp in dataRequest["DataPoint"]) {
-                	long ts = dp.'@timestamp'?.toLong()
-                	double val = dp.'@value'?.toDouble()
-                	points << createDataPoint(metric, val, ts)
-            	}
-            	log.info("Inserting " + points.size() + " metrics for " + metric.template.name)
-
-            	if (metric.getTemplate().isAvailability()) {
-            		inserter = Bootstrap.getBean(MeasurementInserterHolder.class).availDataInserter
-            	} else {
-                	inserter = Bootstrap.getBean(MeasurementInserterHolder.class).dataInserter
+                def metric = metricHelper.findMeasurementById(metricId)
+                if (!metric) {
+                    failureXml = getFailureXML(ErrorCode.OBJECT_NOT_FOUND,
+                                               "Unable to find metric with id = " +
+                                               metricId)
+                } else {
+                    failureXml = insertDataPoints(metric, reader)
                 }
-                inserter.insertMetrics(points)
-            } catch (IllegalArgumentException ia) {
-            	failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
-            							   ia.getMessage()) 
-            } catch (Exception e) {
-                failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR,
-                                           "Error inserting metrics: " +
-                                           e.getMessage())
-                log.warn("Error inserting metrics", e)
             }
+        } catch (XMLStreamException e) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Unable to parse data points: " +
+                                       e.getMessage())
+        } finally {
+            reader?.close()
         }
 
         renderXml() {
@@ -331,14 +984,73 @@ class MetricdataController extends ApiController {
             }
         }
     }
-    
-    private createDataPoint(metric, value, timestamp) {
-    	if (metric.getTemplate().isAvailability()) {
+
+    /**
+     * Read the DataPoint elements from the given reader, inserting them in
+     * batches of INSERT_BATCH_SIZE so the full request is never held in
+     * memory.  Since batches are inserted as they are read, a failure part
+     * way through the request will leave the preceding batches inserted.
+     *
+     * @return A Closure representing the error, or null if all data points
+     * were inserted.
+     */
+    private Closure insertDataPoints(metric, reader) {
+        def metricId = metric.id
+        boolean isAvailability = metric.getTemplate().isAvailability()
+        def inserter
+        if (isAvailability) {
+            inserter = Bootstrap.getBean(MeasurementInserterHolder.class).availDataInserter
+        } else {
+            inserter = Bootstrap.getBean(MeasurementInserterHolder.class).dataInserter
+        }
+
+        def points = new ArrayList(INSERT_BATCH_SIZE)
+        long total = 0
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT &&
+                    reader.localName == "DataPoint") {
+                    long ts = reader.getAttributeValue(null, "timestamp")?.toLong()
+                    double val = reader.getAttributeValue(null, "value")?.toDouble()
+                    points << createDataPoint(metricId, isAvailability, val, ts)
+
+                    if (points.size() == INSERT_BATCH_SIZE) {
+                        inserter.insertMetrics(points)
+                        total += points.size()
+                        points = new ArrayList(INSERT_BATCH_SIZE)
+                    }
+                }
+            }
+
+            if (points.size() > 0) {
+                inserter.insertMetrics(points)
+                total += points.size()
+            }
+            log.info("Inserted " + total + " metrics for " + metric.template.name)
+        } catch (XMLStreamException e) {
+            log.warn("Error parsing metrics after inserting " + total +
+                     " data points", e)
+            return getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                 "Unable to parse data points: " + e.getMessage())
+        } catch (IllegalArgumentException ia) {
+            return getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                 ia.getMessage())
+        } catch (Exception e) {
+            log.warn("Error inserting metrics", e)
+            return getFailureXML(ErrorCode.UNEXPECTED_ERROR,
+                                 "Error inserting metrics: " +
+                                 e.getMessage())
+        }
+        return null
+    }
+
+    private createDataPoint(metricId, boolean isAvailability, value, timestamp) {
+    	if (isAvailability) {
     		if (value != 0.0 && value != 1.0 && value != -0.01) {
     			throw new IllegalArgumentException("Invalid availability data point: " + value)
     		}
     	}
     	
-    	return new DP(metric.id, value, timestamp)
+    	return new DP(metricId, value, timestamp)
     }
 }
\ No newline at end of file
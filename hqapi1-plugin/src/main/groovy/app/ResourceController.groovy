@@ -1,8 +1,11 @@
 import org.hyperic.hq.hqapi1.ErrorCode
+import org.hyperic.hq.hqapi1.ResourceFingerprint
+import org.hyperic.hq.appdef.shared.AppdefEntityConstants
 import org.hyperic.hq.appdef.shared.AppdefEntityID
 import org.hyperic.hq.appdef.shared.AppdefUtil
 import org.hyperic.hq.authz.shared.AuthzConstants
 import org.hyperic.hq.authz.shared.PermissionException
+import org.hyperic.hq.authz.shared.PermissionManagerFactory
 import org.hyperic.hq.authz.shared.ResourceEdgeCreateException
 
 import org.hyperic.hq.appdef.shared.ServiceManager
@@ -15,6 +18,7 @@ import org.hyperic.hq.appdef.shared.PlatformNotFoundException
 import org.hyperic.hq.authz.server.session.Resource
 import org.hyperic.hq.context.Bootstrap
 import org.hyperic.hq.common.VetoException
+import org.hyperic.hq.hibernate.SessionManager
 
 class ResourceController extends ApiController {
 
@@ -23,6 +27,27 @@ class ResourceController extends ApiController {
     private static final String PROP_AIIDENIFIER = "autoIdentifier"
     private static final String PROP_AGENT_ID    = "agentId"
 
+    // Maximum number of ids given in a single 'in' clause
+    private static final int MAX_IN_CLAUSE = 1000
+
+    // Description match modes accepted by find(), from most to least strict
+    private static final DESCRIPTION_MATCHES = ['exact', 'prefix', 'contains']
+
+    // Appdef type -> entity holding the creation and modification times
+    private static final APPDEF_ENTITIES =
+        [(AppdefEntityConstants.APPDEF_TYPE_PLATFORM): 'Platform',
+         (AppdefEntityConstants.APPDEF_TYPE_SERVER): 'Server',
+         (AppdefEntityConstants.APPDEF_TYPE_SERVICE): 'Service']
+
+    // Creation and modification times are set before the transaction
+    // commits, so change tokens lag the request by this long to include
+    // transactions that were still in flight.
+    private static final long CHANGE_LAG = 60000
+
+    // Maximum changes in the lag window carried in a change token to
+    // avoid returning them again
+    private static final int MAX_TOKEN_CHANGES = 1000
+
     private static platMan = Bootstrap.getBean(PlatformManager.class)
     private static svrMan = Bootstrap.getBean(ServerManager.class)
     private static svcMan = Bootstrap.getBean(ServiceManager.class)
@@ -40,49 +65,222 @@ class ResourceController extends ApiController {
         svcMan.findServiceById(r.instanceId)
     }
 
+    private Map loadResources(Collection resources, boolean children) {
+        loadResources(resources, children, null, null)
+    }
+
+    /**
+     * Bulk load everything rendered by getResourceXML for the given
+     * Resources and, if children is set, the tree of viewable children
+     * below them.  Each level of the tree is loaded with a fixed number of
+     * queries per MAX_IN_CLAUSE Resources rather than several queries per
+     * Resource.
+     *
+     * If depth is given only that many levels of children are loaded.  If
+     * childPrototype is given only children of that prototype are kept,
+     * along with the children that lead to one within the loaded depth.
+     *
+     * @return Map with 'appdef', Resource id to Platform, Server or Service,
+     * and 'children', Resource id to the name ordered List of viewable
+     * child Resources.
+     */
+    private Map loadResources(Collection resources, boolean children,
+                              Integer depth, String childPrototype) {
+        def loaded = [appdef: [:], children: [:]]
+        def level = resources.findAll { it != null }
+        loadAppdef(level, loaded.appdef)
+
+        int levels = 0
+        while (children && level && (depth == null || levels < depth)) {
+            def parents = level.findAll { !it.isService() }
+            def found = findChildren(parents)
+            def candidates = []
+            for (l in found.values()) {
+                candidates.addAll(l)
+            }
+            loadAppdef(candidates, loaded.appdef)
+
+            def allowed = new HashSet(filterViewable(candidates)*.id)
+            level = []
+            for (parent in parents) {
+                def viewable = found[parent.id].findAll { allowed.contains(it.id) }
+                viewable = viewable.sort {a, b -> a.name <=> b.name}
+                loaded.children[parent.id] = viewable
+                level.addAll(viewable)
+            }
+            levels++
+        }
+
+        if (children) {
+            // Children beyond the depth are not rendered
+            for (r in level) {
+                if (!loaded.children.containsKey(r.id)) {
+                    loaded.children[r.id] = []
+                }
+            }
+            if (childPrototype) {
+                for (r in resources) {
+                    if (r != null) {
+                        pruneChildren(r, childPrototype, loaded.children)
+                    }
+                }
+            }
+        }
+        return loaded
+    }
+
+    /**
+     * Remove the children of the given Resource that are not of the given
+     * prototype and have no descendants of it.
+     *
+     * @return true if the Resource has a remaining child.
+     */
+    private boolean pruneChildren(r, String prototype, Map children) {
+        def kept = children[r.id]?.findAll { child ->
+            boolean matches = child.prototype.name == prototype
+            // Prune the whole subtree so deeper levels are filtered too
+            boolean leads = pruneChildren(child, prototype, children)
+            matches || leads
+        }
+        children[r.id] = kept ?: []
+        return kept as boolean
+    }
+
+    /**
+     * Load the Platforms, Servers and Services backing the given Resources,
+     * along with the resource types, prototypes, agents and ips rendered by
+     * getResourceXML, into the session and the given Map of Resource id to
+     * appdef entity.
+     */
+    private void loadAppdef(List resources, Map appdef) {
+        def session = SessionManager.currentSession()
+        def ids = new ArrayList(new LinkedHashSet(resources*.id))
+        ids.removeAll(appdef.keySet())
+
+        for (int i = 0; i < ids.size(); i += MAX_IN_CLAUSE) {
+            def batch = ids.subList(i, Math.min(i + MAX_IN_CLAUSE, ids.size()))
+            session.createQuery(
+                "select r from Resource r join fetch r.resourceType " +
+                "join fetch r.prototype pt join fetch pt.resourceType " +
+                "where r.id in (:ids)").setParameterList("ids", batch).list()
+
+            def found = []
+            found.addAll(session.createQuery(
+                "select distinct p from Platform p join fetch p.resource " +
+                "left join fetch p.agent left join fetch p.ips " +
+                "where p.resource.id in (:ids)")
+                .setParameterList("ids", batch).list())
+            found.addAll(session.createQuery(
+                "select s from Server s join fetch s.resource " +
+                "where s.resource.id in (:ids)")
+                .setParameterList("ids", batch).list())
+            found.addAll(session.createQuery(
+                "select s from Service s join fetch s.resource " +
+                "where s.resource.id in (:ids)")
+                .setParameterList("ids", batch).list())
+            for (a in found) {
+                appdef[a.resource.id] = a
+            }
+        }
+    }
+
+    /**
+     * Find the direct children of the given Resources through their
+     * containment edges, using a single query per MAX_IN_CLAUSE Resources.
+     *
+     * @return Map of parent Resource id to the List of child Resources.
+     */
+    private Map findChildren(List parents) {
+        def session = SessionManager.currentSession()
+        def ids = parents*.id
+        def children = [:]
+        for (id in ids) {
+            children[id] = []
+        }
+
+        for (int i = 0; i < ids.size(); i += MAX_IN_CLAUSE) {
+            def batch = ids.subList(i, Math.min(i + MAX_IN_CLAUSE, ids.size()))
+            def rows = session.createQuery(
+                "select e.from.id, e.to from ResourceEdge e " +
+                "where e.from.id in (:ids) and e.distance = 1 " +
+                "and e.relation.name = :relation")
+                .setParameterList("ids", batch)
+                .setString("relation", AuthzConstants.ResourceEdgeContainmentRelation)
+                .list()
+            for (row in rows) {
+                children[row[0]] << row[1]
+            }
+        }
+        return children
+    }
+
     private Closure getResourceXML(user, r, boolean verbose, boolean children) {
+        getResourceXML(user, r, verbose, children,
+                       loadResources([r], children))
+    }
+
+    /**
+     * Render a Resource using the entities bulk loaded by loadResources().
+     */
+    private Closure getResourceXML(user, r, boolean verbose, boolean children,
+                                   Map loaded) {
         { doc ->
-            def appdefRes = null
+            def appdefRes = loaded.appdef[r.id]
             def isPlatform = r.isPlatform()
-            if (isPlatform) {
+            if (isPlatform && !appdefRes) {
                 appdefRes = toPlatform(r)
             }
             def isServer = r.isServer()
-            if (isServer) {
+            if (isServer && !appdefRes) {
                 appdefRes = toServer(r)
             }
             def isService = r.isService()
-            if (isService) {
+            if (isService && !appdefRes) {
                 appdefRes = toService(r)
             }
 
-            Resource(id : r.id,
-                     name : r.name,
-                     description : appdefRes.description,
-                     location : appdefRes.location,
-                     instanceId : r.entityId.id,
-                     typeId : r.entityId.type) {
-                if (verbose) {
-                    try {
-                        def config = r.getConfig()
-                        config.each { k, v ->
-                            if (v.type.equals("configResponse")) {
-                                ResourceConfig(key: k, value: v.value)
-                            }
+            def config = null
+            def fingerprint = null
+            if (verbose) {
+                try {
+                    config = r.getConfig()
+                    fingerprint = getFingerprint(r, appdefRes, config)
+                } catch (Throwable t) {
+                    // Invalid confi?. Bad DB entry?
+                    log.error("Exception thrown while retrieving config for Resource ID " + r.id + " probably needs to be deleted manually")
+                }
+            }
+
+            def attrs = [id : r.id,
+                         name : r.name,
+                         description : appdefRes.description,
+                         location : appdefRes.location,
+                         instanceId : r.entityId.id,
+                         typeId : r.entityId.type]
+            if (fingerprint) {
+                attrs.fingerprint = fingerprint
+            }
+
+            Resource(attrs) {
+                if (config) {
+                    config.each { k, v ->
+                        if (v.type.equals("configResponse")) {
+                            ResourceConfig(key: k, value: v.value)
                         }
-                        config.each { k, v ->
-                            if (v.type.equals("cprop")) {
-                                ResourceProperty(key: k, value: v.value)
-                            }
+                    }
+                    config.each { k, v ->
+                        if (v.type.equals("cprop")) {
+                            ResourceProperty(key: k, value: v.value)
                         }
-                    } catch (Throwable t) {
-                        // Invalid confi?. Bad DB entry?
-                        log.error("Exception thrown while retrieving config for Resource ID " + r.id + " probably needs to be deleted manually")
                     }
                 }
                 if (children && !isService) {
-                    r.getViewableChildren(user).each { child ->
-                        out << getResourceXML(user, child, verbose, children)
+                    def viewable = loaded.children[r.id]
+                    if (viewable == null) {
+                        viewable = r.getViewableChildren(user)
+                    }
+                    viewable.each { child ->
+                        out << getResourceXML(user, child, verbose, children, loaded)
                     }
                 }
                 try { 
@@ -123,6 +321,105 @@ class ResourceController extends ApiController {
         }
     }
 
+    /**
+     * Compute the fingerprint of a Resource from the content rendered by a
+     * verbose listing.  This must hash the same values the client uses, see
+     * ResourceFingerprint.
+     */
+    private String getFingerprint(r, appdefRes, config) {
+        def resourceConfig = [:]
+        def properties = [:]
+        config.each { k, v ->
+            if (v.type.equals("configResponse")) {
+                resourceConfig[k] = v.value
+            } else if (v.type.equals("cprop")) {
+                properties[k] = v.value
+            }
+        }
+
+        def info = [:]
+        def ips = []
+        Integer agentId = null
+        if (r.isPlatform()) {
+            info[PROP_FQDN] = appdefRes.fqdn
+            agentId = appdefRes.agent?.id
+            for (ip in appdefRes.ips) {
+                ips << ResourceFingerprint.getIp(ip.address, ip.netmask,
+                                                 ip.macAddress)
+            }
+        } else if (r.isServer()) {
+            info[PROP_INSTALLPATH] = appdefRes.installPath
+            info[PROP_AIIDENIFIER] = appdefRes.autoinventoryIdentifier
+        } else if (r.isService()) {
+            info[PROP_AIIDENIFIER] = appdefRes.autoinventoryIdentifier
+        }
+
+        ResourceFingerprint.compute(r.name, appdefRes.description,
+                                    appdefRes.location, agentId, ips,
+                                    resourceConfig, properties, info)
+    }
+
+    /**
+     * Compute the fingerprint of the content submitted for a Resource in a
+     * sync request.
+     */
+    private String getSyncFingerprint(xmlResource) {
+        def resourceConfig = [:]
+        xmlResource['ResourceConfig'].each {
+            resourceConfig[it.'@key'] = it.'@value'
+        }
+        def properties = [:]
+        xmlResource['ResourceProperty'].each {
+            properties[it.'@key'] = it.'@value'
+        }
+        def info = [:]
+        xmlResource['ResourceInfo'].each {
+            info[it.'@key'] = it.'@value'
+        }
+        def ips = xmlResource['Ip'].collect {
+            ResourceFingerprint.getIp(it.'@address', it.'@netmask', it.'@mac')
+        }
+        def agentId = xmlResource['Agent'] ?
+            xmlResource['Agent'][0].'@id'?.toInteger() : null
+
+        ResourceFingerprint.compute(xmlResource.'@name',
+                                    xmlResource.'@description',
+                                    xmlResource.'@location', agentId, ips,
+                                    resourceConfig, properties, info)
+    }
+
+    /**
+     * Check whether the content submitted for a Resource matches its current
+     * content, in which case there is nothing to update.  The submitted
+     * fingerprint is only a hint that the client expects unchanged Resources
+     * to be skipped, it is not trusted to describe the submitted content.
+     */
+    private boolean isUnchanged(resource, xmlResource) {
+        if (!xmlResource.'@fingerprint') {
+            return false
+        }
+
+        def appdefRes
+        if (resource.isPlatform()) {
+            appdefRes = toPlatform(resource)
+        } else if (resource.isServer()) {
+            appdefRes = toServer(resource)
+        } else if (resource.isService()) {
+            appdefRes = toService(resource)
+        } else {
+            return false
+        }
+
+        try {
+            return getSyncFingerprint(xmlResource) ==
+                   getFingerprint(resource, appdefRes, resource.getConfig())
+        } catch (Throwable t) {
+            log.warn("Unable to compute fingerprint for Resource ID " +
+                     resource.id, t)
+            return false
+        }
+    }
+
     private Closure getPrototypeXML(p) {
         { doc -> 
             ResourcePrototype(instanceId: p.instanceId,
@@ -409,11 +706,16 @@ class ResourceController extends ApiController {
         def aeid = params.getOne("aeid")?.toString()
         boolean children = params.getOne("children", "false").toBoolean()
         boolean verbose = params.getOne("verbose", "false").toBoolean()
+        def depth = params.getOne("depth")?.toInteger()
+        def childPrototype = params.getOne("childPrototype")
 
         def resource = null
         def failureXml
         if (!id && !platformName && !fqdn && !platformId && !parentOf && !aeid) {
             failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS)
+        } else if (depth != null && depth <= 0) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Depth must be > 0")
         } else {
             try {
                 if (id) {
@@ -482,7 +784,254 @@ class ResourceController extends ApiController {
                     out << failureXml
                 } else {
                     out << getSuccessXML()
-                    out << getResourceXML(user, resource, verbose, children)
+                    def loaded = loadResources([resource], children, depth,
+                                               childPrototype)
+                    out << getResourceXML(user, resource, verbose, children,
+                                          loaded)
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the Resources created, modified or deleted since a time or the
+     * token returned by a previous call.  Creations and modifications are
+     * found from the appdef creation and modification times, deletions and
+     * configuration changes from the InventoryChanges log.
+     *
+     * The token is CHANGE_LAG before the time the request started, so
+     * changes from transactions that commit within CHANGE_LAG are not
+     * missed.  The changes already returned within that window are listed
+     * in the token as type-instanceId-time and skipped by the next request.
+     *
+     * Deleted Resources can no longer be checked for view permission, so
+     * deletions are only returned to administrators.  Other users get a
+     * response that is not complete when deletions were withheld.
+     */
+    def getChanges(params) {
+        def token = params.getOne("token")
+        def since = params.getOne("since")
+        boolean verbose = params.getOne("verbose", "false").toBoolean()
+
+        long now = System.currentTimeMillis()
+        def failureXml
+        Long sinceTime = null
+        // Changes returned by the previous request in the lag window
+        def seen = new HashSet()
+        try {
+            if (token) {
+                def parts = token.split(":", 2)
+                sinceTime = parts[0].toLong()
+                if (parts.length > 1) {
+                    for (key in parts[1].split(",")) {
+                        if (!(key ==~ /\d+-\d+-\d+/)) {
+                            throw new NumberFormatException(key)
+                        }
+                        seen << key
+                    }
+                }
+            } else if (since) {
+                sinceTime = since.toLong()
+            }
+        } catch (NumberFormatException e) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Invalid change token " + (token ?: since))
+        }
+        if (!failureXml && sinceTime == null) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "One of since or token must be given")
+        }
+
+        def changes = []
+        def loaded
+        boolean complete = false
+        if (!failureXml) {
+            def changeLog = InventoryChanges.getInstance()
+            complete = changeLog.isComplete(sinceTime)
+
+            // AppdefEntityID key -> change
+            def byKey = [:]
+            def session = SessionManager.currentSession()
+            APPDEF_ENTITIES.each { type, entity ->
+                def rows = session.createQuery(
+                    "select x.resource, x.creationTime, x.modifiedTime " +
+                    "from " + entity + " x where x.creationTime >= :since " +
+                    "or x.modifiedTime >= :since")
+                    .setLong("since", sinceTime).list()
+                for (row in rows) {
+                    def r = row[0]
+                    byKey[r.entityId.appdefKey] =
+                        [type: row[1] >= sinceTime ? 'created' : 'modified',
+                         time: Math.max(row[1], row[2]),
+                         id: r.entityId, resource: r]
+                }
+            }
+
+            // Apply the log in order so a deletion replaces earlier changes
+            def unresolved = [:]
+            for (change in changeLog.getChanges(sinceTime)) {
+                def key = change.id.appdefKey
+                def existing = byKey[key]
+                if (change.type == InventoryChanges.DELETED) {
+                    byKey[key] = [type: 'deleted', time: change.time,
+                                  id: change.id]
+                    unresolved.remove(key)
+                } else if (existing) {
+                    existing.time = Math.max(existing.time, change.time)
+                } else {
+                    byKey[key] = [type: 'modified', time: change.time,
+                                  id: change.id]
+                    unresolved[key] = change.id
+                }
+            }
+
+            // Bulk load the Resources only known from the log
+            unresolved.values().groupBy { it.type }.each { type, ids ->
+                def entity = APPDEF_ENTITIES[type]
+                if (!entity) {
+                    return
+                }
+                def instanceIds = ids*.ID
+                for (int i = 0; i < instanceIds.size(); i += MAX_IN_CLAUSE) {
+                    def batch = instanceIds.subList(i, Math.min(i + MAX_IN_CLAUSE,
+                                                                instanceIds.size()))
+                    def rows = session.createQuery(
+                        "select x.resource from " + entity + " x " +
+                        "where x.id in (:ids)")
+                        .setParameterList("ids", batch).list()
+                    for (r in rows) {
+                        byKey[r.entityId.appdefKey].resource = r
+                    }
+                }
+            }
+
+            def admin = PermissionManagerFactory.getInstance().hasAdminPermission(user.id)
+            def resources = byKey.values().findAll { it.resource }*.resource
+            def allowed = new HashSet(filterViewable(resources)*.id)
+            changes = byKey.values().findAll {
+                !seen.contains(getChangeKey(it)) &&
+                (it.type == 'deleted' || (it.resource && allowed.contains(it.resource.id)))
+            }
+            if (!admin && changes.any { it.type == 'deleted' }) {
+                changes = changes.findAll { it.type != 'deleted' }
+                complete = false
+            }
+            changes.sort { a, b -> a.time <=> b.time ?: a.id.appdefKey <=> b.id.appdefKey }
+            loaded = loadResources(changes.findAll { it.resource }*.resource, false)
+        }
+
+        def attrs = [:]
+        if (!failureXml) {
+            long tokenTime = now - CHANGE_LAG
+            def overlap = new LinkedHashSet()
+            for (key in seen) {
+                if (key.split("-")[2].toLong() >= tokenTime) {
+                    overlap << key
+                }
+            }
+            for (change in changes) {
+                if (change.time >= tokenTime) {
+                    overlap << getChangeKey(change)
+                }
+            }
+            if (overlap.size() > MAX_TOKEN_CHANGES) {
+                // Too many to carry, the rest may be returned again
+                overlap = new ArrayList(overlap).subList(0, MAX_TOKEN_CHANGES)
+            }
+            attrs.token = overlap ? tokenTime + ":" + overlap.join(",") :
+                                    String.valueOf(tokenTime)
+            attrs.complete = complete
+        }
+
+        renderXml() {
+            out << ResourceChangesResponse(attrs) {
+                if (failureXml) {
+                    out << failureXml
+                } else {
+                    out << getSuccessXML()
+                    for (change in changes) {
+                        ResourceChange(type: change.type,
+                                       time: change.time,
+                                       typeId: change.id.type,
+                                       instanceId: change.id.ID) {
+                            if (change.resource) {
+                                out << getResourceXML(user, change.resource,
+                                                      verbose, false, loaded)
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the key identifying a change in a change token.
+     */
+    private String getChangeKey(change) {
+        return change.id.type + "-" + change.id.ID + "-" + change.time
+    }
+
+    def getResources(params) {
+        def getRequest = new XmlParser().parseText(getPostData())
+        boolean verbose = getRequest.'@verbose'?.toBoolean() ?: false
+        boolean children = getRequest.'@children'?.toBoolean() ?: false
+
+        def resources = []
+        def loaded
+        def failureXml
+        def ids = []
+        for (xmlResource in getRequest['Resource']) {
+            def id = xmlResource.'@id'?.toInteger()
+            if (id == null) {
+                failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                           "Resource id not given")
+                break
+            }
+            ids << id
+        }
+
+        if (!failureXml) {
+            def session = SessionManager.currentSession()
+            def unique = new ArrayList(new LinkedHashSet(ids))
+            def found = [:]
+            for (int i = 0; i < unique.size(); i += MAX_IN_CLAUSE) {
+                def batch = unique.subList(i, Math.min(i + MAX_IN_CLAUSE, unique.size()))
+                def rows = session.createQuery(
+                    "select r from Resource r where r.id in (:ids)")
+                    .setParameterList("ids", batch).list()
+                for (r in rows) {
+                    found[r.id] = r
+                }
+            }
+
+            loaded = loadResources(found.values(), children)
+            def allowed = new HashSet(filterViewable(found.values())*.id)
+            for (id in ids) {
+                def r = found[id]
+                if (!r || !loaded.appdef[id]) {
+                    failureXml = getFailureXML(ErrorCode.OBJECT_NOT_FOUND,
+                                               "Resource id=" + id +
+                                               " not found")
+                    break
+                }
+                if (!allowed.contains(id)) {
+                    failureXml = getFailureXML(ErrorCode.PERMISSION_DENIED)
+                    break
+                }
+                resources << r
+            }
+        }
+
+        renderXml() {
+            out << ResourcesResponse() {
+                if (failureXml) {
+                    out << failureXml
+                } else {
+                    out << getSuccessXML()
+                    for (resource in resources) {
+                        out << getResourceXML(user, resource, verbose, children, loaded)
+                    }
                 }
             }
         }
@@ -495,12 +1044,24 @@ class ResourceController extends ApiController {
         def children = params.getOne("children", "false").toBoolean()
         def verbose = params.getOne("verbose", "false").toBoolean()
         def ip = params.getOne("ip")
+        def match = params.getOne("match", "contains")
+        def after = params.getOne("after", "0").toInteger()
+        def limit = params.getOne("limit")?.toInteger()
+        def depth = params.getOne("depth")?.toInteger()
+        def childPrototype = params.getOne("childPrototype")
         
         def resources = []
+        def next = null
         def failureXml
         
         if (!agentId && !prototype && !description && !ip) {
             failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS)
+        } else if (limit != null && limit <= 0) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Limit must be > 0")
+        } else if (depth != null && depth <= 0) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Depth must be > 0")
         } else {
             if (agentId) {
                 def agent = getAgent(agentId, null, null)
@@ -508,26 +1069,26 @@ class ResourceController extends ApiController {
                     failureXml = getFailureXML(ErrorCode.OBJECT_NOT_FOUND,
                                                "Agent id=" + agentId +
                                                " not found")
+                } else if (limit) {
+                    def page = findPage("select p.resource from Platform p " +
+                                        "where p.agent.id = :agentId and " +
+                                        "p.resource.id > :after " +
+                                        "order by p.resource.id",
+                                        [agentId: agentId], after, limit)
+                    resources = page.resources
+                    next = page.next
                 } else {
-                    def platforms = agent.platforms
-                    for (platform in platforms) {
-                        try {
-                            resources.add(platform.checkPerms(operation: 'view', user:user))
-                        } catch (PermissionException e) {
-                            log.debug("Ignoring platform " + platform.name + " due to permissions.")
-                        }
-                    }
+                    resources = filterViewable(agent.platforms*.resource)
                 }
+            } else if (prototype && limit) {
+                def page = findPage("select r from Resource r " +
+                                    "where r.prototype.name = :prototype and " +
+                                    "r.id > :after order by r.id",
+                                    [prototype: prototype], after, limit)
+                resources = page.resources
+                next = page.next
             } else if (prototype) {
-                def matching = resourceHelper.find('byPrototype': prototype)
-
-                for (resource in matching) {
-                    try {
-                        resources.add(checkViewPermission(resource))
-                    } catch (PermissionException e) {
-                        log.debug("Ignoring resource " + resource.name + " due to permissions")
-                    }
-                }
+                resources = filterViewable(resourceHelper.find('byPrototype': prototype))
             } else if (ip) {
                 def matching = findPlatformByIpAddr(ip)
                 if (matching.isEmpty()) {
@@ -535,30 +1096,13 @@ class ResourceController extends ApiController {
                                               "Platform ip='" + ip +
                                               "' not found")
                 }
-                for (resource in matching) {
-                    try {
-                        resources.add(resource.checkPerms(operation: 'view', user:user))
-                    } catch (PermissionException e) {
-                        log.debug("Ignoring resource " + resource.name + " due to permissions")
-                    }
-                } 
+                resources = filterViewable(matching)
             } else if (description) {
-                // TODO: Move into HQ.
-                def matching = []
-                def session =  org.hyperic.hq.hibernate.SessionManager.currentSession()
-                matching.addAll(session.createQuery(
-                    "select p.resource from Platform p where p.description like '%${description}%'").list())
-                matching.addAll(session.createQuery(
-                    "select s.resource from Server s where s.description like '%${description}%'").list())
-                matching.addAll(session.createQuery(
-                    "select s.resource from Service s where s.description like '%${description}%'").list())
-
-                for (resource in matching) {
-                    try {
-                        resources.add(checkViewPermission(resource))
-                    } catch (PermissionException e) {
-                        log.debug("Ignoring resource " + resource.name + " due to permissions")
-                    }
+                if (!DESCRIPTION_MATCHES.contains(match)) {
+                    failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                               "Invalid match '" + match + "'")
+                } else {
+                    resources = findByDescription(description, match, limit)
                 }
             } else {
                 // Shouldn't happen
@@ -566,14 +1110,26 @@ class ResourceController extends ApiController {
             }
         }
 
+        // Pages are already in id order and description matches are ranked,
+        // everything else is sorted by name.
+        if (!limit && !description) {
+            resources = resources.sort {a, b -> a.name <=> b.name}
+        }
+        def attrs = [:]
+        if (next) {
+            attrs.next = next
+        }
+
         renderXml() {
-            out << ResourcesResponse() {
+            out << ResourcesResponse(attrs) {
                 if (failureXml) {
                     out << failureXml
                 } else {
                     out << getSuccessXML()
-                    for (resource in resources.sort {a, b -> a.name <=> b.name}) {
-                        out << getResourceXML(user, resource, verbose, children)
+                    def loaded = loadResources(resources, children, depth,
+                                               childPrototype)
+                    for (resource in resources) {
+                        out << getResourceXML(user, resource, verbose, children, loaded)
                     }
                 }
             }
@@ -602,8 +1158,10 @@ class ResourceController extends ApiController {
                     out << failureXml
                 } else {    			
     				out << getSuccessXML()
-    				for (platform in platforms.sort {a, b -> a.name <=> b.name}) {
-                		out << getResourceXML(user, platform.resource, Boolean.FALSE, Boolean.FALSE)
+    				def sorted = platforms.sort {a, b -> a.name <=> b.name}
+    				def loaded = loadResources(sorted*.resource, false)
+    				for (platform in sorted) {
+                		out << getResourceXML(user, platform.resource, false, false, loaded)
                 	}
                 }
     		}
@@ -631,8 +1189,10 @@ class ResourceController extends ApiController {
                     out << failureXml
                 } else {    			
     				out << getSuccessXML()
-    				for (platform in platforms.sort {a, b -> a.name <=> b.name}) {
-                		out << getResourceXML(user, platform.resource, Boolean.FALSE, Boolean.FALSE)
+    				def sorted = platforms.sort {a, b -> a.name <=> b.name}
+    				def loaded = loadResources(sorted*.resource, false)
+    				for (platform in sorted) {
+                		out << getResourceXML(user, platform.resource, false, false, loaded)
                 	}
                 }
     		}
@@ -765,7 +1325,9 @@ class ResourceController extends ApiController {
             }
         }
 
-        if (resource) {
+        if (resource && isUnchanged(resource, xmlResource)) {
+            log.debug("Skipping unchanged resource " + name)
+        } else if (resource) {
             // Add special configurations from ResourceInfo
             if (prototype.isPlatformPrototype()) {
                 def fqdn = xmlResource['ResourceInfo'].find { it.'@key' == PROP_FQDN }
@@ -1262,17 +1824,164 @@ class ResourceController extends ApiController {
     def getPlatformResources(params) {
         boolean children = params.getOne("children", "false").toBoolean()
         boolean verbose = params.getOne("verbose", "false").toBoolean()
-        def resources = resourceHelper.findAllPlatforms()
+        def after = params.getOne("after", "0").toInteger()
+        def limit = params.getOne("limit")?.toInteger()
+        def depth = params.getOne("depth")?.toInteger()
+        def childPrototype = params.getOne("childPrototype")
+
+        def resources = []
+        def attrs = [:]
+        def failureXml
+        if (depth != null && depth <= 0) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Depth must be > 0")
+        } else if (limit == null) {
+            resources = resourceHelper.findAllPlatforms().sort {a, b -> a.name <=> b.name}
+        } else if (limit <= 0) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Limit must be > 0")
+        } else {
+            def page = findPage("select p.resource from Platform p " +
+                                "where p.resource.id > :after " +
+                                "order by p.resource.id",
+                                [:], after, limit)
+            resources = page.resources
+            if (page.next) {
+                attrs.next = page.next
+            }
+        }
     
         renderXml() {
-            out << ResourcesResponse() {
-                out << getSuccessXML()
-                for (r in resources.sort {a, b -> a.name <=> b.name}) {
-                    out << getResourceXML(user, r, verbose, children)
+            out << ResourcesResponse(attrs) {
+                if (failureXml) {
+                    out << failureXml
+                } else {
+                    out << getSuccessXML()
+                    def loaded = loadResources(resources, children, depth,
+                                               childPrototype)
+                    for (r in resources) {
+                        out << getResourceXML(user, r, verbose, children, loaded)
+                    }
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Find viewable Resources by description.  Exact matches are ranked
+     * first, followed by prefix matches and then matches anywhere in the
+     * description, each ordered by name.  Only the tiers allowed by the
+     * match mode are searched, and once limit Resources have been found
+     * the remaining tiers are skipped.  Exact and prefix matches can be
+     * answered from an index on the description column.
+     */
+    private List findByDescription(String description, String match, Integer limit) {
+        def escaped = description.replace("!", "!!").replace("%", "!%")
+                                 .replace("_", "!_")
+        def tiers = [["x.description = :value", [value: description]]]
+        if (match != 'exact') {
+            tiers << ["x.description like :value escape '!' and " +
+                      "x.description <> :exact",
+                      [value: escaped + "%", exact: description]]
+        }
+        if (match == 'contains') {
+            tiers << ["x.description like :value escape '!' and " +
+                      "x.description not like :prefix escape '!'",
+                      [value: "%" + escaped + "%", prefix: escaped + "%"]]
+        }
+
+        def resources = []
+        for (tier in tiers) {
+            def wanted = limit ? limit - resources.size() : null
+            def matching = []
+            for (entity in ['Platform', 'Server', 'Service']) {
+                matching.addAll(findViewable("select x.resource from " + entity +
+                                             " x where " + tier[0] +
+                                             " order by x.resource.name",
+                                             tier[1], wanted))
+            }
+            matching = matching.sort {a, b -> a.name <=> b.name}
+            if (wanted && matching.size() > wanted) {
+                matching = matching[0..<wanted]
+            }
+            resources.addAll(matching)
+            if (limit && resources.size() >= limit) {
+                break
+            }
+        }
+        return resources
+    }
+
+    /**
+     * Run the given Resource query, returning up to limit viewable
+     * Resources or all of them if limit is null.  Rows are fetched in
+     * chunks so Resources the user cannot view do not shorten the result.
+     */
+    private List findViewable(String hql, Map args, Integer limit) {
+        def session = SessionManager.currentSession()
+        def resources = []
+        int first = 0
+        int chunk = limit ?: 0
+        while (true) {
+            def query = session.createQuery(hql)
+            args.each { k, v -> query.setParameter(k, v) }
+            if (chunk) {
+                query.setFirstResult(first).setMaxResults(chunk)
+            }
+            def rows = query.list()
+            for (r in filterViewable(rows)) {
+                resources << r
+                if (limit && resources.size() >= limit) {
+                    return resources
                 }
             }
+            if (!chunk || rows.size() < chunk) {
+                return resources
+            }
+            first += chunk
         }
+    }
 
+    /**
+     * Load a page of viewable Resources ordered by id.  The query must
+     * select Resources with an id greater than :after, ordered by id.
+     * Resources the user cannot view are skipped, so the query is repeated
+     * until the page is full or no Resources remain.
+     *
+     * @return Map with the List of 'resources' and 'next', the id to pass as
+     * after to fetch the following page, or null if this is the last page.
+     */
+    private Map findPage(String hql, Map args, int after, int limit) {
+        def session = org.hyperic.hq.hibernate.SessionManager.currentSession()
+        def resources = []
+        def cursor = after
+        boolean exhausted = false
+
+        // Fetch one more than the limit to know whether another page exists
+        while (resources.size() <= limit && !exhausted) {
+            def query = session.createQuery(hql)
+            args.each { k, v -> query.setParameter(k, v) }
+            def batch = query.setInteger("after", cursor)
+                             .setMaxResults(limit + 1).list()
+            exhausted = batch.size() <= limit
+            if (batch) {
+                cursor = batch[-1].id
+            }
+            for (r in filterViewable(batch)) {
+                resources << r
+                if (resources.size() > limit) {
+                    break
+                }
+            }
+        }
+
+        def next = null
+        if (resources.size() > limit) {
+            resources = resources[0..<limit]
+            next = resources[-1].id
+        }
+        return [resources: resources, next: next]
     }
     
     private Collection<Resource> findPlatformByIpAddr(ip) {
@@ -760,12 +760,17 @@ public class AlertDefinitionCommand extends AbstractCommand {
             GroupResponse groupResponse = groupApi.getGroup(name);
             checkSuccess(groupResponse);
             Group group = groupResponse.getGroup();
-            for (Iterator<Resource> i = group.getResource().iterator(); i.hasNext();) {
-                Resource r = i.next();
-                // The Resource object retrieved from above doesn't include the
-                // ResourcePrototype so here we're getting the full resource
-                // so we can compare the Prototype.
-                Resource resource = resourceApi.getResource(r.getId(), true, false).getResource();
+
+            // The Resource objects retrieved from above don't include the
+            // ResourcePrototype so here we're getting the full resources
+            // so we can compare the Prototype.
+            int[] ids = new int[group.getResource().size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = group.getResource().get(i).getId();
+            }
+            ResourcesResponse members = resourceApi.getResources(ids, false, false);
+            checkSuccess(members);
+            for (Resource resource : members.getResource()) {
                 if (resource.getResourcePrototype().getName().equals(protoResponse.getResourcePrototype().getName())) {
                     System.out.println("Adding " + tmpl.getName() + " to " + resource.getName());
                     definitions.add(cloneAlertDefinitionForResource(tmpl, resource));
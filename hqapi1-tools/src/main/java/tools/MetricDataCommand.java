@@ -33,17 +33,25 @@ import org.hyperic.hq.hqapi1.GroupApi;
 import org.hyperic.hq.hqapi1.HQApi;
 import org.hyperic.hq.hqapi1.MetricApi;
 import org.hyperic.hq.hqapi1.MetricDataApi;
+import org.hyperic.hq.hqapi1.MetricDataResampler;
+import org.hyperic.hq.hqapi1.MetricDataStore;
 import org.hyperic.hq.hqapi1.ResourceApi;
 import org.hyperic.hq.hqapi1.types.GroupResponse;
+import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.MetricData;
 import org.hyperic.hq.hqapi1.types.MetricDataResponse;
 import org.hyperic.hq.hqapi1.types.DataPoint;
 import org.hyperic.hq.hqapi1.types.MetricDataSummary;
 import org.hyperic.hq.hqapi1.types.MetricsDataSummaryResponse;
 import org.hyperic.hq.hqapi1.types.MetricsResponse;
+import org.hyperic.hq.hqapi1.types.Resource;
 import org.hyperic.hq.hqapi1.types.ResourceResponse;
 import org.hyperic.hq.hqapi1.types.MetricResponse;
 import org.springframework.stereotype.Component;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -51,19 +59,36 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
 
 @Component
 public class MetricDataCommand extends AbstractCommand {
 
-    private static String CMD_LIST = "list";
+    private static String CMD_LIST  = "list";
+    private static String CMD_QUERY = "query";
 
-    private static String[] COMMANDS = { CMD_LIST };
+    private static String[] COMMANDS = { CMD_LIST, CMD_QUERY };
 
     private static final String OPT_RESOURCE_ID  = "resourceId";
     private static final String OPT_METRIC_ID    = "metricId";
     private static final String OPT_GROUP_ID     = "groupId";
+    private static final String OPT_GROUP        = "group";
     private static final String OPT_FORMAT_DATES = "formatDates";
     private static final String OPT_HOURS        = "hours";
+    private static final String OPT_STORE        = "store";
+    private static final String OPT_STREAM       = "stream";
+    private static final String OPT_OUTPUT       = "output";
+    private static final String OPT_GZIP         = "gzip";
+    private static final String OPT_COLUMNAR     = "columnar";
+    private static final String OPT_THREADS      = "threads";
+    private static final String OPT_BATCH_SIZE   = "batchSize";
+    private static final String OPT_STEP         = "step";
+    private static final String OPT_FILL         = "fill";
+    private static final String OPT_AGGREGATE    = "aggregate";
+
+    // Size of the time range fetched at once when streaming
+    private static final long STREAM_CHUNK = 6l * 60l * 60l * 1000l;
+    private static final int DEFAULT_THREADS = 4;
 
     private static final String FORMAT = "yyyy-MM-dd HH:mm:ss";
 
@@ -84,6 +109,8 @@ public class MetricDataCommand extends AbstractCommand {
 
         if (args[0].equals(CMD_LIST)) {
             list(trim(args));
+        } else if (args[0].equals(CMD_QUERY)) {
+            query(trim(args));
         } else {
             printUsage();
             return 1;
@@ -99,16 +126,69 @@ public class MetricDataCommand extends AbstractCommand {
                 .withRequiredArg().ofType(Integer.class);
         p.accepts(OPT_METRIC_ID, "The metric id to query for metric data")
                 .withRequiredArg().ofType(Integer.class);
-        p.accepts(OPT_GROUP_ID, "The group id to query for metric data")
+        p.accepts(OPT_GROUP_ID, "The group id to query for metric data summaries")
+                .withRequiredArg().ofType(Integer.class);
+        p.accepts(OPT_GROUP, "The compatible group id to query for metric data " +
+                             "for all members")
                 .withRequiredArg().ofType(Integer.class);
         p.accepts(OPT_HOURS, "The number of hours of data to query.  Defaults to 8")
                 .withRequiredArg().ofType(Integer.class);
         p.accepts(OPT_FORMAT_DATES, "When specified timestamps will be formatted " +
                                     "using the given format.  Defaults to " + FORMAT)
                 .withOptionalArg().ofType(String.class);
+        p.accepts(OPT_STORE, "If specified, metric data for the given metric " +
+                             "or resource is also appended to the local store " +
+                             "in the given directory")
+                .withRequiredArg().ofType(String.class);
+        p.accepts(OPT_STREAM, "Stream the data for the given metric or resource " +
+                              "in time chunks rather than loading the whole " +
+                              "range into memory.  Implied by --" + OPT_OUTPUT +
+                              ", --" + OPT_GZIP + " and --" + OPT_COLUMNAR);
+        p.accepts(OPT_OUTPUT, "When streaming, write to the given file rather " +
+                              "than standard out")
+                .withRequiredArg().ofType(String.class);
+        p.accepts(OPT_GZIP, "When streaming, gzip compress the output");
+        p.accepts(OPT_COLUMNAR, "When streaming, write the binary columnar " +
+                                "format rather than CSV");
+        p.accepts(OPT_THREADS, "The number of requests to run concurrently " +
+                               "when fetching multiple metrics.  Defaults to " +
+                               DEFAULT_THREADS)
+                .withRequiredArg().ofType(Integer.class);
+        p.accepts(OPT_BATCH_SIZE, "The number of metrics to fetch in a single " +
+                                  "request.  Defaults to " +
+                                  MetricDataExporter.DEFAULT_BATCH_SIZE)
+                .withRequiredArg().ofType(Integer.class);
+
+        p.accepts(OPT_STEP, "Resample the data onto a common time grid with " +
+                            "the given step in seconds")
+                .withRequiredArg().ofType(Integer.class);
+        p.accepts(OPT_FILL, "When resampling, how to fill steps without data. " +
+                            "One of " + Arrays.toString(MetricDataResampler.Fill.values()) +
+                            ".  Defaults to " + MetricDataResampler.Fill.NULL)
+                .withRequiredArg().ofType(String.class);
+        p.accepts(OPT_AGGREGATE, "When resampling, how to combine data points " +
+                                 "within a step.  One of " +
+                                 Arrays.toString(MetricDataResampler.Aggregation.values()) +
+                                 ".  Defaults to " + MetricDataResampler.Aggregation.AVG)
+                .withRequiredArg().ofType(String.class);
 
         OptionSet options = getOptions(p, args);
 
+        MetricDataStore store = null;
+        if (options.has(OPT_STORE)) {
+            store = new MetricDataStore(new File((String)options.valueOf(OPT_STORE)));
+        }
+        try {
+            list(options, store);
+        } finally {
+            if (store != null) {
+                store.close();
+            }
+        }
+    }
+
+    private void list(OptionSet options, MetricDataStore store) throws Exception {
+
         HQApi api = getApi(options);
         ResourceApi resourceApi = api.getResourceApi();
         GroupApi groupApi = api.getGroupApi();
@@ -134,15 +214,28 @@ public class MetricDataCommand extends AbstractCommand {
             }
         }
 
+        boolean stream = options.has(OPT_STREAM) || options.has(OPT_OUTPUT) ||
+                         options.has(OPT_GZIP) || options.has(OPT_COLUMNAR);
+
         if (options.has(OPT_METRIC_ID)) {
             MetricResponse metric =
                     metricApi.getMetric((Integer)getRequired(options,
                                                              OPT_METRIC_ID));
             checkSuccess(metric);
 
+            if (stream || options.has(OPT_STEP)) {
+                long chunk = stream ? STREAM_CHUNK : end - start + 1;
+                export(options, dataApi, Arrays.asList(metric.getMetric()), null,
+                       start, end, chunk, format, store);
+                return;
+            }
+
             MetricDataResponse data =
                     dataApi.getData(metric.getMetric(), start, end);
             checkSuccess(data);
+            if (store != null) {
+                store.append(data.getMetricData());
+            }
 
             CsvTable table = new CsvTable(new String[] {"Value"}, format);
             for (DataPoint dp : data.getMetricData().getDataPoint()) {
@@ -159,23 +252,36 @@ public class MetricDataCommand extends AbstractCommand {
             MetricsResponse metrics = metricApi.getMetrics(resource.getResource(), true);
             checkSuccess(metrics);
 
-            String[] metricNames = new String[metrics.getMetric().size()];
-            for (int i = 0; i < metrics.getMetric().size(); i++) {
-                metricNames[i] = metrics.getMetric().get(i).getName() + "(id=" +
-                        metrics.getMetric().get(i).getId() + ")";
-            }
+            // Without streaming the whole range is fetched as a single chunk.
+            long chunk = stream ? STREAM_CHUNK : end - start + 1;
+            export(options, dataApi, metrics.getMetric(), null, start, end,
+                   chunk, format, store);
+        } else if (options.has(OPT_GROUP)) {
+            GroupResponse group =
+                    groupApi.getGroup((Integer)options.valueOf(OPT_GROUP));
+            checkSuccess(group);
 
-            CsvTable table = new CsvTable(metricNames, format);
-            for (int i = 0; i < metrics.getMetric().size(); i++) {
-                MetricDataResponse data =
-                        dataApi.getData(metrics.getMetric().get(i), start, end);
-                checkSuccess(data);
+            if (group.getGroup().getResourcePrototype() == null) {
+                System.err.println("Group " + group.getGroup().getName() +
+                        " is not a compatible group.");
+                System.exit(-1);
+            }
 
-                for (DataPoint dp : data.getMetricData().getDataPoint()) {
-                    table.add(dp.getTimestamp(), i, dp.getValue());
+            List<Metric> metrics = new ArrayList<Metric>();
+            List<String> columns = new ArrayList<String>();
+            for (Resource r : group.getGroup().getResource()) {
+                MetricsResponse resourceMetrics = metricApi.getMetrics(r, true);
+                checkSuccess(resourceMetrics);
+                for (Metric m : resourceMetrics.getMetric()) {
+                    metrics.add(m);
+                    columns.add(r.getName() + ":" + m.getName() +
+                                "(id=" + m.getId() + ")");
                 }
             }
-            table.output();
+
+            export(options, dataApi, metrics,
+                   columns.toArray(new String[columns.size()]),
+                   start, end, STREAM_CHUNK, format, store);
         } else if (options.has(OPT_GROUP_ID)) {
             GroupResponse group =
                     groupApi.getGroup((Integer)getRequired(options,
@@ -203,6 +309,183 @@ public class MetricDataCommand extends AbstractCommand {
         }
     }
 
+    private void export(OptionSet options, MetricDataApi dataApi,
+                        List<Metric> metrics, String[] columns,
+                        long start, long end, long chunk,
+                        String format, MetricDataStore store)
+        throws Exception
+    {
+        int threads = DEFAULT_THREADS;
+        if (options.has(OPT_THREADS)) {
+            threads = (Integer)options.valueOf(OPT_THREADS);
+            if (threads < 1) {
+                System.err.println("Number of threads must be > 0");
+                System.exit(-1);
+            }
+        }
+
+        MetricDataResampler resampler = null;
+        if (options.has(OPT_STEP)) {
+            int stepSecs = (Integer)options.valueOf(OPT_STEP);
+            if (stepSecs < 1) {
+                System.err.println("Step must be > 0");
+                System.exit(-1);
+            }
+            if (options.has(OPT_COLUMNAR)) {
+                System.err.println("--" + OPT_STEP + " is not supported with --" +
+                                   OPT_COLUMNAR);
+                System.exit(-1);
+            }
+            long step = stepSecs * 1000l;
+            // Align the grid on step boundaries and make sure no step is
+            // split across chunks.
+            start = start - (start % step);
+            chunk = ((chunk + step - 1) / step) * step;
+            resampler = new MetricDataResampler(start, end, step,
+                                                getFill(options),
+                                                getAggregation(options));
+        }
+
+        MetricDataExporter exporter =
+                new MetricDataExporter(dataApi, metrics, chunk, threads);
+        exporter.setResampler(resampler);
+        exporter.setColumns(columns);
+        exporter.setStore(store);
+        if (options.has(OPT_BATCH_SIZE)) {
+            int batchSize = (Integer)options.valueOf(OPT_BATCH_SIZE);
+            if (batchSize < 1) {
+                System.err.println("Batch size must be > 0");
+                System.exit(-1);
+            }
+            exporter.setBatchSize(batchSize);
+        }
+
+        OutputStream os;
+        if (options.has(OPT_OUTPUT)) {
+            os = new FileOutputStream((String)options.valueOf(OPT_OUTPUT));
+        } else {
+            os = System.out;
+        }
+
+        try {
+            if (options.has(OPT_GZIP)) {
+                os = new GZIPOutputStream(os);
+            }
+            if (options.has(OPT_COLUMNAR)) {
+                exporter.exportColumnar(start, end, os);
+            } else {
+                exporter.exportCsv(start, end, os, format);
+            }
+            if (os instanceof GZIPOutputStream) {
+                ((GZIPOutputStream)os).finish();
+            }
+            os.flush();
+        } finally {
+            if (options.has(OPT_OUTPUT)) {
+                os.close();
+            }
+        }
+    }
+
+    private MetricDataResampler.Fill getFill(OptionSet options) {
+        if (!options.has(OPT_FILL)) {
+            return MetricDataResampler.Fill.NULL;
+        }
+        String fill = (String)options.valueOf(OPT_FILL);
+        try {
+            return MetricDataResampler.Fill.valueOf(fill.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid fill " + fill + ", must be one of " +
+                               Arrays.toString(MetricDataResampler.Fill.values()));
+            System.exit(-1);
+            return null;
+        }
+    }
+
+    private MetricDataResampler.Aggregation getAggregation(OptionSet options) {
+        if (!options.has(OPT_AGGREGATE)) {
+            return MetricDataResampler.Aggregation.AVG;
+        }
+        String aggregation = (String)options.valueOf(OPT_AGGREGATE);
+        try {
+            return MetricDataResampler.Aggregation.valueOf(aggregation.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid aggregation " + aggregation +
+                               ", must be one of " +
+                               Arrays.toString(MetricDataResampler.Aggregation.values()));
+            System.exit(-1);
+            return null;
+        }
+    }
+
+    private void query(String[] args) throws Exception {
+
+        OptionParser p = getOptionParser();
+
+        p.accepts(OPT_STORE, "The local store directory to query")
+                .withRequiredArg().ofType(String.class);
+        p.accepts(OPT_METRIC_ID, "The metric id to query for metric data.  " +
+                                 "Defaults to all metrics in the store")
+                .withRequiredArg().ofType(Integer.class);
+        p.accepts(OPT_HOURS, "The number of hours of data to query.  Defaults to 8")
+                .withRequiredArg().ofType(Integer.class);
+        p.accepts(OPT_FORMAT_DATES, "When specified timestamps will be formatted " +
+                                    "using the given format.  Defaults to " + FORMAT)
+                .withOptionalArg().ofType(String.class);
+
+        OptionSet options = getOptions(p, args);
+
+        final long MS_IN_HOUR = 60l * 60l * 1000l;
+        long end = System.currentTimeMillis();
+        long start;
+        if (options.has(OPT_HOURS)) {
+            int hours = (Integer)options.valueOf(OPT_HOURS);
+            start = end - (hours * MS_IN_HOUR);
+        } else {
+            start = end - (8 * MS_IN_HOUR);
+        }
+
+        String format = null;
+        if (options.has(OPT_FORMAT_DATES)) {
+            format = (String)options.valueOf(OPT_FORMAT_DATES);
+            if (format == null) {
+                format = FORMAT;
+            }
+        }
+
+        File dir = new File((String)getRequired(options, OPT_STORE));
+        if (!dir.isDirectory()) {
+            System.err.println("Store directory " + dir + " does not exist");
+            System.exit(-1);
+        }
+
+        MetricDataStore store = new MetricDataStore(dir);
+        try {
+            int[] metricIds;
+            if (options.has(OPT_METRIC_ID)) {
+                metricIds = new int[] { (Integer)options.valueOf(OPT_METRIC_ID) };
+            } else {
+                metricIds = store.getMetricIds();
+            }
+
+            String[] headers = new String[metricIds.length];
+            for (int i = 0; i < metricIds.length; i++) {
+                headers[i] = "id=" + metricIds[i];
+            }
+
+            CsvTable table = new CsvTable(headers, format);
+            for (int i = 0; i < metricIds.length; i++) {
+                MetricData data = store.getData(metricIds[i], start, end);
+                for (DataPoint dp : data.getDataPoint()) {
+                    table.add(dp.getTimestamp(), i, dp.getValue());
+                }
+            }
+            table.output();
+        } finally {
+            store.close();
+        }
+    }
+
     private class CsvTable {
 
         private Map<Long,Row> _rows = new TreeMap<Long,Row>();
@@ -0,0 +1,482 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1.tools;
+
+import org.hyperic.hq.hqapi1.MetricDataApi;
+import org.hyperic.hq.hqapi1.MetricDataResampler;
+import org.hyperic.hq.hqapi1.MetricDataStore;
+import org.hyperic.hq.hqapi1.types.DataPoint;
+import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.MetricData;
+import org.hyperic.hq.hqapi1.types.MetricsDataResponse;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exports raw metric data for a set of Metrics with memory use that is
+ * independent of the length of the time range.
+ * <br><br>
+ * The time range is split into fixed size chunks.  The Metrics for a chunk
+ * are fetched in batches using a single request per batch, with batches
+ * fetched concurrently while the previous chunk is written, so at most two
+ * chunks are held in memory.  Each chunk is held as sorted primitive
+ * arrays per Metric and written either as CSV, joining the series on
+ * timestamp with a k-way merge, or in a columnar binary format.
+ * <br><br>
+ * The columnar format is written with {@link DataOutputStream}: the magic
+ * number {@link #COLUMNAR_MAGIC}, the number of Metrics followed by the id
+ * and name of each, then for each chunk and Metric with data the Metric's
+ * index, the number of data points, all timestamps and then all values.
+ * The stream ends with an index of -1.
+ * <br><br>
+ * If a {@link MetricDataResampler} is set, CSV output is written on the
+ * resampler's grid instead, with one row per slot.  Each series is fed to a
+ * resampler cursor as its chunk arrives and rows are written as soon as all
+ * series have final values for them.
+ */
+class MetricDataExporter {
+
+    static final int COLUMNAR_MAGIC = 0x48514d44; // HQMD
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Number of Metrics fetched in a single request
+    static final int DEFAULT_BATCH_SIZE = 50;
+
+    private final MetricDataApi _dataApi;
+    private final List<Metric> _metrics;
+    private final long _chunkSize;
+    private final int _threads;
+    private int _batchSize = DEFAULT_BATCH_SIZE;
+    private String[] _columns;
+    private MetricDataStore _store;
+    private MetricDataResampler _resampler;
+
+    /**
+     * The data for a single Metric within a chunk.
+     */
+    private static class Series {
+        final long[] ts;
+        final double[] values;
+        final int size;
+
+        Series(long[] ts, double[] values, int size) {
+            this.ts = ts;
+            this.values = values;
+            this.size = size;
+        }
+    }
+
+    MetricDataExporter(MetricDataApi dataApi, List<Metric> metrics,
+                       long chunkSize, int threads) {
+        _dataApi = dataApi;
+        _metrics = metrics;
+        _chunkSize = chunkSize;
+        _threads = threads;
+    }
+
+    /**
+     * Set the number of Metrics fetched in a single request.
+     */
+    void setBatchSize(int batchSize) {
+        _batchSize = batchSize;
+    }
+
+    /**
+     * Set the column names written for each Metric.  Defaults to the Metric
+     * name and id.
+     */
+    void setColumns(String[] columns) {
+        _columns = columns;
+    }
+
+    private String getColumn(int i) {
+        if (_columns != null) {
+            return _columns[i];
+        }
+        Metric m = _metrics.get(i);
+        return m.getName() + "(id=" + m.getId() + ")";
+    }
+
+    /**
+     * If set, each chunk is also appended to the given store.
+     */
+    void setStore(MetricDataStore store) {
+        _store = store;
+    }
+
+    /**
+     * If set, CSV output is resampled onto the resampler's grid.  The chunk
+     * size should be a multiple of the resampler step.
+     */
+    void setResampler(MetricDataResampler resampler) {
+        _resampler = resampler;
+    }
+
+    /**
+     * Export the range as CSV, with one row per distinct timestamp and one
+     * column per Metric.
+     *
+     * @param dateFormat If not null, the SimpleDateFormat used to format
+     * timestamps.
+     */
+    void exportCsv(long start, long end, OutputStream os, String dateFormat)
+        throws IOException
+    {
+        Writer out = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"),
+                                        BUFFER_SIZE);
+        SimpleDateFormat df = (dateFormat != null) ?
+            new SimpleDateFormat(dateFormat) : null;
+
+        StringBuilder header = new StringBuilder();
+        for (int i = 0; i < _metrics.size(); i++) {
+            header.append(',').append(getColumn(i));
+        }
+        out.write(header.toString());
+        out.write('\n');
+
+        MetricDataResampler.Cursor[] cursors = null;
+        if (_resampler != null) {
+            cursors = new MetricDataResampler.Cursor[_metrics.size()];
+            for (int i = 0; i < cursors.length; i++) {
+                cursors[i] = _resampler.newCursor();
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(_threads);
+        try {
+            List<Future<Series[]>> pending = fetch(executor, start, end);
+            for (long cs = start; cs <= end; cs += _chunkSize) {
+                Series[] chunk = collect(pending);
+                pending = fetch(executor, cs + _chunkSize, end);
+                if (cursors != null) {
+                    long chunkEnd = Math.min(end, cs + _chunkSize - 1);
+                    for (int i = 0; i < chunk.length; i++) {
+                        cursors[i].add(chunk[i].ts, chunk[i].values, chunk[i].size);
+                        cursors[i].advanceTo(chunkEnd + 1);
+                    }
+                    writeResampledCsv(cursors, out, df);
+                } else {
+                    writeCsv(chunk, out, df);
+                }
+            }
+            if (cursors != null) {
+                for (MetricDataResampler.Cursor cursor : cursors) {
+                    cursor.finish();
+                }
+                writeResampledCsv(cursors, out, df);
+            }
+            out.flush();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Export the range in the columnar format described above.
+     */
+    void exportColumnar(long start, long end, OutputStream os)
+        throws IOException
+    {
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(os, BUFFER_SIZE));
+        out.writeInt(COLUMNAR_MAGIC);
+        out.writeInt(_metrics.size());
+        for (int i = 0; i < _metrics.size(); i++) {
+            out.writeInt(_metrics.get(i).getId());
+            out.writeUTF(getColumn(i));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(_threads);
+        try {
+            List<Future<Series[]>> pending = fetch(executor, start, end);
+            for (long cs = start; cs <= end; cs += _chunkSize) {
+                Series[] chunk = collect(pending);
+                pending = fetch(executor, cs + _chunkSize, end);
+                for (int i = 0; i < chunk.length; i++) {
+                    Series series = chunk[i];
+                    if (series.size == 0) {
+                        continue;
+                    }
+                    out.writeInt(i);
+                    out.writeInt(series.size);
+                    for (int j = 0; j < series.size; j++) {
+                        out.writeLong(series.ts[j]);
+                    }
+                    for (int j = 0; j < series.size; j++) {
+                        out.writeDouble(series.values[j]);
+                    }
+                }
+            }
+            out.writeInt(-1);
+            out.flush();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Submit the fetches for the chunk starting at the given time, one per
+     * batch of Metrics.  The response objects are converted to primitive
+     * arrays by the fetching thread so they can be discarded as soon as
+     * possible.
+     */
+    private List<Future<Series[]>> fetch(ExecutorService executor,
+                                         final long chunkStart, long end) {
+        List<Future<Series[]>> futures = new ArrayList<Future<Series[]>>();
+        if (chunkStart > end) {
+            return futures;
+        }
+        final long chunkEnd = Math.min(end, chunkStart + _chunkSize - 1);
+        for (int i = 0; i < _metrics.size(); i += _batchSize) {
+            final List<Metric> batch =
+                _metrics.subList(i, Math.min(_metrics.size(), i + _batchSize));
+            futures.add(executor.submit(new Callable<Series[]>() {
+                public Series[] call() throws Exception {
+                    MetricsDataResponse response =
+                        _dataApi.getData(batch, chunkStart, chunkEnd);
+                    if (response.getStatus() != ResponseStatus.SUCCESS) {
+                        throw new IOException("Error fetching metric data: " +
+                                              response.getError().getReasonText());
+                    }
+
+                    Map<Integer,Series> byId = new HashMap<Integer,Series>();
+                    for (MetricData data : response.getMetricData()) {
+                        byId.put(data.getMetricId(),
+                                 toSeries(data.getDataPoint(), chunkStart, chunkEnd));
+                    }
+                    Series[] result = new Series[batch.size()];
+                    for (int j = 0; j < result.length; j++) {
+                        result[j] = byId.get(batch.get(j).getId());
+                        if (result[j] == null) {
+                            result[j] = new Series(new long[0], new double[0], 0);
+                        }
+                    }
+                    return result;
+                }
+            }));
+        }
+        return futures;
+    }
+
+    private static Series toSeries(List<DataPoint> points, long chunkStart,
+                                   long chunkEnd) {
+        long[] ts = new long[points.size()];
+        double[] values = new double[points.size()];
+        int n = 0;
+        for (DataPoint dp : points) {
+            // Drop anything returned outside the chunk so chunk boundaries
+            // never produce duplicate rows.
+            if (dp.getTimestamp() < chunkStart || dp.getTimestamp() > chunkEnd) {
+                continue;
+            }
+            ts[n] = dp.getTimestamp();
+            values[n++] = dp.getValue();
+        }
+        return new Series(ts, values, n);
+    }
+
+    private Series[] collect(List<Future<Series[]>> futures)
+        throws IOException
+    {
+        Series[] chunk = new Series[_metrics.size()];
+        int i = 0;
+        for (Future<Series[]> future : futures) {
+            Series[] batch;
+            try {
+                batch = future.get();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while fetching metric data");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException)e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+            for (Series series : batch) {
+                if (_store != null) {
+                    _store.append(_metrics.get(i).getId(), series.ts,
+                                  series.values, series.size);
+                }
+                chunk[i++] = series;
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Join the series in the chunk on timestamp.  Each series is sorted, so
+     * a k-way merge over one cursor per series produces the rows in order
+     * without building an intermediate table.
+     */
+    private void writeCsv(Series[] chunk, Writer out, SimpleDateFormat df)
+        throws IOException
+    {
+        int k = chunk.length;
+        int[] pos = new int[k];
+        // Min-heap of series indexes keyed on the timestamp at their cursor
+        int[] heap = new int[k];
+        int size = 0;
+        for (int i = 0; i < k; i++) {
+            if (chunk[i].size > 0) {
+                heap[size] = i;
+                siftUp(heap, size++, chunk, pos);
+            }
+        }
+
+        double[] row = new double[k];
+        boolean[] present = new boolean[k];
+        StringBuilder line = new StringBuilder();
+        while (size > 0) {
+            long ts = key(heap[0], chunk, pos);
+            while (size > 0 && key(heap[0], chunk, pos) == ts) {
+                int s = heap[0];
+                row[s] = chunk[s].values[pos[s]];
+                present[s] = true;
+                if (++pos[s] >= chunk[s].size) {
+                    heap[0] = heap[--size];
+                }
+                siftDown(heap, size, chunk, pos);
+            }
+
+            line.setLength(0);
+            line.append(df != null ? df.format(new Date(ts)) : String.valueOf(ts));
+            for (int i = 0; i < k; i++) {
+                line.append(',');
+                if (present[i]) {
+                    line.append(row[i]);
+                    present[i] = false;
+                }
+            }
+            line.append('\n');
+            out.write(line.toString());
+        }
+    }
+
+    /**
+     * Write the grid rows for which every series has a final value.
+     */
+    private void writeResampledCsv(MetricDataResampler.Cursor[] cursors,
+                                   Writer out, SimpleDateFormat df)
+        throws IOException
+    {
+        if (cursors.length == 0) {
+            return;
+        }
+        int rows = Integer.MAX_VALUE;
+        for (MetricDataResampler.Cursor cursor : cursors) {
+            rows = Math.min(rows, cursor.available());
+        }
+        if (rows == 0) {
+            return;
+        }
+
+        int first = cursors[0].getPosition();
+        double[][] columns = new double[cursors.length][rows];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i].drain(columns[i], 0, rows);
+        }
+
+        StringBuilder line = new StringBuilder();
+        for (int r = 0; r < rows; r++) {
+            long ts = _resampler.getTimestamp(first + r);
+            line.setLength(0);
+            line.append(df != null ? df.format(new Date(ts)) : String.valueOf(ts));
+            for (int i = 0; i < columns.length; i++) {
+                line.append(',');
+                if (!Double.isNaN(columns[i][r])) {
+                    line.append(columns[i][r]);
+                }
+            }
+            line.append('\n');
+            out.write(line.toString());
+        }
+    }
+
+    private static long key(int series, Series[] chunk, int[] pos) {
+        return chunk[series].ts[pos[series]];
+    }
+
+    private static void siftUp(int[] heap, int i, Series[] chunk, int[] pos) {
+        int s = heap[i];
+        long k = key(s, chunk, pos);
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (key(heap[parent], chunk, pos) <= k) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = s;
+    }
+
+    private static void siftDown(int[] heap, int size, Series[] chunk, int[] pos) {
+        if (size == 0) {
+            return;
+        }
+        int i = 0;
+        int s = heap[0];
+        long k = key(s, chunk, pos);
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size &&
+                key(heap[child + 1], chunk, pos) < key(heap[child], chunk, pos)) {
+                child++;
+            }
+            if (key(heap[child], chunk, pos) >= k) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = s;
+    }
+}
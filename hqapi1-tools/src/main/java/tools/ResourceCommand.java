@@ -32,6 +32,8 @@ import joptsimple.OptionSet;
 import org.hyperic.hq.hqapi1.AgentApi;
 import org.hyperic.hq.hqapi1.HQApi;
 import org.hyperic.hq.hqapi1.ResourceApi;
+import org.hyperic.hq.hqapi1.ResourceFingerprint;
+import org.hyperic.hq.hqapi1.ResourceSyncResult;
 import org.hyperic.hq.hqapi1.XmlUtil;
 import org.hyperic.hq.hqapi1.types.AgentResponse;
 import org.hyperic.hq.hqapi1.types.Ip;
@@ -87,6 +89,9 @@ public class ResourceCommand extends AbstractCommand {
     private static String OPT_SETNAME     = "setName";
     private static String OPT_SETCONFIG   = "setConfig";
     private static String OPT_ALLPLATFORMS= "allPlatforms";
+    private static String OPT_INCREMENTAL = "incremental";
+    private static String OPT_PARALLEL    = "parallel";
+    private static String OPT_RETRIES     = "retries";
 
     private void printUsage() {
         System.err.println("One of " + Arrays.toString(COMMANDS) + " required");
@@ -259,6 +264,12 @@ public class ResourceCommand extends AbstractCommand {
                 withRequiredArg().ofType(Integer.class);
         p.accepts(OPT_SETCONFIG, "Set/change the specified ResourceConfig" +
 	               "Use -- prior to list of key/value pairs").withRequiredArg().ofType(String.class);
+        p.accepts(OPT_INCREMENTAL, "Only sync resources that differ from " +
+                                   "the current inventory");
+        p.accepts(OPT_PARALLEL, "The number of batches to sync concurrently").
+                withRequiredArg().ofType(Integer.class);
+        p.accepts(OPT_RETRIES, "The number of times a failed batch is retried").
+                withRequiredArg().ofType(Integer.class);
         
         OptionSet options = getOptions(p, args);
 
@@ -287,23 +298,53 @@ public class ResourceCommand extends AbstractCommand {
         	}
         } 
 
+        if (options.has(OPT_INCREMENTAL)) {
+            ResourcesResponse existing =
+                    resourceApi.getPlatformResources(true, true);
+            checkSuccess(existing);
+            int numResources = resources.size();
+            resources = ResourceFingerprint.getChanged(resources,
+                                                       existing.getResource());
+            System.out.println((numResources - resources.size()) +
+                               " resources unchanged");
+        }
+
         System.out.println("Syncing " + resources.size() + " resources");
 
         int numSynced = 0;
-        if (options.has(OPT_BATCH_SIZE)) {
-            int batchSize = (Integer)options.valueOf(OPT_BATCH_SIZE);
-            int numBatches = (int)Math.ceil(resources.size()/((double)batchSize));
-
-            for (int i = 0; i < numBatches; i++) {
-                System.out.println("Syncing batch " + (i + 1) + " of " + numBatches);
-                int fromIndex = i * batchSize;
-                int toIndex = (fromIndex + batchSize) > resources.size() ?
-                              resources.size() : (fromIndex + batchSize);
-                StatusResponse syncResponse =
-                        resourceApi.syncResources(resources.subList(fromIndex,
-                                                                    toIndex));
-                checkSuccess(syncResponse);
-                numSynced += (toIndex - fromIndex);
+        if (options.has(OPT_BATCH_SIZE) || options.has(OPT_PARALLEL)) {
+            int batchSize = options.has(OPT_BATCH_SIZE) ?
+                    (Integer)options.valueOf(OPT_BATCH_SIZE) : resources.size();
+            int parallel = options.has(OPT_PARALLEL) ?
+                    (Integer)options.valueOf(OPT_PARALLEL) : 1;
+            int retries = options.has(OPT_RETRIES) ?
+                    (Integer)options.valueOf(OPT_RETRIES) : 0;
+
+            ResourceSyncResult result =
+                    resourceApi.syncResources(resources, Math.max(1, batchSize),
+                                              Math.max(1, parallel),
+                                              Math.max(0, retries));
+            int numBatches = result.getBatches().size();
+            for (ResourceSyncResult.Batch batch : result.getBatches()) {
+                String desc = "Batch " + (batch.getIndex() + 1) + " of " +
+                              numBatches + " (resources " +
+                              (batch.getFromIndex() + 1) + "-" +
+                              batch.getToIndex() + ")";
+                if (batch.isSuccess()) {
+                    System.out.println(desc + " synced");
+                } else {
+                    System.err.println(desc + " failed after " +
+                                       batch.getAttempts() + " attempts: " +
+                                       batch.getFailureMessage());
+                }
+            }
+            numSynced = result.getNumSynced();
+            if (!result.isSuccess()) {
+                System.err.println("Synced " + numSynced + " of " +
+                                   resources.size() + " resources, " +
+                                   result.getFailedBatches().size() + " of " +
+                                   numBatches + " batches failed");
+                System.exit(-1);
             }
         } else {
             StatusResponse syncResponse = resourceApi.syncResources(resources);
@@ -0,0 +1,235 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.GroupLastMetricDataResponse;
+import org.hyperic.hq.hqapi1.types.GroupLastMetricMember;
+import org.hyperic.hq.hqapi1.types.GroupLastMetricTemplate;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A members by templates matrix of last collected values for a compatible
+ * {@link org.hyperic.hq.hqapi1.types.Group}, as returned by
+ * {@link MetricDataApi#getGroupLastData(org.hyperic.hq.hqapi1.types.Group, java.util.List)}.
+ * <br><br>
+ * Values are held in flat primitive arrays in row major order so large
+ * groups do not create an object per cell.  Cells with no data have a value
+ * of {@link Double#NaN} and a timestamp of 0.  Instances are immutable.
+ */
+public class GroupMetricSnapshot {
+
+    private final int[] _resourceIds;
+    private final String[] _resourceNames;
+    private final int[] _templateIds;
+    private final String[] _templateNames;
+    private final double[] _values;
+    private final long[] _timestamps;
+
+    private final Map<Integer,Integer> _rowIndex = new HashMap<Integer,Integer>();
+    private final Map<Integer,Integer> _columnIndex = new HashMap<Integer,Integer>();
+
+    /**
+     * Build a snapshot from a successful getGroupLastData response.
+     *
+     * @param response The response to convert.
+     *
+     * @throws IllegalArgumentException If the response was not successful or
+     * a row does not have one value per template.
+     */
+    public GroupMetricSnapshot(GroupLastMetricDataResponse response) {
+        if (response.getStatus() != ResponseStatus.SUCCESS) {
+            throw new IllegalArgumentException("Response was not successful");
+        }
+
+        List<GroupLastMetricTemplate> templates = response.getGroupLastMetricTemplate();
+        List<GroupLastMetricMember> members = response.getGroupLastMetricMember();
+        int columns = templates.size();
+
+        _templateIds = new int[columns];
+        _templateNames = new String[columns];
+        for (int i = 0; i < columns; i++) {
+            GroupLastMetricTemplate t = templates.get(i);
+            _templateIds[i] = t.getId();
+            _templateNames[i] = t.getName();
+            _columnIndex.put(t.getId(), i);
+        }
+
+        _resourceIds = new int[members.size()];
+        _resourceNames = new String[members.size()];
+        _values = new double[members.size() * columns];
+        _timestamps = new long[members.size() * columns];
+        for (int row = 0; row < members.size(); row++) {
+            GroupLastMetricMember m = members.get(row);
+            List<Double> values = m.getValues();
+            List<Long> timestamps = m.getTimestamps();
+            if (values.size() != columns || timestamps.size() != columns) {
+                throw new IllegalArgumentException("Member " + m.getResourceName() +
+                                                   " has " + values.size() +
+                                                   " values, expected " + columns);
+            }
+            _resourceIds[row] = m.getResourceId();
+            _resourceNames[row] = m.getResourceName();
+            _rowIndex.put(m.getResourceId(), row);
+            int offset = row * columns;
+            for (int col = 0; col < columns; col++) {
+                _values[offset + col] = values.get(col);
+                _timestamps[offset + col] = timestamps.get(col);
+            }
+        }
+    }
+
+    /**
+     * @return The number of group members, i.e. rows.
+     */
+    public int getMemberCount() {
+        return _resourceIds.length;
+    }
+
+    /**
+     * @return The number of templates, i.e. columns.
+     */
+    public int getTemplateCount() {
+        return _templateIds.length;
+    }
+
+    public int getResourceId(int row) {
+        return _resourceIds[row];
+    }
+
+    public String getResourceName(int row) {
+        return _resourceNames[row];
+    }
+
+    public int getTemplateId(int column) {
+        return _templateIds[column];
+    }
+
+    public String getTemplateName(int column) {
+        return _templateNames[column];
+    }
+
+    /**
+     * @param resourceId The id of a group member.
+     * @return The row of the member, or -1 if it is not part of the snapshot.
+     */
+    public int getRow(int resourceId) {
+        Integer row = _rowIndex.get(resourceId);
+        return row == null ? -1 : row;
+    }
+
+    /**
+     * @param templateId The id of a MetricTemplate.
+     * @return The column of the template, or -1 if it was not queried.
+     */
+    public int getColumn(int templateId) {
+        Integer col = _columnIndex.get(templateId);
+        return col == null ? -1 : col;
+    }
+
+    /**
+     * @return The last value at the given cell, or {@link Double#NaN} if the
+     * member has no data for the template.
+     */
+    public double getValue(int row, int column) {
+        return _values[index(row, column)];
+    }
+
+    /**
+     * @return The collection time of the last value at the given cell, or 0
+     * if the member has no data for the template.
+     */
+    public long getTimestamp(int row, int column) {
+        return _timestamps[index(row, column)];
+    }
+
+    /**
+     * @return true if the member has data for the template.
+     */
+    public boolean hasValue(int row, int column) {
+        return !Double.isNaN(getValue(row, column));
+    }
+
+    /**
+     * Get the last value of a template for a group member by id.
+     *
+     * @param resourceId The id of the group member.
+     * @param templateId The id of the MetricTemplate.
+     *
+     * @return The last value, or {@link Double#NaN} if there is no data or
+     * either id is not part of the snapshot.
+     */
+    public double getValueById(int resourceId, int templateId) {
+        int row = getRow(resourceId);
+        int col = getColumn(templateId);
+        if (row < 0 || col < 0) {
+            return Double.NaN;
+        }
+        return getValue(row, col);
+    }
+
+    /**
+     * @return A copy of the values of one template across all members, in
+     * row order.
+     */
+    public double[] getColumnValues(int column) {
+        if (column < 0 || column >= _templateIds.length) {
+            throw new IndexOutOfBoundsException("Column " + column);
+        }
+        double[] result = new double[_resourceIds.length];
+        for (int row = 0; row < result.length; row++) {
+            result[row] = _values[row * _templateIds.length + column];
+        }
+        return result;
+    }
+
+    /**
+     * @return A copy of the values of one member across all templates, in
+     * column order.
+     */
+    public double[] getRowValues(int row) {
+        if (row < 0 || row >= _resourceIds.length) {
+            throw new IndexOutOfBoundsException("Row " + row);
+        }
+        double[] result = new double[_templateIds.length];
+        System.arraycopy(_values, row * result.length, result, 0, result.length);
+        return result;
+    }
+
+    private int index(int row, int column) {
+        if (row < 0 || row >= _resourceIds.length ||
+            column < 0 || column >= _templateIds.length) {
+            throw new IndexOutOfBoundsException("Cell " + row + "," + column);
+        }
+        return row * _templateIds.length + column;
+    }
+}
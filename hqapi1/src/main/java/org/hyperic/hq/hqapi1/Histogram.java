@@ -0,0 +1,137 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of values over a fixed set of buckets.
+ * <br><br>
+ * The buckets are defined by an ascending array of boundaries.  Bucket i
+ * counts values v where boundaries[i-1] <= v < boundaries[i], with bucket 0
+ * counting values below the first boundary and the last bucket counting
+ * values at or above the last boundary, so there is always one more bucket
+ * than boundaries.
+ * <br><br>
+ * Histograms with the same boundaries can be merged.  This class is not
+ * thread safe.
+ */
+public class Histogram {
+
+    private final double[] _boundaries;
+    private final long[] _counts;
+    private long _count;
+
+    /**
+     * @param boundaries The ascending bucket boundaries.
+     */
+    public Histogram(double[] boundaries) {
+        if (boundaries.length == 0) {
+            throw new IllegalArgumentException("At least one boundary is required");
+        }
+        for (int i = 1; i < boundaries.length; i++) {
+            if (!(boundaries[i] > boundaries[i - 1])) {
+                throw new IllegalArgumentException("Boundaries must be ascending");
+            }
+        }
+        _boundaries = boundaries.clone();
+        _counts = new long[boundaries.length + 1];
+    }
+
+    /**
+     * Create a histogram with equally sized buckets between min and max,
+     * plus the buckets for values below min and at or above max.
+     *
+     * @param min The lowest boundary.
+     * @param max The highest boundary.
+     * @param buckets The number of buckets between min and max.
+     */
+    public static Histogram linear(double min, double max, int buckets) {
+        if (buckets < 1 || !(max > min)) {
+            throw new IllegalArgumentException("Invalid histogram range");
+        }
+        double[] boundaries = new double[buckets + 1];
+        for (int i = 0; i <= buckets; i++) {
+            boundaries[i] = min + (max - min) * i / buckets;
+        }
+        return new Histogram(boundaries);
+    }
+
+    /**
+     * Create an empty histogram with the same boundaries as this one.
+     */
+    public Histogram copyEmpty() {
+        return new Histogram(_boundaries);
+    }
+
+    /**
+     * Add a value to the histogram.  NaN values are ignored.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        int i = Arrays.binarySearch(_boundaries, value);
+        // An exact match on a boundary counts in the bucket above it
+        int bucket = (i >= 0) ? i + 1 : -(i + 1);
+        _counts[bucket]++;
+        _count++;
+    }
+
+    /**
+     * Merge the counts of another histogram into this one.
+     *
+     * @param other A histogram with the same boundaries.
+     */
+    public void merge(Histogram other) {
+        if (!Arrays.equals(_boundaries, other._boundaries)) {
+            throw new IllegalArgumentException("Cannot merge histograms with " +
+                                               "different boundaries");
+        }
+        for (int i = 0; i < _counts.length; i++) {
+            _counts[i] += other._counts[i];
+        }
+        _count += other._count;
+    }
+
+    /** @return A copy of the bucket boundaries. */
+    public double[] getBoundaries() {
+        return _boundaries.clone();
+    }
+
+    /** @return A copy of the bucket counts, one more than the boundaries. */
+    public long[] getCounts() {
+        return _counts.clone();
+    }
+
+    /** @return The number of values added. */
+    public long getCount() {
+        return _count;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.LastMetricData;
+import org.hyperic.hq.hqapi1.types.LastMetricsDataResponse;
+import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incrementally polls the last collected values for a fixed set of
+ * {@link org.hyperic.hq.hqapi1.types.Metric}s.
+ * <br><br>
+ * The first call to {@link #poll()} returns the last value of every Metric
+ * that has data.  Subsequent calls only ask the server for Metrics collected
+ * after the previous watermark, less the configured lag, and only return
+ * values that have not been returned before.  The lag allows values that
+ * are reported late by agents to be picked up without returning duplicates.
+ * <br><br>
+ * Instances are created through
+ * {@link MetricDataApi#createPoller(java.util.List, long)} and are not
+ * thread safe.
+ */
+public class LastMetricDataPoller {
+
+    private final MetricDataApi _api;
+    private final List<Metric> _metrics;
+    private final long _lag;
+
+    private final Map<Integer,Long> _lastSeen = new HashMap<Integer,Long>();
+    private Long _watermark;
+
+    LastMetricDataPoller(MetricDataApi api, List<Metric> metrics, long lag) {
+        if (lag < 0) {
+            throw new IllegalArgumentException("Lag must be >= 0");
+        }
+        _api = api;
+        _metrics = new ArrayList<Metric>(metrics);
+        _lag = lag;
+    }
+
+    /**
+     * Poll the server for new values.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried.  Only values that are newer than
+     * those returned by previous polls are included in
+     * {@link org.hyperic.hq.hqapi1.types.LastMetricsDataResponse#getLastMetricData()}.
+     * On failure the poller state is left unchanged.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public LastMetricsDataResponse poll() throws IOException {
+        LastMetricsDataResponse response;
+        if (_watermark == null) {
+            response = _api.getData(_metrics);
+        } else {
+            response = _api.getDataSince(_metrics,
+                                         Math.max(0, _watermark - _lag));
+        }
+
+        if (response.getStatus() != ResponseStatus.SUCCESS) {
+            return response;
+        }
+
+        for (Iterator<LastMetricData> i = response.getLastMetricData().iterator();
+             i.hasNext(); ) {
+            LastMetricData data = i.next();
+            if (data.getDataPoint() == null) {
+                i.remove();
+                continue;
+            }
+            long timestamp = data.getDataPoint().getTimestamp();
+            Long seen = _lastSeen.get(data.getMetricId());
+            if (seen != null && timestamp <= seen) {
+                i.remove();
+                continue;
+            }
+            _lastSeen.put(data.getMetricId(), timestamp);
+            if (_watermark == null || timestamp > _watermark) {
+                _watermark = timestamp;
+            }
+        }
+
+        Long serverWatermark = response.getWatermark();
+        if (serverWatermark != null &&
+            (_watermark == null || serverWatermark > _watermark)) {
+            _watermark = serverWatermark;
+        }
+
+        return response;
+    }
+
+    /**
+     * @return The newest collection time seen by this poller, in
+     * epoch-millis, or null if no data has been seen yet.
+     */
+    public Long getWatermark() {
+        return _watermark;
+    }
+
+    /**
+     * Discard all state so that the next {@link #poll()} returns the last
+     * value of every Metric again.
+     */
+    public void reset() {
+        _watermark = null;
+        _lastSeen.clear();
+    }
+}
@@ -30,6 +30,8 @@ package org.hyperic.hq.hqapi1;
 import org.hyperic.hq.hqapi1.types.Metric;
 import org.hyperic.hq.hqapi1.types.MetricDataResponse;
 import org.hyperic.hq.hqapi1.types.MetricResponse;
+import org.hyperic.hq.hqapi1.types.MetricScheduleRequest;
+import org.hyperic.hq.hqapi1.types.MetricScheduleResponse;
 import org.hyperic.hq.hqapi1.types.MetricTemplate;
 import org.hyperic.hq.hqapi1.types.MetricTemplateResponse;
 import org.hyperic.hq.hqapi1.types.MetricTemplatesRequest;
@@ -174,6 +176,80 @@ public class MetricApi extends BaseApi {
                       new XmlResponseHandler<StatusResponse>(StatusResponse.class));
     }
 
+    /**
+     * Update the collection schedule of a List of {@link Metric}s in a single
+     * request.  Unlike {@link #syncMetrics(java.util.List)} the changes are
+     * applied to all Metrics at once and each affected agent is rescheduled
+     * once.
+     *
+     * @param metrics The Metrics to update.
+     * @param enabled If not null, enable or disable the Metrics.
+     * @param interval If not null, the new collection interval in
+     * milliseconds, or 0 to use each Metric's template default.  Required
+     * when enabling Metrics.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS} if the
+     * Metrics were updated successfully.  The number of Metrics changed can be
+     * retrieved via {@link MetricScheduleResponse#getUpdated()}.  Metrics of
+     * Resources the user may not modify are left unchanged and returned via
+     * {@link MetricScheduleResponse#getDeniedMetricId()}.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public MetricScheduleResponse updateSchedule(List<Metric> metrics,
+                                                 Boolean enabled, Long interval)
+        throws IOException
+    {
+        MetricScheduleRequest request = new MetricScheduleRequest();
+        for (Metric m : metrics) {
+            request.getMetricId().add(m.getId());
+        }
+        return updateSchedule(request, enabled, interval);
+    }
+
+    /**
+     * Update the collection schedule of the Metrics of a
+     * {@link MetricTemplate} for a List of {@link Resource}s in a single
+     * request.  Resources without a Metric for the template are ignored.
+     *
+     * @param template The MetricTemplate of the Metrics to update.
+     * @param resources The Resources whose Metrics are updated.
+     * @param enabled If not null, enable or disable the Metrics.
+     * @param interval If not null, the new collection interval in
+     * milliseconds, or 0 to use the template default.  Required when
+     * enabling Metrics.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS} if the
+     * Metrics were updated successfully.  The number of Metrics changed can be
+     * retrieved via {@link MetricScheduleResponse#getUpdated()}.  Metrics of
+     * Resources the user may not modify are left unchanged and returned via
+     * {@link MetricScheduleResponse#getDeniedMetricId()}.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public MetricScheduleResponse updateSchedule(MetricTemplate template,
+                                                 List<Resource> resources,
+                                                 Boolean enabled, Long interval)
+        throws IOException
+    {
+        MetricScheduleRequest request = new MetricScheduleRequest();
+        request.setTemplateId(template.getId());
+        for (Resource r : resources) {
+            request.getResourceId().add(r.getId());
+        }
+        return updateSchedule(request, enabled, interval);
+    }
+
+    private MetricScheduleResponse updateSchedule(MetricScheduleRequest request,
+                                                  Boolean enabled, Long interval)
+        throws IOException
+    {
+        request.setEnabled(enabled);
+        request.setInterval(interval);
+        return doPost("metric/updateSchedule.hqu", request,
+                      new XmlResponseHandler<MetricScheduleResponse>(MetricScheduleResponse.class));
+    }
+
     /**
      * Get a {@link org.hyperic.hq.hqapi1.types.MetricTemplate} by it's id.
      *
@@ -0,0 +1,285 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.DataPoint;
+import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.MetricData;
+import org.hyperic.hq.hqapi1.types.MetricsDataResponse;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Computes quantile sketches and, optionally, histograms of metric data as
+ * it is streamed from the server, per Metric, per Resource and across all
+ * data added.  Memory use depends on the number of Metrics and Resources,
+ * not the number of data points.
+ * <br><br>
+ * When analyzing a set of Metrics, such as those of the members of a group,
+ * the overall statistics from {@link #getTotal()} cover the whole set.
+ * <br><br>
+ * Analyzers with the same settings can be merged, which is how
+ * {@link #analyze(MetricDataApi, java.util.List, long, long, long, int)}
+ * processes time slices in parallel.  This class is not thread safe.
+ */
+public class MetricDataAnalyzer {
+
+    /**
+     * The statistics for a Metric, Resource, or all data.
+     */
+    public static class Statistics {
+        private final QuantileSketch _sketch;
+        private final Histogram _histogram;
+
+        private Statistics(double accuracy, Histogram template) {
+            _sketch = new QuantileSketch(accuracy, QuantileSketch.DEFAULT_MAX_BUCKETS);
+            _histogram = (template != null) ? template.copyEmpty() : null;
+        }
+
+        private void add(double value) {
+            _sketch.add(value);
+            if (_histogram != null) {
+                _histogram.add(value);
+            }
+        }
+
+        private void merge(Statistics other) {
+            _sketch.merge(other._sketch);
+            if (_histogram != null) {
+                _histogram.merge(other._histogram);
+            }
+        }
+
+        /** @return The quantile sketch. */
+        public QuantileSketch getSketch() {
+            return _sketch;
+        }
+
+        /** @return The histogram, or null if no histogram was configured. */
+        public Histogram getHistogram() {
+            return _histogram;
+        }
+    }
+
+    private final double _accuracy;
+    private final Histogram _template;
+
+    private final Map<Integer,Statistics> _metrics = new HashMap<Integer,Statistics>();
+    private final Map<Integer,Statistics> _resources = new HashMap<Integer,Statistics>();
+    private final Statistics _total;
+
+    /**
+     * Create an analyzer that only keeps quantile sketches.
+     */
+    public MetricDataAnalyzer() {
+        this(QuantileSketch.DEFAULT_ACCURACY, null);
+    }
+
+    /**
+     * @param accuracy The relative accuracy of the quantile sketches.
+     * @param histogram If not null, an empty histogram whose boundaries are
+     * used for the histograms kept alongside each sketch.
+     */
+    public MetricDataAnalyzer(double accuracy, Histogram histogram) {
+        _accuracy = accuracy;
+        _template = (histogram != null) ? histogram.copyEmpty() : null;
+        _total = new Statistics(accuracy, _template);
+    }
+
+    /**
+     * Add the data points of the given MetricData.
+     */
+    public void add(MetricData data) {
+        Statistics metric = get(_metrics, data.getMetricId());
+        Statistics resource = get(_resources, data.getResourceId());
+        for (DataPoint dp : data.getDataPoint()) {
+            double v = dp.getValue();
+            metric.add(v);
+            resource.add(v);
+            _total.add(v);
+        }
+    }
+
+    /**
+     * Merge the statistics of another analyzer into this one.
+     *
+     * @param other An analyzer created with the same settings.
+     */
+    public void merge(MetricDataAnalyzer other) {
+        for (Map.Entry<Integer,Statistics> e : other._metrics.entrySet()) {
+            get(_metrics, e.getKey()).merge(e.getValue());
+        }
+        for (Map.Entry<Integer,Statistics> e : other._resources.entrySet()) {
+            get(_resources, e.getKey()).merge(e.getValue());
+        }
+        _total.merge(other._total);
+    }
+
+    /**
+     * @return The statistics for the given Metric id, or null if no data has
+     * been added for it.
+     */
+    public Statistics getMetricStatistics(int metricId) {
+        return _metrics.get(metricId);
+    }
+
+    /**
+     * @return The statistics for the given Resource id, or null if no data
+     * has been added for it.
+     */
+    public Statistics getResourceStatistics(int resourceId) {
+        return _resources.get(resourceId);
+    }
+
+    /**
+     * @return The statistics across all data added.
+     */
+    public Statistics getTotal() {
+        return _total;
+    }
+
+    private Statistics get(Map<Integer,Statistics> stats, int id) {
+        Statistics s = stats.get(id);
+        if (s == null) {
+            s = new Statistics(_accuracy, _template);
+            stats.put(id, s);
+        }
+        return s;
+    }
+
+    /**
+     * Fetch and analyze the data for the given Metrics over a time range.
+     * The range is split into slices that are fetched and analyzed in
+     * parallel.  At most <code>threads</code> slices are in flight at once
+     * and each is merged as soon as it completes, so only the data for the
+     * slices in flight is held in memory.
+     *
+     * @param api The MetricDataApi used to fetch data.
+     * @param metrics The Metrics to analyze.
+     * @param start The start time, in epoch-millis.
+     * @param end The end time, in epoch-millis.
+     * @param sliceSize The length of each slice, in milliseconds.
+     * @param threads The number of slices to process concurrently.
+     *
+     * @throws IOException If a network error occurs or the server returns
+     * an error for any slice.
+     */
+    public void analyze(final MetricDataApi api, final List<Metric> metrics,
+                        long start, long end, long sliceSize, int threads)
+        throws IOException
+    {
+        if (sliceSize <= 0 || threads < 1) {
+            throw new IllegalArgumentException("Invalid slice size or threads");
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CompletionService<MetricDataAnalyzer> slices =
+                new ExecutorCompletionService<MetricDataAnalyzer>(executor);
+            long next = start;
+            int inFlight = 0;
+            while (next <= end || inFlight > 0) {
+                // Keep at most one slice per thread in flight
+                while (next <= end && inFlight < threads) {
+                    slices.submit(createSlice(api, metrics, next,
+                                              Math.min(end, next + sliceSize - 1)));
+                    inFlight++;
+                    next += sliceSize;
+                }
+
+                try {
+                    merge(slices.take().get());
+                    inFlight--;
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted while analyzing metric data");
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException)cause;
+                    }
+                    IOException ioe = new IOException(cause.toString());
+                    ioe.initCause(cause);
+                    throw ioe;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Callable<MetricDataAnalyzer> createSlice(final MetricDataApi api,
+                                                    final List<Metric> metrics,
+                                                    final long sliceStart,
+                                                    final long sliceEnd) {
+        return new Callable<MetricDataAnalyzer>() {
+            public MetricDataAnalyzer call() throws Exception {
+                MetricsDataResponse response =
+                    api.getData(metrics, sliceStart, sliceEnd);
+                if (response.getStatus() != ResponseStatus.SUCCESS) {
+                    throw new IOException("Error fetching metric data: " +
+                                          response.getError().getReasonText());
+                }
+                MetricDataAnalyzer slice =
+                    new MetricDataAnalyzer(_accuracy, _template);
+                for (MetricData data : response.getMetricData()) {
+                    slice.add(data, sliceStart, sliceEnd);
+                }
+                return slice;
+            }
+        };
+    }
+
+    /**
+     * Add the data points within [start, end] so that data points on slice
+     * boundaries are only counted once.
+     */
+    private void add(MetricData data, long start, long end) {
+        Statistics metric = get(_metrics, data.getMetricId());
+        Statistics resource = get(_resources, data.getResourceId());
+        for (DataPoint dp : data.getDataPoint()) {
+            if (dp.getTimestamp() < start || dp.getTimestamp() > end) {
+                continue;
+            }
+            double v = dp.getValue();
+            metric.add(v);
+            resource.add(v);
+            _total.add(v);
+        }
+    }
+}
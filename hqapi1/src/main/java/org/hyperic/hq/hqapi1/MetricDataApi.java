@@ -1,5 +1,6 @@
 package org.hyperic.hq.hqapi1;
 
+import org.hyperic.hq.hqapi1.types.AvailabilityDataResponse;
 import org.hyperic.hq.hqapi1.types.DataPoint;
 import org.hyperic.hq.hqapi1.types.MetricDataResponse;
 import org.hyperic.hq.hqapi1.types.DataPointsRequest;
@@ -10,7 +11,15 @@ import org.hyperic.hq.hqapi1.types.LastMetricDataResponse;
 import org.hyperic.hq.hqapi1.types.MetricsDataResponse;
 import org.hyperic.hq.hqapi1.types.MetricsDataSummaryResponse;
 import org.hyperic.hq.hqapi1.types.Group;
+import org.hyperic.hq.hqapi1.types.GroupLastMetricDataResponse;
 import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.MetricRankFunction;
+import org.hyperic.hq.hqapi1.types.MetricSubscription;
+import org.hyperic.hq.hqapi1.types.MetricSubscriptionDataResponse;
+import org.hyperic.hq.hqapi1.types.MetricSubscriptionResponse;
+import org.hyperic.hq.hqapi1.types.MetricTemplate;
+import org.hyperic.hq.hqapi1.types.RankedMetricsResponse;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
 import org.hyperic.hq.hqapi1.types.Resource;
 
 import java.io.IOException;
@@ -138,6 +147,415 @@ public class MetricDataApi extends BaseApi {
                      new XmlResponseHandler<LastMetricsDataResponse>(LastMetricsDataResponse.class));
     }
 
+    /**
+     * Get the {@link org.hyperic.hq.hqapi1.types.LastMetricData} for the
+     * given List of {@link org.hyperic.hq.hqapi1.types.Metric}s that have
+     * been collected after the given time.  Metrics that have not been
+     * collected since then are not included in the response.
+     * <br><br>
+     * The response carries a watermark, available via
+     * {@link org.hyperic.hq.hqapi1.types.LastMetricsDataResponse#getWatermark()},
+     * which is the newest collection time seen by the server and can be
+     * passed as the since argument of the next call.  See
+     * {@link LastMetricDataPoller} for a helper that tracks this state.
+     *
+     * @param metrics The List of {@link org.hyperic.hq.hqapi1.types.Metric}s to query.
+     * @param since Only return data collected after this time, in epoch-millis.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried.  The returned data can be retrieved
+     * via {@link org.hyperic.hq.hqapi1.types.LastMetricsDataResponse#getLastMetricData()}.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public LastMetricsDataResponse getDataSince(List<Metric> metrics, long since)
+        throws IOException
+    {
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        String[] ids = new String[metrics.size()];
+        for (int i = 0; i < metrics.size(); i++) {
+            ids[i] = Integer.toString(metrics.get(i).getId());
+        }
+        params.put("id", ids);
+        params.put("since", new String[] { Long.toString(since) });
+        return doGet("metricData/getMultiLast.hqu", params,
+                     new XmlResponseHandler<LastMetricsDataResponse>(LastMetricsDataResponse.class));
+    }
+
+    /**
+     * Create a {@link LastMetricDataPoller} that incrementally polls the
+     * last collected values of the given Metrics.
+     *
+     * @param metrics The List of {@link org.hyperic.hq.hqapi1.types.Metric}s to poll.
+     * @param lag The time, in milliseconds, to step back from the watermark on
+     * each poll to pick up data that is reported late by agents.
+     *
+     * @return A new poller.  No requests are made until
+     * {@link LastMetricDataPoller#poll()} is called.
+     */
+    public LastMetricDataPoller createPoller(List<Metric> metrics, long lag) {
+        return new LastMetricDataPoller(this, metrics, lag);
+    }
+
+    /**
+     * Get the last collected value of each of the given
+     * {@link org.hyperic.hq.hqapi1.types.MetricTemplate}s for every member of
+     * a compatible {@link org.hyperic.hq.hqapi1.types.Group}.  The snapshot
+     * is built on the server in a single request.  Members the user cannot
+     * view are not included.
+     *
+     * @param group The compatible Group to query.
+     * @param templates The List of MetricTemplates to query.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried.  The returned data can be wrapped
+     * in a {@link GroupMetricSnapshot} for indexed access.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public GroupLastMetricDataResponse getGroupLastData(Group group,
+                                                        List<MetricTemplate> templates)
+        throws IOException
+    {
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        params.put("groupId", new String[] { Integer.toString(group.getId()) });
+        String[] ids = new String[templates.size()];
+        for (int i = 0; i < templates.size(); i++) {
+            ids[i] = Integer.toString(templates.get(i).getId());
+        }
+        params.put("templateId", ids);
+        return doGet("metricData/getGroupLast.hqu", params,
+                     new XmlResponseHandler<GroupLastMetricDataResponse>(GroupLastMetricDataResponse.class));
+    }
+
+    /**
+     * Create a {@link MetricDataCache} that serves
+     * {@link #getData(org.hyperic.hq.hqapi1.types.Metric, long, long)}
+     * queries from memory where possible, fetching only missing time ranges.
+     *
+     * @param maxBytes The approximate memory budget for cached data, in bytes.
+     * @param refreshWindow The time, in milliseconds, before now for which
+     * data is considered incomplete and always fetched again.
+     *
+     * @return A new, empty cache.
+     */
+    public MetricDataCache createCache(long maxBytes, long refreshWindow) {
+        return new MetricDataCache(this, maxBytes, refreshWindow);
+    }
+
+    /**
+     * Subscribe to new {@link org.hyperic.hq.hqapi1.types.MetricData} for
+     * the given List of {@link org.hyperic.hq.hqapi1.types.Metric}s.  Data
+     * collected after the subscription is created is queued on the server
+     * until retrieved with {@link #poll(MetricSubscription, long)}.
+     * Subscriptions that are not polled within their ttl expire.  Each user
+     * may hold at most 10 subscriptions.
+     *
+     * @param metrics The List of {@link org.hyperic.hq.hqapi1.types.Metric}s to subscribe to.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the subscription was created.  The subscription can be retrieved via
+     * {@link org.hyperic.hq.hqapi1.types.MetricSubscriptionResponse#getMetricSubscription()}.
+     * A failure with {@link ErrorCode#OPERATION_DENIED} means the user
+     * already holds the maximum number of subscriptions.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public MetricSubscriptionResponse subscribe(List<Metric> metrics)
+        throws IOException
+    {
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        String[] ids = new String[metrics.size()];
+        for (int i = 0; i < metrics.size(); i++) {
+            ids[i] = Integer.toString(metrics.get(i).getId());
+        }
+        params.put("id", ids);
+        return doGet("metricData/subscribe.hqu", params,
+                     new XmlResponseHandler<MetricSubscriptionResponse>(MetricSubscriptionResponse.class));
+    }
+
+    /**
+     * Wait for new {@link org.hyperic.hq.hqapi1.types.MetricData} on a
+     * subscription.  The request returns as soon as data is available, or
+     * with no data once the timeout elapses.  Each user may have at most 2
+     * polls waiting at once.
+     *
+     * @param subscription The subscription to poll.
+     * @param timeout The maximum time in milliseconds the server waits for
+     * data, at most 120000.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the subscription was polled.  The returned data can be retrieved via
+     * {@link org.hyperic.hq.hqapi1.types.MetricSubscriptionDataResponse#getMetricData()}.
+     * A failure with {@link ErrorCode#OBJECT_NOT_FOUND} means the subscription
+     * has expired and must be recreated, one with
+     * {@link ErrorCode#OPERATION_DENIED} that too many polls are waiting.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public MetricSubscriptionDataResponse poll(MetricSubscription subscription,
+                                               long timeout)
+        throws IOException
+    {
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        params.put("subscriptionId", new String[] { subscription.getId() });
+        params.put("timeout", new String[] { Long.toString(timeout) });
+        return doGet("metricData/poll.hqu", params,
+                     new XmlResponseHandler<MetricSubscriptionDataResponse>(MetricSubscriptionDataResponse.class));
+    }
+
+    /**
+     * Remove a subscription.
+     *
+     * @param subscription The subscription to remove.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the subscription was removed.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public StatusResponse unsubscribe(MetricSubscription subscription)
+        throws IOException
+    {
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        params.put("subscriptionId", new String[] { subscription.getId() });
+        return doGet("metricData/unsubscribe.hqu", params,
+                     new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+    }
+
+    /**
+     * Create a {@link MetricDataSubscriber} that delivers new data for the
+     * given Metrics to a listener, recreating the subscription whenever it
+     * is lost.
+     *
+     * @param metrics The List of {@link org.hyperic.hq.hqapi1.types.Metric}s to subscribe to.
+     * @param listener The listener to notify.
+     *
+     * @return A new subscriber.  No requests are made until
+     * {@link MetricDataSubscriber#start()} is called.
+     */
+    public MetricDataSubscriber createSubscriber(List<Metric> metrics,
+                                                 MetricDataListener listener) {
+        return new MetricDataSubscriber(this, metrics, listener);
+    }
+
+    /**
+     * Get the availability of the given List of availability
+     * {@link org.hyperic.hq.hqapi1.types.Metric}s as
+     * {@link org.hyperic.hq.hqapi1.types.AvailabilityInterval}s of constant
+     * state.  Intervals are clipped to the given time range.  This is
+     * considerably more compact than
+     * {@link #getData(java.util.List, long, long)} since availability rarely
+     * changes.
+     *
+     * @param metrics The List of availability {@link org.hyperic.hq.hqapi1.types.Metric}s to query.
+     * @param start The start time to query, in epoch-millis.
+     * @param end The end time to query, in epoch-millis.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried.  The returned data can be retrieved
+     * via {@link org.hyperic.hq.hqapi1.types.AvailabilityDataResponse#getAvailabilityData()}.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public AvailabilityDataResponse getAvailability(List<Metric> metrics,
+                                                    long start, long end)
+        throws IOException
+    {
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        String[] ids = new String[metrics.size()];
+        for (int i = 0; i < metrics.size(); i++) {
+            ids[i] = Integer.toString(metrics.get(i).getId());
+        }
+        params.put("id", ids);
+        params.put("start", new String[] { Long.toString(start)});
+        params.put("end", new String[] { Long.toString(end)});
+        return doGet("metricData/getAvailability.hqu", params,
+                     new XmlResponseHandler<AvailabilityDataResponse>(AvailabilityDataResponse.class));
+    }
+
+    /**
+     * Get the Metrics of the given {@link org.hyperic.hq.hqapi1.types.MetricTemplate}
+     * with the highest values across all Resources of the template's
+     * prototype.  The ranking is computed by the server so only the
+     * returned Metrics are transferred.  Resources the user cannot view are
+     * not ranked.
+     *
+     * @param template The {@link org.hyperic.hq.hqapi1.types.MetricTemplate} to rank.
+     * @param function The value of each Metric over the time window to rank by.
+     * @param count The maximum number of Metrics to return.
+     * @param start The start time to query, in epoch-millis.
+     * @param end The end time to query, in epoch-millis.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried.  The ranked Metrics, highest first,
+     * can be retrieved via {@link org.hyperic.hq.hqapi1.types.RankedMetricsResponse#getRankedMetric()}.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public RankedMetricsResponse getTop(MetricTemplate template,
+                                        MetricRankFunction function,
+                                        int count, long start, long end)
+        throws IOException
+    {
+        return getRanked(template, null, null, function, "top", count, start, end);
+    }
+
+    /**
+     * Get the Metrics of the given {@link org.hyperic.hq.hqapi1.types.MetricTemplate}
+     * with the highest values across the members of a
+     * {@link org.hyperic.hq.hqapi1.types.Group}.
+     *
+     * @param template The {@link org.hyperic.hq.hqapi1.types.MetricTemplate} to rank.
+     * @param group The {@link org.hyperic.hq.hqapi1.types.Group} whose members are ranked.
+     * @param function The value of each Metric over the time window to rank by.
+     * @param count The maximum number of Metrics to return.
+     * @param start The start time to query, in epoch-millis.
+     * @param end The end time to query, in epoch-millis.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried.  The ranked Metrics, highest first,
+     * can be retrieved via {@link org.hyperic.hq.hqapi1.types.RankedMetricsResponse#getRankedMetric()}.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public RankedMetricsResponse getTop(MetricTemplate template, Group group,
+                                        MetricRankFunction function,
+                                        int count, long start, long end)
+        throws IOException
+    {
+        return getRanked(template, group, null, function, "top", count, start, end);
+    }
+
+    /**
+     * Get the Metrics of the given {@link org.hyperic.hq.hqapi1.types.MetricTemplate}
+     * with the highest values across the given
+     * {@link org.hyperic.hq.hqapi1.types.Resource}s.
+     *
+     * @param template The {@link org.hyperic.hq.hqapi1.types.MetricTemplate} to rank.
+     * @param resources The {@link org.hyperic.hq.hqapi1.types.Resource}s to rank.
+     * @param function The value of each Metric over the time window to rank by.
+     * @param count The maximum number of Metrics to return.
+     * @param start The start time to query, in epoch-millis.
+     * @param end The end time to query, in epoch-millis.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried.  The ranked Metrics, highest first,
+     * can be retrieved via {@link org.hyperic.hq.hqapi1.types.RankedMetricsResponse#getRankedMetric()}.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public RankedMetricsResponse getTop(MetricTemplate template,
+                                        List<Resource> resources,
+                                        MetricRankFunction function,
+                                        int count, long start, long end)
+        throws IOException
+    {
+        return getRanked(template, null, resources, function, "top", count,
+                         start, end);
+    }
+
+    /**
+     * Get the Metrics of the given {@link org.hyperic.hq.hqapi1.types.MetricTemplate}
+     * with the lowest values across all Resources of the template's prototype.
+     *
+     * @see #getTop(MetricTemplate, MetricRankFunction, int, long, long)
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried.  The ranked Metrics, lowest first,
+     * can be retrieved via {@link org.hyperic.hq.hqapi1.types.RankedMetricsResponse#getRankedMetric()}.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public RankedMetricsResponse getBottom(MetricTemplate template,
+                                           MetricRankFunction function,
+                                           int count, long start, long end)
+        throws IOException
+    {
+        return getRanked(template, null, null, function, "bottom", count,
+                         start, end);
+    }
+
+    /**
+     * Get the Metrics of the given {@link org.hyperic.hq.hqapi1.types.MetricTemplate}
+     * with the lowest values across the members of a
+     * {@link org.hyperic.hq.hqapi1.types.Group}.
+     *
+     * @see #getTop(MetricTemplate, Group, MetricRankFunction, int, long, long)
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried.  The ranked Metrics, lowest first,
+     * can be retrieved via {@link org.hyperic.hq.hqapi1.types.RankedMetricsResponse#getRankedMetric()}.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public RankedMetricsResponse getBottom(MetricTemplate template, Group group,
+                                           MetricRankFunction function,
+                                           int count, long start, long end)
+        throws IOException
+    {
+        return getRanked(template, group, null, function, "bottom", count,
+                         start, end);
+    }
+
+    /**
+     * Get the Metrics of the given {@link org.hyperic.hq.hqapi1.types.MetricTemplate}
+     * with the lowest values across the given
+     * {@link org.hyperic.hq.hqapi1.types.Resource}s.
+     *
+     * @see #getTop(MetricTemplate, List, MetricRankFunction, int, long, long)
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried.  The ranked Metrics, lowest first,
+     * can be retrieved via {@link org.hyperic.hq.hqapi1.types.RankedMetricsResponse#getRankedMetric()}.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public RankedMetricsResponse getBottom(MetricTemplate template,
+                                           List<Resource> resources,
+                                           MetricRankFunction function,
+                                           int count, long start, long end)
+        throws IOException
+    {
+        return getRanked(template, null, resources, function, "bottom", count,
+                         start, end);
+    }
+
+    private RankedMetricsResponse getRanked(MetricTemplate template, Group group,
+                                            List<Resource> resources,
+                                            MetricRankFunction function,
+                                            String order, int count,
+                                            long start, long end)
+        throws IOException
+    {
+        if (resources != null && resources.isEmpty()) {
+            // Without resource ids the server ranks the whole prototype
+            RankedMetricsResponse response = new RankedMetricsResponse();
+            response.setStatus(ResponseStatus.SUCCESS);
+            return response;
+        }
+
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        params.put("templateId", new String[] { Integer.toString(template.getId()) });
+        if (group != null) {
+            params.put("groupId", new String[] { group.getId().toString() });
+        }
+        if (resources != null) {
+            String[] ids = new String[resources.size()];
+            for (int i = 0; i < resources.size(); i++) {
+                ids[i] = resources.get(i).getId().toString();
+            }
+            params.put("resourceId", ids);
+        }
+        params.put("function", new String[] { function.value() });
+        params.put("order", new String[] { order });
+        params.put("count", new String[] { Integer.toString(count) });
+        params.put("start", new String[] { Long.toString(start)});
+        params.put("end", new String[] { Long.toString(end)});
+        return doGet("metricData/getTop.hqu", params,
+                     new XmlResponseHandler<RankedMetricsResponse>(RankedMetricsResponse.class));
+    }
+
     /**
      * Get the {@link org.hyperic.hq.hqapi1.types.MetricDataSummary} for the
      * given {@link org.hyperic.hq.hqapi1.types.Resource}.
@@ -0,0 +1,532 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.DataPoint;
+import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.MetricData;
+import org.hyperic.hq.hqapi1.types.MetricDataResponse;
+import org.hyperic.hq.hqapi1.types.MetricsDataResponse;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An opt-in, in-memory cache in front of
+ * {@link MetricDataApi#getData(org.hyperic.hq.hqapi1.types.Metric, long, long)}.
+ * <br><br>
+ * Fetched data is stored per Metric as sorted segments of primitive arrays
+ * along with the time range each segment covers.  A query only fetches the
+ * sub-ranges that are not already covered, so repeatedly querying a sliding
+ * window only transfers the new data at its leading edge.
+ * <br><br>
+ * Data newer than the refresh window is never marked as covered since agents
+ * may still report it late, and is fetched again on every query.  The
+ * refresh window should be larger than the expected reporting delay of the
+ * Metrics being queried.
+ * <br><br>
+ * Series are evicted in least recently used order once the estimated size
+ * of the cached data exceeds the memory budget.  Since the server returns
+ * rolled up data for long time ranges, the cache is intended for windows
+ * that fall within the detailed data retention period.
+ * <br><br>
+ * Instances are created through
+ * {@link MetricDataApi#createCache(long, long)} and are thread safe.  Data
+ * is fetched without holding the cache lock, so a slow request does not
+ * block lookups of other Metrics.
+ */
+public class MetricDataCache {
+
+    // Rough per-segment and per-series overhead in bytes
+    private static final long SEGMENT_OVERHEAD = 64;
+    private static final long SERIES_OVERHEAD  = 128;
+
+    private final MetricDataApi _api;
+    private final long _maxBytes;
+    private final long _refreshWindow;
+
+    private static final Comparator<DataPoint> TIMESTAMP_ORDER =
+        new Comparator<DataPoint>() {
+            public int compare(DataPoint a, DataPoint b) {
+                return a.getTimestamp() < b.getTimestamp() ? -1 :
+                       (a.getTimestamp() == b.getTimestamp() ? 0 : 1);
+            }
+        };
+
+    private final LinkedHashMap<Integer,Series> _series =
+        new LinkedHashMap<Integer,Series>(16, 0.75f, true);
+    private long _bytes;
+
+    MetricDataCache(MetricDataApi api, long maxBytes, long refreshWindow) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Memory budget must be > 0");
+        }
+        if (refreshWindow < 0) {
+            throw new IllegalArgumentException("Refresh window must be >= 0");
+        }
+        _api = api;
+        _maxBytes = maxBytes;
+        _refreshWindow = refreshWindow;
+    }
+
+    /**
+     * Get the {@link org.hyperic.hq.hqapi1.types.MetricData} for the given
+     * {@link org.hyperic.hq.hqapi1.types.Metric}, fetching only the parts of
+     * the range that are not already cached.
+     *
+     * @param metric The {@link org.hyperic.hq.hqapi1.types.Metric} to query.
+     * @param start The start time to query, in epoch-millis.
+     * @param end The end time to query, in epoch-millis.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried.  The returned data can be retrieved
+     * via {@link org.hyperic.hq.hqapi1.types.MetricDataResponse#getMetricData()}.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public MetricDataResponse getData(Metric metric, long start, long end)
+        throws IOException
+    {
+        MetricsDataResponse multi =
+            getData(Collections.singletonList(metric), start, end);
+        MetricDataResponse response = new MetricDataResponse();
+        response.setStatus(multi.getStatus());
+        response.setError(multi.getError());
+        if (multi.getStatus() == ResponseStatus.SUCCESS) {
+            response.setMetricData(multi.getMetricData().get(0));
+        }
+        return response;
+    }
+
+    /**
+     * Get the {@link org.hyperic.hq.hqapi1.types.MetricData} for the given
+     * List of {@link org.hyperic.hq.hqapi1.types.Metric}s, fetching only the
+     * parts of the range that are not already cached.  Metrics that are
+     * missing the same range are fetched together.
+     *
+     * @param metrics The List of {@link org.hyperic.hq.hqapi1.types.Metric}s to query.
+     * @param start The start time to query, in epoch-millis.
+     * @param end The end time to query, in epoch-millis.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried.  The returned data can be retrieved
+     * via {@link org.hyperic.hq.hqapi1.types.MetricsDataResponse#getMetricData()}.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public MetricsDataResponse getData(List<Metric> metrics,
+                                       long start, long end)
+        throws IOException
+    {
+        if (metrics.isEmpty() || start < 0 || end < start) {
+            // Let the server produce the appropriate error
+            return _api.getData(metrics, start, end);
+        }
+
+        // Internally ranges are half open, the API range is inclusive.
+        long to = end + 1;
+        long horizon = System.currentTimeMillis() - _refreshWindow;
+
+        // The cached data is copied and the missing ranges found under the
+        // lock, then the missing ranges are fetched without holding it so
+        // a slow request does not block other lookups.  Metrics missing the
+        // same range are fetched in one request.
+        Map<Range,List<Metric>> gaps = new LinkedHashMap<Range,List<Metric>>();
+        List<MetricData> results = new ArrayList<MetricData>();
+        Map<Integer,MetricData> byId = new HashMap<Integer,MetricData>();
+        synchronized (this) {
+            for (Metric m : metrics) {
+                MetricData data = byId.get(m.getId());
+                if (data != null) {
+                    // Listed more than once
+                    results.add(data);
+                    continue;
+                }
+                Series s = _series.get(m.getId());
+                data = new MetricData();
+                data.setMetricId(m.getId());
+                data.setMetricName(m.getName());
+                List<Range> missing;
+                if (s == null) {
+                    missing = Collections.singletonList(new Range(start, to));
+                } else {
+                    data.setResourceId(s.resourceId);
+                    data.setResourceName(s.resourceName);
+                    data.setMetricName(s.metricName);
+                    s.read(start, to, data.getDataPoint());
+                    missing = s.getGaps(start, to);
+                }
+                results.add(data);
+                byId.put(m.getId(), data);
+                for (Range r : missing) {
+                    List<Metric> l = gaps.get(r);
+                    if (l == null) {
+                        l = new ArrayList<Metric>();
+                        gaps.put(r, l);
+                    }
+                    l.add(m);
+                }
+            }
+        }
+
+        Map<Range,MetricsDataResponse> fetched =
+            new LinkedHashMap<Range,MetricsDataResponse>();
+        for (Map.Entry<Range,List<Metric>> e : gaps.entrySet()) {
+            Range r = e.getKey();
+            MetricsDataResponse response =
+                _api.getData(e.getValue(), r.from, r.to - 1);
+            if (response.getStatus() != ResponseStatus.SUCCESS) {
+                return response;
+            }
+            fetched.put(r, response);
+        }
+
+        // Merge the fetched data.  Points past the refresh horizon are
+        // returned but never cached.
+        synchronized (this) {
+            for (Map.Entry<Range,MetricsDataResponse> e : fetched.entrySet()) {
+                Range r = e.getKey();
+                long coveredTo = Math.min(r.to, Math.max(r.from, horizon));
+                for (MetricData d : e.getValue().getMetricData()) {
+                    store(getSeries(d), r.from, coveredTo, r.to,
+                          d.getDataPoint());
+                    MetricData data = byId.get(d.getMetricId());
+                    if (data == null) {
+                        continue;
+                    }
+                    data.setResourceId(d.getResourceId());
+                    data.setResourceName(d.getResourceName());
+                    data.setMetricName(d.getMetricName());
+                    for (DataPoint p : d.getDataPoint()) {
+                        if (p.getTimestamp() >= r.from && p.getTimestamp() < r.to) {
+                            data.getDataPoint().add(p);
+                        }
+                    }
+                }
+            }
+            evict();
+        }
+
+        MetricsDataResponse response = new MetricsDataResponse();
+        if (!fetched.isEmpty()) {
+            // Cached and fetched ranges do not overlap but may interleave
+            for (MetricData data : byId.values()) {
+                Collections.sort(data.getDataPoint(), TIMESTAMP_ORDER);
+            }
+        }
+        response.getMetricData().addAll(results);
+        response.setStatus(ResponseStatus.SUCCESS);
+        return response;
+    }
+
+    /**
+     * Discard all cached data for the given Metric.
+     *
+     * @param metric The Metric to discard data for.
+     */
+    public synchronized void invalidate(Metric metric) {
+        Series s = _series.remove(metric.getId());
+        if (s != null) {
+            _bytes -= s.bytes;
+        }
+    }
+
+    /**
+     * Discard all cached data.
+     */
+    public synchronized void clear() {
+        _series.clear();
+        _bytes = 0;
+    }
+
+    /**
+     * @return The estimated size of the cached data, in bytes.
+     */
+    public synchronized long getSize() {
+        return _bytes;
+    }
+
+    private Series getSeries(MetricData d) {
+        Series s = _series.get(d.getMetricId());
+        if (s == null) {
+            s = new Series();
+            s.bytes = SERIES_OVERHEAD;
+            _bytes += s.bytes;
+            _series.put(d.getMetricId(), s);
+        }
+        s.resourceId = d.getResourceId();
+        s.resourceName = d.getResourceName();
+        s.metricName = d.getMetricName();
+        return s;
+    }
+
+    /**
+     * Store the points fetched for [from, to) in the given Series.  Only
+     * [from, coveredTo) is marked as covered, points after that are not
+     * cached.
+     */
+    private void store(Series s, long from, long coveredTo, long to,
+                       List<DataPoint> points) {
+        int n = 0;
+        long[] ts = new long[points.size()];
+        double[] values = new double[points.size()];
+        long last = Long.MIN_VALUE;
+        boolean sorted = true;
+        for (DataPoint p : points) {
+            long t = p.getTimestamp();
+            if (t < from || t >= to) {
+                continue;
+            }
+            if (t >= coveredTo) {
+                continue;
+            }
+            if (t < last) {
+                sorted = false;
+            }
+            last = t;
+            ts[n] = t;
+            values[n] = p.getValue();
+            n++;
+        }
+        if (!sorted) {
+            sort(ts, values, n);
+        }
+        if (coveredTo > from) {
+            long before = s.bytes;
+            s.insert(new Segment(from, coveredTo, ts, values, n));
+            _bytes += s.bytes - before;
+        }
+    }
+
+    private void evict() {
+        for (Iterator<Series> i = _series.values().iterator();
+             i.hasNext() && _bytes > _maxBytes; ) {
+            _bytes -= i.next().bytes;
+            i.remove();
+        }
+    }
+
+    private static void sort(long[] ts, double[] values, int n) {
+        // Insertion sort, data from the server is very nearly ordered.
+        for (int i = 1; i < n; i++) {
+            long t = ts[i];
+            double v = values[i];
+            int j = i - 1;
+            while (j >= 0 && ts[j] > t) {
+                ts[j + 1] = ts[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            ts[j + 1] = t;
+            values[j + 1] = v;
+        }
+    }
+
+    /**
+     * Returns the index of the first timestamp >= t.
+     */
+    private static int lowerBound(long[] ts, int n, long t) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ts[mid] < t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static class Range {
+        final long from;
+        final long to;
+
+        Range(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Range)) {
+                return false;
+            }
+            Range r = (Range)o;
+            return from == r.from && to == r.to;
+        }
+
+        public int hashCode() {
+            return (int)(from ^ (from >>> 32)) * 31 + (int)(to ^ (to >>> 32));
+        }
+    }
+
+    /**
+     * A sorted run of data points covering the time range [from, to).
+     */
+    private static class Segment {
+        final long from;
+        final long to;
+        final long[] ts;
+        final double[] values;
+        final int size;
+
+        Segment(long from, long to, long[] ts, double[] values, int size) {
+            this.from = from;
+            this.to = to;
+            this.ts = ts;
+            this.values = values;
+            this.size = size;
+        }
+
+        long bytes() {
+            return SEGMENT_OVERHEAD + ts.length * 16L;
+        }
+    }
+
+    /**
+     * The cached data for a single Metric.  Segments never overlap and
+     * adjacent segments are merged.
+     */
+    private static class Series {
+        final TreeMap<Long,Segment> segments = new TreeMap<Long,Segment>();
+        long bytes;
+        int resourceId;
+        String resourceName;
+        String metricName;
+
+        List<Range> getGaps(long from, long to) {
+            List<Range> gaps = new ArrayList<Range>();
+            long cursor = from;
+            Long first = segments.floorKey(from);
+            for (Segment seg : segments.tailMap(first == null ? from : first).values()) {
+                if (seg.from >= to) {
+                    break;
+                }
+                if (seg.to <= cursor) {
+                    continue;
+                }
+                if (seg.from > cursor) {
+                    gaps.add(new Range(cursor, seg.from));
+                }
+                cursor = seg.to;
+            }
+            if (cursor < to) {
+                gaps.add(new Range(cursor, to));
+            }
+            return gaps;
+        }
+
+        void read(long from, long to, List<DataPoint> out) {
+            Long first = segments.floorKey(from);
+            for (Segment seg : segments.tailMap(first == null ? from : first).values()) {
+                if (seg.from >= to) {
+                    break;
+                }
+                for (int i = lowerBound(seg.ts, seg.size, from);
+                     i < seg.size && seg.ts[i] < to; i++) {
+                    DataPoint p = new DataPoint();
+                    p.setTimestamp(seg.ts[i]);
+                    p.setValue(seg.values[i]);
+                    out.add(p);
+                }
+            }
+        }
+
+        /**
+         * Insert a segment, replacing any data it overlaps and merging it
+         * with any segments it overlaps or touches.
+         */
+        void insert(Segment seg) {
+            List<Segment> merge = new ArrayList<Segment>();
+            Long first = segments.floorKey(seg.from);
+            for (Iterator<Segment> i = segments.tailMap(first == null ? seg.from : first)
+                    .values().iterator(); i.hasNext(); ) {
+                Segment s = i.next();
+                if (s.from > seg.to) {
+                    break;
+                }
+                if (s.to < seg.from) {
+                    continue;
+                }
+                merge.add(s);
+                bytes -= s.bytes();
+                i.remove();
+            }
+
+            long from = seg.from;
+            long to = seg.to;
+            int size = seg.size;
+            for (Segment s : merge) {
+                from = Math.min(from, s.from);
+                to = Math.max(to, s.to);
+                size += s.size;
+            }
+
+            Segment merged;
+            if (merge.isEmpty()) {
+                merged = seg;
+            } else {
+                long[] ts = new long[size];
+                double[] values = new double[size];
+                int n = 0;
+                // Existing points before the new segment
+                for (Segment s : merge) {
+                    for (int i = 0; i < s.size && s.ts[i] < seg.from; i++) {
+                        ts[n] = s.ts[i];
+                        values[n++] = s.values[i];
+                    }
+                }
+                System.arraycopy(seg.ts, 0, ts, n, seg.size);
+                System.arraycopy(seg.values, 0, values, n, seg.size);
+                n += seg.size;
+                // Existing points after the new segment
+                for (Segment s : merge) {
+                    for (int i = lowerBound(s.ts, s.size, seg.to); i < s.size; i++) {
+                        ts[n] = s.ts[i];
+                        values[n++] = s.values[i];
+                    }
+                }
+                merged = new Segment(from, to, ts, values, n);
+            }
+
+            segments.put(merged.from, merged);
+            bytes += merged.bytes();
+        }
+    }
+}
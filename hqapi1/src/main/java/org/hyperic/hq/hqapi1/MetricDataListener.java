@@ -0,0 +1,66 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.MetricData;
+
+import java.util.List;
+
+/**
+ * Receives data from a {@link MetricDataSubscriber}.  All methods are called
+ * from the subscriber's thread, one at a time.
+ */
+public interface MetricDataListener {
+
+    /**
+     * Called with each batch of newly collected data.
+     *
+     * @param data The new data, one entry per Metric that had data, with
+     * DataPoints in ascending timestamp order.
+     */
+    void onData(List<MetricData> data);
+
+    /**
+     * Called when data may have been missed, either because the server
+     * dropped data that was not polled quickly enough or because the
+     * subscription had to be recreated.
+     *
+     * @param dropped The number of data points dropped, or -1 if unknown.
+     */
+    void onDataLost(int dropped);
+
+    /**
+     * Called when a request fails.  The subscriber retries after a delay.
+     *
+     * @param reason A description of the failure.
+     * @param cause The exception that caused the failure, or null if the
+     * server returned a failure response.
+     */
+    void onError(String reason, Exception cause);
+}
@@ -0,0 +1,425 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.DataPoint;
+import org.hyperic.hq.hqapi1.types.MetricData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Resamples metric data series onto a common time grid so that several
+ * Metrics can be compared point for point.
+ * <br><br>
+ * The grid starts at the given start time and has one slot every step
+ * milliseconds up to the end time.  Slot i covers the half open interval
+ * [start + i * step, start + (i + 1) * step).  The data points falling in
+ * a slot are combined with the configured {@link Aggregation}, and slots
+ * without data are filled according to the {@link Fill} policy.  Missing
+ * values are represented as {@link Double#NaN}.
+ * <br><br>
+ * Each series is processed in a single pass over primitive arrays.  Data
+ * can be resampled all at once with the resample methods, or incrementally
+ * through a {@link Cursor}, which only holds the grid values that have not
+ * yet been drained.  Instances are immutable and may be shared between
+ * threads; cursors are not thread safe.
+ */
+public class MetricDataResampler {
+
+    /**
+     * How slots without data are filled.
+     */
+    public enum Fill {
+        /** Leave the slot empty */
+        NULL,
+        /** Repeat the value of the previous slot with data */
+        PREVIOUS,
+        /** Interpolate between the surrounding slots with data */
+        LINEAR
+    }
+
+    /**
+     * How the data points within a slot are combined.
+     */
+    public enum Aggregation {
+        AVG, MIN, MAX, SUM, COUNT, FIRST, LAST
+    }
+
+    private final long _start;
+    private final long _step;
+    private final int _length;
+    private final Fill _fill;
+    private final Aggregation _aggregation;
+
+    /**
+     * @param start The time of the first slot, in epoch-millis.
+     * @param end The end of the range, in epoch-millis.  The last slot is
+     * the one containing this time.
+     * @param step The width of each slot, in milliseconds.
+     * @param fill The fill policy for slots without data.
+     * @param aggregation The aggregation for slots with several data points.
+     */
+    public MetricDataResampler(long start, long end, long step, Fill fill,
+                               Aggregation aggregation) {
+        if (step <= 0) {
+            throw new IllegalArgumentException("Step must be > 0");
+        }
+        if (end < start) {
+            throw new IllegalArgumentException("End time cannot be < start time");
+        }
+        long length = (end - start) / step + 1;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many slots for step " + step);
+        }
+        _start = start;
+        _step = step;
+        _length = (int)length;
+        _fill = fill;
+        _aggregation = aggregation;
+    }
+
+    /**
+     * @return The number of slots in the grid.
+     */
+    public int getLength() {
+        return _length;
+    }
+
+    /**
+     * @return The start time of the given slot.
+     */
+    public long getTimestamp(int slot) {
+        return _start + slot * _step;
+    }
+
+    public long getStep() {
+        return _step;
+    }
+
+    public Fill getFill() {
+        return _fill;
+    }
+
+    public Aggregation getAggregation() {
+        return _aggregation;
+    }
+
+    /**
+     * @return A new cursor for incrementally resampling a single series.
+     */
+    public Cursor newCursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Resample a single series.
+     *
+     * @param ts The data point timestamps, in ascending order.
+     * @param values The data point values.
+     * @param size The number of data points to use.
+     *
+     * @return The value of each slot.
+     */
+    public double[] resample(long[] ts, double[] values, int size) {
+        Cursor cursor = new Cursor();
+        cursor.add(ts, values, size);
+        cursor.finish();
+        double[] result = new double[_length];
+        cursor.drain(result, 0, _length);
+        return result;
+    }
+
+    /**
+     * Resample the data points of a single Metric.
+     *
+     * @return The value of each slot.
+     */
+    public double[] resample(MetricData data) {
+        Cursor cursor = new Cursor();
+        for (DataPoint dp : data.getDataPoint()) {
+            cursor.add(dp.getTimestamp(), dp.getValue());
+        }
+        cursor.finish();
+        double[] result = new double[_length];
+        cursor.drain(result, 0, _length);
+        return result;
+    }
+
+    /**
+     * Resample several Metrics in parallel.
+     *
+     * @param data The Metrics to resample.
+     * @param threads The number of series to resample concurrently.
+     *
+     * @return The slot values for each Metric, in the order given.
+     */
+    public double[][] resample(List<MetricData> data, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be > 0");
+        }
+        double[][] result = new double[data.size()][];
+        if (threads == 1 || data.size() < 2) {
+            for (int i = 0; i < result.length; i++) {
+                result[i] = resample(data.get(i));
+            }
+            return result;
+        }
+
+        ExecutorService executor =
+            Executors.newFixedThreadPool(Math.min(threads, data.size()));
+        try {
+            List<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+            for (final MetricData series : data) {
+                futures.add(executor.submit(new Callable<double[]>() {
+                    public double[] call() {
+                        return resample(series);
+                    }
+                }));
+            }
+            for (int i = 0; i < result.length; i++) {
+                try {
+                    result[i] = futures.get(i).get();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException("Interrupted while resampling");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException)e.getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * Incrementally resamples a single series.  Data points are added in
+     * ascending timestamp order, and slot values become available to
+     * {@link #drain(double[], int, int)} as soon as they can no longer
+     * change.
+     */
+    public class Cursor {
+
+        // Slot currently being aggregated, or -1
+        private int _slot = -1;
+        private int _count;
+        private double _sum;
+        private double _min;
+        private double _max;
+        private double _first;
+        private double _last;
+
+        // Last slot with data and its value, used for filling
+        private int _lastSlot = -1;
+        private double _lastValue = Double.NaN;
+
+        // Number of slots whose value is final
+        private int _final = 0;
+        // Final values not yet drained, for slots [_drained, _final)
+        private double[] _buf = new double[Math.min(_length, 1024)];
+        private int _drained = 0;
+
+        private Cursor() {
+        }
+
+        /**
+         * Add a data point.  Points outside the grid are ignored.
+         *
+         * @throws IllegalArgumentException If the point belongs to a slot
+         * before one that has already been added to.
+         */
+        public void add(long ts, double value) {
+            if (ts < _start) {
+                return;
+            }
+            long s = (ts - _start) / _step;
+            if (s >= _length) {
+                return;
+            }
+            int slot = (int)s;
+            if (slot != _slot) {
+                if (slot < _slot || slot < _final) {
+                    throw new IllegalArgumentException("Data points must be " +
+                                                       "added in ascending " +
+                                                       "timestamp order");
+                }
+                close();
+                _slot = slot;
+                _count = 0;
+                _sum = 0;
+                _min = Double.POSITIVE_INFINITY;
+                _max = Double.NEGATIVE_INFINITY;
+                _first = value;
+            }
+            _count++;
+            _sum += value;
+            _min = Math.min(_min, value);
+            _max = Math.max(_max, value);
+            _last = value;
+        }
+
+        /**
+         * Add the first size data points of the given arrays.
+         */
+        public void add(long[] ts, double[] values, int size) {
+            for (int i = 0; i < size; i++) {
+                add(ts[i], values[i]);
+            }
+        }
+
+        /**
+         * Declare that no more data points before the given time will be
+         * added, making the slots that end on or before it final unless
+         * their value still depends on later data.
+         */
+        public void advanceTo(long ts) {
+            long complete = (ts - _start) / _step;
+            if (ts < _start || complete <= 0) {
+                return;
+            }
+            int slots = (int)Math.min(complete, _length);
+            if (_slot >= 0 && _slot < slots) {
+                close();
+            }
+            if (_fill != Fill.LINEAR) {
+                fillTo(slots);
+            }
+        }
+
+        /**
+         * Declare that all data points have been added, making every slot
+         * final.
+         */
+        public void finish() {
+            close();
+            fillTo(_length);
+        }
+
+        /**
+         * @return The number of final slot values that have not yet been
+         * drained.
+         */
+        public int available() {
+            return _final - _drained;
+        }
+
+        /**
+         * @return The index of the next slot returned by drain.
+         */
+        public int getPosition() {
+            return _drained;
+        }
+
+        /**
+         * Copy up to len final slot values to the given array, in slot
+         * order, releasing them from the cursor.
+         *
+         * @return The number of values copied.
+         */
+        public int drain(double[] dest, int off, int len) {
+            int n = Math.min(len, available());
+            System.arraycopy(_buf, 0, dest, off, n);
+            System.arraycopy(_buf, n, _buf, 0, available() - n);
+            _drained += n;
+            return n;
+        }
+
+        private double aggregate() {
+            switch (_aggregation) {
+                case MIN:   return _min;
+                case MAX:   return _max;
+                case SUM:   return _sum;
+                case COUNT: return _count;
+                case FIRST: return _first;
+                case LAST:  return _last;
+                default:    return _sum / _count;
+            }
+        }
+
+        /**
+         * Complete the current slot, filling any empty slots before it.
+         */
+        private void close() {
+            if (_slot < 0) {
+                return;
+            }
+            double value = aggregate();
+            if (_fill == Fill.LINEAR && _lastSlot >= 0 &&
+                _aggregation != Aggregation.COUNT) {
+                for (int i = _final; i < _slot; i++) {
+                    double f = (double)(i - _lastSlot) / (_slot - _lastSlot);
+                    put(_lastValue + f * (value - _lastValue));
+                }
+            } else {
+                fillTo(_slot);
+            }
+            put(value);
+            _lastSlot = _slot;
+            _lastValue = value;
+            _slot = -1;
+        }
+
+        /**
+         * Fill the empty slots before the given slot.  Linear fill falls
+         * back to empty slots where there is no data on one side.
+         */
+        private void fillTo(int slot) {
+            double value;
+            if (_aggregation == Aggregation.COUNT) {
+                value = 0;
+            } else if (_fill == Fill.PREVIOUS) {
+                value = _lastValue;
+            } else {
+                value = Double.NaN;
+            }
+            while (_final < slot) {
+                put(value);
+            }
+        }
+
+        private void put(double value) {
+            int n = available();
+            if (n == _buf.length) {
+                double[] buf = new double[Math.max(n * 2, 16)];
+                System.arraycopy(_buf, 0, buf, 0, n);
+                _buf = buf;
+            }
+            _buf[n] = value;
+            _final++;
+        }
+    }
+}
@@ -0,0 +1,481 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.DataPoint;
+import org.hyperic.hq.hqapi1.types.MetricData;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A local, append-only store for {@link org.hyperic.hq.hqapi1.types.MetricData}
+ * fetched through {@link MetricDataApi}.
+ * <br><br>
+ * Each Metric is stored in its own file within the store directory, named
+ * after the Metric id, as packed records of an 8 byte timestamp followed by
+ * an 8 byte value.  Records are kept in ascending timestamp order, so time
+ * range lookups are a binary search over the file.  Files are memory mapped
+ * for reads, allowing large ranges to be scanned without copying the data
+ * onto the heap.
+ * <br><br>
+ * Appends only store data points that are newer than the last data point
+ * already stored for the Metric, which makes it safe to append overlapping
+ * query results.  A single Metric is limited to 2GB of data, or roughly 134
+ * million data points.
+ * <br><br>
+ * At most a fixed number of Metric files are held open.  Once exceeded, the
+ * least recently used file is closed and reopened when next accessed, so
+ * any number of Metrics can be stored without running out of file
+ * descriptors.
+ * <br><br>
+ * Instances are thread safe, but a store directory should only be opened by
+ * one instance at a time.
+ */
+public class MetricDataStore {
+
+    private static final String SUFFIX = ".dat";
+    private static final int RECORD_SIZE = 16;
+
+    /**
+     * The default maximum number of Metric files held open.
+     */
+    public static final int DEFAULT_MAX_OPEN = 100;
+
+    private final File _dir;
+    private final int _maxOpen;
+    // Open segments in least recently used order
+    private final Map<Integer,Segment> _segments =
+        new LinkedHashMap<Integer,Segment>(16, 0.75f, true);
+
+    /**
+     * Aggregates for a range of stored data points.
+     */
+    public static class Summary {
+        private long _count;
+        private double _min = Double.NaN;
+        private double _max = Double.NaN;
+        private double _sum;
+        private double _first = Double.NaN;
+        private double _last = Double.NaN;
+
+        private void add(double v) {
+            if (_count == 0) {
+                _min = v;
+                _max = v;
+                _first = v;
+            } else {
+                if (v < _min) _min = v;
+                if (v > _max) _max = v;
+            }
+            _last = v;
+            _sum += v;
+            _count++;
+        }
+
+        /** @return The number of data points in the range. */
+        public long getCount() { return _count; }
+        /** @return The minimum value, or NaN if the range is empty. */
+        public double getMin() { return _min; }
+        /** @return The maximum value, or NaN if the range is empty. */
+        public double getMax() { return _max; }
+        /** @return The sum of all values. */
+        public double getSum() { return _sum; }
+        /** @return The average value, or NaN if the range is empty. */
+        public double getAvg() { return _count == 0 ? Double.NaN : _sum / _count; }
+        /** @return The earliest value, or NaN if the range is empty. */
+        public double getFirst() { return _first; }
+        /** @return The latest value, or NaN if the range is empty. */
+        public double getLast() { return _last; }
+    }
+
+    /**
+     * Open a store, creating the directory if it does not exist.
+     *
+     * @param dir The store directory.
+     *
+     * @throws IOException If the directory could not be created.
+     */
+    public MetricDataStore(File dir) throws IOException {
+        this(dir, DEFAULT_MAX_OPEN);
+    }
+
+    /**
+     * Open a store, creating the directory if it does not exist.
+     *
+     * @param dir The store directory.
+     * @param maxOpen The maximum number of Metric files held open at once.
+     *
+     * @throws IOException If the directory could not be created.
+     */
+    public MetricDataStore(File dir, int maxOpen) throws IOException {
+        if (maxOpen < 1) {
+            throw new IllegalArgumentException("Invalid maximum open files " +
+                                               maxOpen);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create store directory " + dir);
+        }
+        _dir = dir;
+        _maxOpen = maxOpen;
+    }
+
+    /**
+     * @return The ids of all Metrics that have data in this store, in
+     * ascending order.
+     */
+    public int[] getMetricIds() {
+        List<Integer> ids = new ArrayList<Integer>();
+        String[] names = _dir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (!name.endsWith(SUFFIX)) {
+                    continue;
+                }
+                try {
+                    ids.add(Integer.valueOf(name.substring(0, name.length() -
+                                                              SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not a segment file
+                }
+            }
+        }
+        int[] result = new int[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Append the data points in the given MetricData.  Data points at or
+     * before the last stored data point for the Metric are skipped.
+     *
+     * @param data The MetricData to append, as returned by {@link MetricDataApi}.
+     *
+     * @return The number of data points stored.
+     *
+     * @throws IOException If an error occurs writing to the store.
+     */
+    public int append(MetricData data) throws IOException {
+        List<DataPoint> points = data.getDataPoint();
+        long[] ts = new long[points.size()];
+        double[] values = new double[points.size()];
+        for (int i = 0; i < ts.length; i++) {
+            DataPoint dp = points.get(i);
+            ts[i] = dp.getTimestamp();
+            values[i] = dp.getValue();
+        }
+        return append(data.getMetricId(), ts, values, ts.length);
+    }
+
+    /**
+     * Append data points for the given Metric.  The timestamps must be in
+     * ascending order.  Data points at or before the last stored data point
+     * for the Metric are skipped.
+     *
+     * @param metricId The id of the Metric.
+     * @param ts The timestamps of the data points, in epoch-millis.
+     * @param values The values of the data points.
+     * @param n The number of data points to read from the arrays.
+     *
+     * @return The number of data points stored.
+     *
+     * @throws IOException If an error occurs writing to the store.
+     */
+    public int append(int metricId, long[] ts, double[] values, int n)
+        throws IOException
+    {
+        // Retry if the segment is closed by another thread before it is
+        // locked
+        while (true) {
+            Segment seg = getSegment(metricId, true);
+            synchronized (seg) {
+                if (!seg.closed) {
+                    return seg.append(ts, values, n);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the stored data points for a Metric within the given time range.
+     *
+     * @param metricId The id of the Metric.
+     * @param start The start time, inclusive, in epoch-millis.
+     * @param end The end time, inclusive, in epoch-millis.
+     *
+     * @return A MetricData containing the stored data points in ascending
+     * timestamp order.  Only the metric id is set on the returned MetricData.
+     *
+     * @throws IOException If an error occurs reading the store.
+     */
+    public MetricData getData(int metricId, long start, long end)
+        throws IOException
+    {
+        MetricData data = new MetricData();
+        data.setMetricId(metricId);
+        ByteBuffer buf = map(metricId);
+        if (buf == null) {
+            return data;
+        }
+
+        int count = buf.limit() / RECORD_SIZE;
+        List<DataPoint> points = data.getDataPoint();
+        for (int i = lowerBound(buf, count, start); i < count; i++) {
+            long t = buf.getLong(i * RECORD_SIZE);
+            if (t > end) {
+                break;
+            }
+            DataPoint dp = new DataPoint();
+            dp.setTimestamp(t);
+            dp.setValue(buf.getDouble(i * RECORD_SIZE + 8));
+            points.add(dp);
+        }
+        return data;
+    }
+
+    /**
+     * Compute aggregates over the stored data points for a Metric within the
+     * given time range without materializing the data points.
+     *
+     * @param metricId The id of the Metric.
+     * @param start The start time, inclusive, in epoch-millis.
+     * @param end The end time, inclusive, in epoch-millis.
+     *
+     * @return The {@link Summary} for the range.
+     *
+     * @throws IOException If an error occurs reading the store.
+     */
+    public Summary getSummary(int metricId, long start, long end)
+        throws IOException
+    {
+        Summary summary = new Summary();
+        ByteBuffer buf = map(metricId);
+        if (buf == null) {
+            return summary;
+        }
+
+        int count = buf.limit() / RECORD_SIZE;
+        for (int i = lowerBound(buf, count, start); i < count; i++) {
+            if (buf.getLong(i * RECORD_SIZE) > end) {
+                break;
+            }
+            summary.add(buf.getDouble(i * RECORD_SIZE + 8));
+        }
+        return summary;
+    }
+
+    /**
+     * @param metricId The id of the Metric.
+     *
+     * @return The timestamp of the last stored data point for the Metric,
+     * or -1 if no data is stored.  Useful to only fetch new data from HQ.
+     *
+     * @throws IOException If an error occurs reading the store.
+     */
+    public long getLastTimestamp(int metricId) throws IOException {
+        Segment seg = getSegment(metricId, false);
+        if (seg == null) {
+            return -1;
+        }
+        synchronized (seg) {
+            return seg.last;
+        }
+    }
+
+    /**
+     * Flush pending writes to disk and release all open files.
+     *
+     * @throws IOException If an error occurs closing the store files.
+     */
+    public synchronized void close() throws IOException {
+        IOException error = null;
+        for (Segment seg : _segments.values()) {
+            try {
+                synchronized (seg) {
+                    seg.close();
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        _segments.clear();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Map the current contents of a Metric's file, or return null if no data
+     * is stored for it.  The mapping stays valid after the file is closed.
+     */
+    private ByteBuffer map(int metricId) throws IOException {
+        while (true) {
+            Segment seg = getSegment(metricId, false);
+            if (seg == null) {
+                return null;
+            }
+            synchronized (seg) {
+                if (!seg.closed) {
+                    return seg.map();
+                }
+            }
+        }
+    }
+
+    private synchronized Segment getSegment(int metricId, boolean create)
+        throws IOException
+    {
+        Segment seg = _segments.get(metricId);
+        if (seg == null) {
+            File f = new File(_dir, metricId + SUFFIX);
+            if (!create && !f.exists()) {
+                return null;
+            }
+            seg = new Segment(f);
+            _segments.put(metricId, seg);
+
+            if (_segments.size() > _maxOpen) {
+                // Close the least recently used segment
+                Iterator<Segment> i = _segments.values().iterator();
+                Segment eldest = i.next();
+                i.remove();
+                synchronized (eldest) {
+                    eldest.close();
+                }
+            }
+        }
+        return seg;
+    }
+
+    /**
+     * Returns the index of the first record with a timestamp >= t.
+     */
+    private static int lowerBound(ByteBuffer buf, int count, long t) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (buf.getLong(mid * RECORD_SIZE) < t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static class Segment {
+        private final RandomAccessFile _file;
+        private final FileChannel _channel;
+        private long _size;
+        private MappedByteBuffer _mapped;
+        long last = -1;
+        boolean closed = false;
+
+        Segment(File f) throws IOException {
+            _file = new RandomAccessFile(f, "rw");
+            _channel = _file.getChannel();
+            _size = _channel.size();
+            // Drop a partially written trailing record
+            if (_size % RECORD_SIZE != 0) {
+                _size -= _size % RECORD_SIZE;
+                _channel.truncate(_size);
+            }
+            if (_size > 0) {
+                ByteBuffer buf = ByteBuffer.allocate(8);
+                _channel.read(buf, _size - RECORD_SIZE);
+                buf.flip();
+                last = buf.getLong();
+            }
+        }
+
+        int append(long[] ts, double[] values, int n) throws IOException {
+            int first = 0;
+            while (first < n && ts[first] <= last) {
+                first++;
+            }
+            if (first == n) {
+                return 0;
+            }
+            if (_size + (long)(n - first) * RECORD_SIZE > Integer.MAX_VALUE) {
+                throw new IOException("Metric data file size limit exceeded");
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate((n - first) * RECORD_SIZE);
+            int stored = 0;
+            for (int i = first; i < n; i++) {
+                if (ts[i] <= last) {
+                    continue; // Out of order or duplicate
+                }
+                buf.putLong(ts[i]);
+                buf.putDouble(values[i]);
+                last = ts[i];
+                stored++;
+            }
+            buf.flip();
+            while (buf.hasRemaining()) {
+                _size += _channel.write(buf, _size);
+            }
+            return stored;
+        }
+
+        /**
+         * Returns a read only view of the current contents of the file.
+         */
+        synchronized ByteBuffer map() throws IOException {
+            if (_mapped == null || _mapped.capacity() != _size) {
+                _mapped = _channel.map(FileChannel.MapMode.READ_ONLY, 0, _size);
+            }
+            return _mapped.duplicate();
+        }
+
+        void close() throws IOException {
+            closed = true;
+            _mapped = null;
+            try {
+                _channel.force(false);
+            } finally {
+                _file.close();
+            }
+        }
+    }
+}
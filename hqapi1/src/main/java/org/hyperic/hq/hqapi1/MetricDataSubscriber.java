@@ -0,0 +1,221 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.MetricSubscription;
+import org.hyperic.hq.hqapi1.types.MetricSubscriptionDataResponse;
+import org.hyperic.hq.hqapi1.types.MetricSubscriptionResponse;
+import org.hyperic.hq.hqapi1.types.Response;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Delivers new {@link org.hyperic.hq.hqapi1.types.MetricData} for a fixed
+ * set of Metrics to a {@link MetricDataListener} using a server side
+ * subscription and long polling.
+ * <br><br>
+ * A background thread subscribes and then repeatedly polls the subscription,
+ * so data is delivered as soon as it is written and no requests are made
+ * for Metrics that have not changed.  If the subscription expires it is
+ * recreated, and failed requests are retried with an increasing delay.
+ * <br><br>
+ * Instances are created through
+ * {@link MetricDataApi#createSubscriber(java.util.List, MetricDataListener)}.
+ */
+public class MetricDataSubscriber {
+
+    private static Log _log = LogFactory.getLog(MetricDataSubscriber.class);
+
+    /** Default time the server waits for data on each poll */
+    public static final long DEFAULT_POLL_TIMEOUT = 30000;
+
+    private static final long MIN_RETRY_DELAY = 1000;
+    private static final long MAX_RETRY_DELAY = 60000;
+
+    private final MetricDataApi _api;
+    private final List<Metric> _metrics;
+    private final MetricDataListener _listener;
+
+    private long _pollTimeout = DEFAULT_POLL_TIMEOUT;
+    private Thread _thread;
+
+    MetricDataSubscriber(MetricDataApi api, List<Metric> metrics,
+                         MetricDataListener listener) {
+        if (metrics.isEmpty()) {
+            throw new IllegalArgumentException("No metrics given");
+        }
+        _api = api;
+        _metrics = new ArrayList<Metric>(metrics);
+        _listener = listener;
+    }
+
+    /**
+     * Set the time the server waits for data on each poll.  Must be called
+     * before {@link #start()}.
+     *
+     * @param timeout The poll timeout in milliseconds.
+     */
+    public void setPollTimeout(long timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Poll timeout must be > 0");
+        }
+        _pollTimeout = timeout;
+    }
+
+    /**
+     * Start delivering data on a new daemon thread.
+     */
+    public synchronized void start() {
+        if (_thread != null) {
+            throw new IllegalStateException("Subscriber already started");
+        }
+        _thread = new Thread(new Runnable() {
+            public void run() {
+                runLoop();
+            }
+        }, "MetricDataSubscriber");
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    /**
+     * Stop delivering data.  A poll in progress completes before the
+     * subscription is removed and the thread exits.
+     */
+    public synchronized void stop() {
+        if (_thread != null) {
+            _thread.interrupt();
+            _thread = null;
+        }
+    }
+
+    /**
+     * @return true if the subscriber has been started and not stopped.
+     */
+    public synchronized boolean isRunning() {
+        return _thread != null;
+    }
+
+    /**
+     * @return true while the calling thread is the active delivery thread.
+     * A thread left over from a previous start() sees false and exits.
+     */
+    private synchronized boolean isCurrent() {
+        return _thread == Thread.currentThread();
+    }
+
+    private void runLoop() {
+        MetricSubscription subscription = null;
+        boolean subscribed = false;
+        long delay = MIN_RETRY_DELAY;
+
+        while (isCurrent()) {
+            try {
+                if (subscription == null) {
+                    MetricSubscriptionResponse response = _api.subscribe(_metrics);
+                    if (response.getStatus() != ResponseStatus.SUCCESS) {
+                        _listener.onError(getReason(response), null);
+                        delay = retry(delay);
+                        continue;
+                    }
+                    subscription = response.getMetricSubscription();
+                    if (subscribed) {
+                        // Data collected between subscriptions was missed
+                        _listener.onDataLost(-1);
+                    }
+                    subscribed = true;
+                }
+
+                MetricSubscriptionDataResponse response =
+                        _api.poll(subscription, _pollTimeout);
+                if (response.getStatus() != ResponseStatus.SUCCESS) {
+                    if (ErrorCode.OBJECT_NOT_FOUND.getErrorCode().equals(
+                            response.getError().getErrorCode())) {
+                        _log.debug("Subscription " + subscription.getId() +
+                                   " expired, resubscribing");
+                        subscription = null;
+                    } else {
+                        _listener.onError(getReason(response), null);
+                        delay = retry(delay);
+                    }
+                    continue;
+                }
+
+                delay = MIN_RETRY_DELAY;
+                Integer dropped = response.getDropped();
+                if (dropped != null && dropped > 0) {
+                    _listener.onDataLost(dropped);
+                }
+                if (!response.getMetricData().isEmpty()) {
+                    _listener.onData(response.getMetricData());
+                }
+            } catch (IOException e) {
+                _listener.onError("Error communicating with server: " +
+                                  e.getMessage(), e);
+                delay = retry(delay);
+            } catch (RuntimeException e) {
+                _listener.onError("Unexpected error: " + e.getMessage(), e);
+                delay = retry(delay);
+            }
+        }
+
+        if (subscription != null) {
+            try {
+                _api.unsubscribe(subscription);
+            } catch (IOException e) {
+                // Subscription expires on the server
+                _log.debug("Unable to unsubscribe: " + e.getMessage());
+            }
+        }
+    }
+
+    private String getReason(Response response) {
+        return response.getError() != null ?
+                response.getError().getReasonText() : "Unknown error";
+    }
+
+    /**
+     * Sleep for the given delay, returning the delay to use for the next
+     * consecutive failure.
+     */
+    private long retry(long delay) {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            // Stopped
+        }
+        return Math.min(delay * 2, MAX_RETRY_DELAY);
+    }
+}
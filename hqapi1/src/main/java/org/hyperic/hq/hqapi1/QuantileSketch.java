@@ -0,0 +1,308 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+/**
+ * A mergeable sketch that estimates quantiles of a stream of values using a
+ * fixed amount of memory.
+ * <br><br>
+ * Values are counted in logarithmically sized buckets, so any quantile is
+ * estimated within the configured relative accuracy of the true value.
+ * For example with an accuracy of 0.01 the estimated p99 of a metric is
+ * within 1% of the exact p99.  The number of buckets is bounded; if the
+ * range of values is too wide, the buckets for the smallest magnitudes are
+ * collapsed together, which only affects the accuracy of the lowest
+ * quantiles.
+ * <br><br>
+ * Sketches with the same accuracy can be merged, making it possible to
+ * compute sketches over slices of data in parallel and combine the results.
+ * This class is not thread safe.
+ */
+public class QuantileSketch {
+
+    /** The default relative accuracy of quantile estimates. */
+    public static final double DEFAULT_ACCURACY = 0.01;
+
+    /** The default maximum number of buckets for each sign. */
+    public static final int DEFAULT_MAX_BUCKETS = 2048;
+
+    // Values with a smaller magnitude are counted as zero
+    private static final double MIN_MAGNITUDE = 1e-9;
+
+    private final double _accuracy;
+    private final double _gamma;
+    private final double _logGamma;
+    private final int _maxBuckets;
+
+    private final Buckets _positive;
+    private final Buckets _negative;
+    private long _zeroCount;
+    private long _count;
+    private double _sum;
+    private double _min = Double.NaN;
+    private double _max = Double.NaN;
+
+    public QuantileSketch() {
+        this(DEFAULT_ACCURACY, DEFAULT_MAX_BUCKETS);
+    }
+
+    /**
+     * @param accuracy The relative accuracy of quantile estimates, between 0
+     * and 1 exclusive.
+     * @param maxBuckets The maximum number of buckets kept for positive and
+     * for negative values.
+     */
+    public QuantileSketch(double accuracy, int maxBuckets) {
+        if (accuracy <= 0 || accuracy >= 1) {
+            throw new IllegalArgumentException("Accuracy must be between 0 and 1");
+        }
+        if (maxBuckets < 1) {
+            throw new IllegalArgumentException("Maximum buckets must be > 0");
+        }
+        _accuracy = accuracy;
+        _gamma = (1 + accuracy) / (1 - accuracy);
+        _logGamma = Math.log(_gamma);
+        _maxBuckets = maxBuckets;
+        _positive = new Buckets(maxBuckets);
+        _negative = new Buckets(maxBuckets);
+    }
+
+    /**
+     * Add a value to the sketch.  NaN values are ignored.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (value > MIN_MAGNITUDE) {
+            _positive.add(index(value), 1);
+        } else if (value < -MIN_MAGNITUDE) {
+            _negative.add(index(-value), 1);
+        } else {
+            _zeroCount++;
+        }
+        if (_count == 0 || value < _min) {
+            _min = value;
+        }
+        if (_count == 0 || value > _max) {
+            _max = value;
+        }
+        _sum += value;
+        _count++;
+    }
+
+    /**
+     * Merge the values counted by another sketch into this one.
+     *
+     * @param other A sketch with the same accuracy and maximum buckets.
+     */
+    public void merge(QuantileSketch other) {
+        if (other._accuracy != _accuracy || other._maxBuckets != _maxBuckets) {
+            throw new IllegalArgumentException("Cannot merge sketches with " +
+                                               "different accuracy");
+        }
+        if (other._count == 0) {
+            return;
+        }
+        _positive.merge(other._positive);
+        _negative.merge(other._negative);
+        _zeroCount += other._zeroCount;
+        if (_count == 0 || other._min < _min) {
+            _min = other._min;
+        }
+        if (_count == 0 || other._max > _max) {
+            _max = other._max;
+        }
+        _sum += other._sum;
+        _count += other._count;
+    }
+
+    /**
+     * Estimate a quantile.
+     *
+     * @param q The quantile, between 0 and 1 inclusive.  For example 0.99
+     * for the 99th percentile.
+     *
+     * @return The estimated value, or NaN if no values have been added.
+     */
+    public double getQuantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1");
+        }
+        if (_count == 0) {
+            return Double.NaN;
+        }
+
+        long rank = (long)Math.floor(q * (_count - 1));
+        double value;
+        if (rank < _negative.total) {
+            // Negative buckets are ordered from the largest magnitude down
+            value = -value(_negative.indexAtRank(_negative.total - 1 - rank));
+        } else if (rank < _negative.total + _zeroCount) {
+            value = 0;
+        } else {
+            value = value(_positive.indexAtRank(rank - _negative.total - _zeroCount));
+        }
+        return Math.max(_min, Math.min(_max, value));
+    }
+
+    /** @return The relative accuracy of this sketch. */
+    public double getAccuracy() {
+        return _accuracy;
+    }
+
+    /** @return The number of values added. */
+    public long getCount() {
+        return _count;
+    }
+
+    /** @return The sum of all values added. */
+    public double getSum() {
+        return _sum;
+    }
+
+    /** @return The average of all values added, or NaN if empty. */
+    public double getAvg() {
+        return _count == 0 ? Double.NaN : _sum / _count;
+    }
+
+    /** @return The smallest value added, or NaN if empty. */
+    public double getMin() {
+        return _min;
+    }
+
+    /** @return The largest value added, or NaN if empty. */
+    public double getMax() {
+        return _max;
+    }
+
+    private int index(double magnitude) {
+        return (int)Math.ceil(Math.log(magnitude) / _logGamma);
+    }
+
+    private double value(int index) {
+        // Midpoint of the bucket (gamma^(i-1), gamma^i] in relative terms
+        return 2 * Math.pow(_gamma, index) / (_gamma + 1);
+    }
+
+    /**
+     * A contiguous range of bucket counts.  When the range would exceed the
+     * maximum size, the lowest buckets are collapsed into the lowest bucket
+     * that is kept.
+     */
+    private static class Buckets {
+        private final int _max;
+        private long[] _counts;
+        private int _offset; // Bucket index of _counts[0]
+        private int _lo;     // Lowest bucket index in use
+        private int _hi;     // Highest bucket index in use
+        long total;
+
+        Buckets(int max) {
+            _max = max;
+        }
+
+        void add(int index, long n) {
+            if (total == 0) {
+                if (_counts == null) {
+                    _counts = new long[Math.min(_max, 64)];
+                }
+                _offset = index - _counts.length / 2;
+                _lo = index;
+                _hi = index;
+            } else if (index < _lo || index > _hi) {
+                index = extend(Math.min(index, _lo), Math.max(index, _hi), index);
+            }
+            _counts[index - _offset] += n;
+            total += n;
+        }
+
+        /**
+         * Make room for the bucket range [lo, hi], returning the index the
+         * given bucket index should be counted in.
+         */
+        private int extend(int lo, int hi, int index) {
+            if (hi - lo + 1 > _max) {
+                lo = hi - _max + 1;
+            }
+            if (lo < _offset || hi >= _offset + _counts.length) {
+                int size = Math.min(_max, Math.max(hi - lo + 1, _counts.length * 2));
+                long[] counts = new long[size];
+                // Leave slack below when growing downwards and above otherwise
+                int offset = (lo < _lo) ? hi - size + 1 : lo;
+                for (int i = _lo; i <= _hi; i++) {
+                    long c = _counts[i - _offset];
+                    if (c != 0) {
+                        counts[Math.max(i, lo) - offset] += c;
+                    }
+                }
+                _counts = counts;
+                _offset = offset;
+            } else if (lo > _lo) {
+                // Collapse buckets that fall below the new low bucket
+                long collapsed = 0;
+                for (int i = _lo; i < lo; i++) {
+                    collapsed += _counts[i - _offset];
+                    _counts[i - _offset] = 0;
+                }
+                _counts[lo - _offset] += collapsed;
+            }
+            _lo = lo;
+            _hi = hi;
+            return Math.max(index, lo);
+        }
+
+        void merge(Buckets other) {
+            if (other.total == 0) {
+                return;
+            }
+            for (int i = other._lo; i <= other._hi; i++) {
+                long c = other._counts[i - other._offset];
+                if (c != 0) {
+                    add(i, c);
+                }
+            }
+        }
+
+        /**
+         * Returns the index of the bucket holding the value of the given
+         * rank, counting from the lowest bucket.
+         */
+        int indexAtRank(long rank) {
+            long seen = 0;
+            for (int i = _lo; i <= _hi; i++) {
+                seen += _counts[i - _offset];
+                if (seen > rank) {
+                    return i;
+                }
+            }
+            return _hi;
+        }
+    }
+}
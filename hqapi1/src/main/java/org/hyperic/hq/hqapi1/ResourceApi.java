@@ -32,6 +32,7 @@ import org.hyperic.hq.hqapi1.types.CreatePlatformRequest;
 import org.hyperic.hq.hqapi1.types.CreateResourceRequest;
 import org.hyperic.hq.hqapi1.types.Ip;
 import org.hyperic.hq.hqapi1.types.Resource;
+import org.hyperic.hq.hqapi1.types.ResourceChangesResponse;
 import org.hyperic.hq.hqapi1.types.ResourceConfig;
 import org.hyperic.hq.hqapi1.types.ResourcePrototype;
 import org.hyperic.hq.hqapi1.types.ResourcePrototypeResponse;
@@ -42,9 +43,17 @@ import org.hyperic.hq.hqapi1.types.ResourcesResponse;
 import org.hyperic.hq.hqapi1.types.StatusResponse;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * The Hyperic HQ Resource API.
@@ -67,11 +76,44 @@ import java.util.Map;
  * google.com port 80 check, Local Tomcat Instance   
  */
 public class ResourceApi extends BaseApi {
+
+    // Delay before the first retry of a failed sync batch, increased by
+    // the same amount for each further retry.
+    private static final long SYNC_RETRY_DELAY = 1000;
     
     ResourceApi(HQConnection conn) {
         super(conn);
     }
 
+    /**
+     * How a description is matched by
+     * {@link ResourceApi#getResources(String, DescriptionMatch, boolean, boolean, int)}.
+     */
+    public enum DescriptionMatch {
+        /**
+         * The whole description must equal the given value.
+         */
+        EXACT("exact"),
+        /**
+         * The description must start with the given value.
+         */
+        PREFIX("prefix"),
+        /**
+         * The description may contain the given value anywhere.
+         */
+        CONTAINS("contains");
+
+        private final String _match;
+
+        DescriptionMatch(String match) {
+            _match = match;
+        }
+
+        public String getMatch() {
+            return _match;
+        }
+    }
+
     /**
      * Find all {@link ResourcePrototype}s in the system.  
      *
@@ -272,6 +314,57 @@ public class ResourceApi extends BaseApi {
                      new XmlResponseHandler<ResourceResponse>(ResourceResponse.class));
     }
 
+    /**
+     * Get a {@link Resource} by id along with a limited part of the tree of
+     * child Resources below it.
+     *
+     * @param id The resource id to look up.
+     * @param verbose Flag to indicate whether {@link org.hyperic.hq.hqapi1.types.ResourceConfig}
+     * and {@link org.hyperic.hq.hqapi1.types.ResourceProperty} information will
+     * be included.
+     * @param depth The number of levels of child Resources to include, must
+     * be greater than 0.
+     * @param childPrototype If not null, only child Resources of the
+     * ResourcePrototype with this name are included, along with the child
+     * Resources that contain one within the given depth.
+     * @return On {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS},
+     * the Resource is returned via
+     * {@link org.hyperic.hq.hqapi1.types.ResourceResponse#getResource()}.
+     *
+     * @throws java.io.IOException If a network error occurs while making the request.
+     */
+    public ResourceResponse getResource(int id, boolean verbose, int depth,
+                                        String childPrototype)
+        throws IOException
+    {
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        params.put("id", new String[] { Integer.toString(id) });
+        params.put("verbose", new String[] { Boolean.toString(verbose) });
+        params.put("children", new String[] { Boolean.toString(true) });
+        params.put("depth", new String[] { Integer.toString(depth) });
+        if (childPrototype != null) {
+            params.put("childPrototype", new String[] { childPrototype });
+        }
+        return doGet("resource/get.hqu", params,
+                     new XmlResponseHandler<ResourceResponse>(ResourceResponse.class));
+    }
+
+    /**
+     * Create a {@link ResourceTree} rooted at the given Resource that loads
+     * the child Resources of each node when they are first accessed.
+     *
+     * @param root The root Resource.  Any child Resources it holds are
+     * ignored.
+     * @param verbose Flag to indicate whether {@link org.hyperic.hq.hqapi1.types.ResourceConfig}
+     * and {@link org.hyperic.hq.hqapi1.types.ResourceProperty} information will
+     * be included for the child Resources.
+     *
+     * @return The tree.  No requests are made until children are accessed.
+     */
+    public ResourceTree createTree(Resource root, boolean verbose) {
+        return new ResourceTree(this, root, verbose);
+    }
+
     /**
      * Get a {@link Resource} by aeid.
      *
@@ -406,6 +499,38 @@ public class ResourceApi extends BaseApi {
                      new XmlResponseHandler<ResourceResponse>(ResourceResponse.class));
     }
 
+    /**
+     * Get the {@link Resource}s with the given ids in a single request.
+     *
+     * @param ids The resource ids to look up.
+     * @param verbose Flag to indicate whether {@link org.hyperic.hq.hqapi1.types.ResourceConfig}
+     * and {@link org.hyperic.hq.hqapi1.types.ResourceProperty} information will
+     * be included.
+     * @param children Flag to control whether child resources of this resource
+     * will be included.
+     * @return On {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS},
+     * the Resources are returned in the order of the given ids via
+     * {@link org.hyperic.hq.hqapi1.types.ResourcesResponse#getResource()}.
+     * If any of the Resources cannot be found or viewed the request fails.
+     *
+     * @throws java.io.IOException If a network error occurs while making the request.
+     */
+    public ResourcesResponse getResources(int[] ids, boolean verbose,
+                                          boolean children)
+        throws IOException
+    {
+        ResourcesRequest request = new ResourcesRequest();
+        request.setVerbose(verbose);
+        request.setChildren(children);
+        for (int id : ids) {
+            Resource r = new Resource();
+            r.setId(id);
+            request.getResource().add(r);
+        }
+        return doPost("resource/getResources.hqu", request,
+                      new XmlResponseHandler<ResourcesResponse>(ResourcesResponse.class));
+    }
+
     /**
      * Find the platform {@link Resource}s serviced by the given
      * {@link org.hyperic.hq.hqapi1.types.Agent}.
@@ -435,6 +560,67 @@ public class ResourceApi extends BaseApi {
                      new XmlResponseHandler<ResourcesResponse>(ResourcesResponse.class));
     }
 
+    /**
+     * Find a page of the platform {@link Resource}s serviced by the given
+     * {@link org.hyperic.hq.hqapi1.types.Agent}, ordered by id.
+     *
+     * @param agent The {@link org.hyperic.hq.hqapi1.types.Agent} to query.
+     * @param verbose Flag to indicate whether {@link org.hyperic.hq.hqapi1.types.ResourceConfig}
+     * and {@link org.hyperic.hq.hqapi1.types.ResourceProperty} information will
+     * be included.
+     * @param children Flag to control whether child resources of this resource
+     * will be included.
+     * @param after Only Resources with an id greater than this are returned.
+     * Use 0 for the first page and
+     * {@link org.hyperic.hq.hqapi1.types.ResourcesResponse#getNext()} for
+     * the following pages.
+     * @param limit The maximum number of Resources to return.
+     * @return On {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS},
+     * the page of Resources is returned via
+     * {@link org.hyperic.hq.hqapi1.types.ResourcesResponse#getResource()}.
+     * {@link org.hyperic.hq.hqapi1.types.ResourcesResponse#getNext()} is null
+     * on the last page.
+     *
+     * @throws java.io.IOException If a network error occurs while making the request.
+     */
+    public ResourcesResponse getResources(Agent agent, boolean verbose,
+                                          boolean children, int after, int limit)
+        throws IOException
+    {
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        params.put("agentId", new String[] { Integer.toString(agent.getId()) });
+        params.put("verbose", new String[] { Boolean.toString(verbose) });
+        params.put("children", new String[] { Boolean.toString(children)});
+        params.put("after", new String[] { Integer.toString(after) });
+        params.put("limit", new String[] { Integer.toString(limit) });
+        return doGet("resource/find.hqu", params,
+                     new XmlResponseHandler<ResourcesResponse>(ResourcesResponse.class));
+    }
+
+    /**
+     * Iterate over the platform {@link Resource}s serviced by the given
+     * {@link org.hyperic.hq.hqapi1.types.Agent} a page at a time.
+     *
+     * @param agent The {@link org.hyperic.hq.hqapi1.types.Agent} to query.
+     * @param verbose Flag to indicate whether {@link org.hyperic.hq.hqapi1.types.ResourceConfig}
+     * and {@link org.hyperic.hq.hqapi1.types.ResourceProperty} information will
+     * be included.
+     * @param children Flag to control whether child resources of this resource
+     * will be included.
+     * @param pageSize The number of Resources to fetch per request.
+     *
+     * @return A {@link ResourcePager} that fetches the next page while the
+     * current one is processed.
+     */
+    public ResourcePager getResourcePager(final Agent agent, final boolean verbose,
+                                          final boolean children, final int pageSize) {
+        return new ResourcePager(new ResourcePager.PageSource() {
+            public ResourcesResponse getPage(int after) throws IOException {
+                return getResources(agent, verbose, children, after, pageSize);
+            }
+        });
+    }
+
     /**
      * Find {@link org.hyperic.hq.hqapi1.types.Resource}s of the
      * given {@link org.hyperic.hq.hqapi1.types.ResourcePrototype}.
@@ -463,6 +649,71 @@ public class ResourceApi extends BaseApi {
                      new XmlResponseHandler<ResourcesResponse>(ResourcesResponse.class));
     }
 
+    /**
+     * Find a page of the {@link org.hyperic.hq.hqapi1.types.Resource}s of
+     * the given {@link org.hyperic.hq.hqapi1.types.ResourcePrototype},
+     * ordered by id.
+     *
+     * @param pt The {@link ResourcePrototype} to search for.
+     * @param verbose Flag to indicate whether {@link org.hyperic.hq.hqapi1.types.ResourceConfig}
+     * and {@link org.hyperic.hq.hqapi1.types.ResourceProperty} information will
+     * be included.
+     * @param children Flag to control whether child resources of this resource
+     * will be included.
+     * @param after Only Resources with an id greater than this are returned.
+     * Use 0 for the first page and
+     * {@link org.hyperic.hq.hqapi1.types.ResourcesResponse#getNext()} for
+     * the following pages.
+     * @param limit The maximum number of Resources to return.
+     * @return On {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS},
+     * the page of Resources is returned via
+     * {@link org.hyperic.hq.hqapi1.types.ResourcesResponse#getResource()}.
+     * {@link org.hyperic.hq.hqapi1.types.ResourcesResponse#getNext()} is null
+     * on the last page.
+     *
+     * @throws java.io.IOException If a network error occurs while making the request.
+     */
+    public ResourcesResponse getResources(ResourcePrototype pt, boolean verbose,
+                                          boolean children, int after, int limit)
+        throws IOException
+    {
+        Map<String,String[]> params = new HashMap<String, String[]>();
+        params.put("prototype", new String[] { pt.getName() });
+        params.put("verbose", new String[] { Boolean.toString(verbose) });
+        params.put("children", new String[] { Boolean.toString(children)});
+        params.put("after", new String[] { Integer.toString(after) });
+        params.put("limit", new String[] { Integer.toString(limit) });
+        return doGet("resource/find.hqu", params,
+                     new XmlResponseHandler<ResourcesResponse>(ResourcesResponse.class));
+    }
+
+    /**
+     * Iterate over the {@link org.hyperic.hq.hqapi1.types.Resource}s of the
+     * given {@link org.hyperic.hq.hqapi1.types.ResourcePrototype} a page at
+     * a time.
+     *
+     * @param pt The {@link ResourcePrototype} to search for.
+     * @param verbose Flag to indicate whether {@link org.hyperic.hq.hqapi1.types.ResourceConfig}
+     * and {@link org.hyperic.hq.hqapi1.types.ResourceProperty} information will
+     * be included.
+     * @param children Flag to control whether child resources of this resource
+     * will be included.
+     * @param pageSize The number of Resources to fetch per request.
+     *
+     * @return A {@link ResourcePager} that fetches the next page while the
+     * current one is processed.
+     */
+    public ResourcePager getResourcePager(final ResourcePrototype pt,
+                                          final boolean verbose,
+                                          final boolean children,
+                                          final int pageSize) {
+        return new ResourcePager(new ResourcePager.PageSource() {
+            public ResourcesResponse getPage(int after) throws IOException {
+                return getResources(pt, verbose, children, after, pageSize);
+            }
+        });
+    }
+
     /**
      * Find {@link org.hyperic.hq.hqapi1.types.Resource}s that have a
      * description that matches in whole or part the passed value.
@@ -491,6 +742,44 @@ public class ResourceApi extends BaseApi {
                      new XmlResponseHandler<ResourcesResponse>(ResourcesResponse.class));
     }
 
+    /**
+     * Find {@link org.hyperic.hq.hqapi1.types.Resource}s by description.
+     * Resources whose description equals the given value are returned
+     * first, followed by those that start with it and then those that
+     * contain it, each ordered by name.
+     *
+     * @param description The description to search for.
+     * @param match How the description is matched.  Use
+     * {@link DescriptionMatch#EXACT} or {@link DescriptionMatch#PREFIX} for
+     * the fastest lookups.
+     * @param verbose Flag to indicate whether {@link org.hyperic.hq.hqapi1.types.ResourceConfig}
+     * and {@link org.hyperic.hq.hqapi1.types.ResourceProperty} information will
+     * be included.
+     * @param children Flag to control whether child resources of this resource
+     * will be included.
+     * @param limit The maximum number of Resources to return.
+     * @return On {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS},
+     * the list of Resources are returned via
+     * {@link org.hyperic.hq.hqapi1.types.ResourcesResponse#getResource()}.
+     *
+     * @throws java.io.IOException If a network error occurs while making the request.
+     */
+    public ResourcesResponse getResources(String description,
+                                          DescriptionMatch match,
+                                          boolean verbose, boolean children,
+                                          int limit)
+        throws IOException
+    {
+        Map<String,String[]> params = new HashMap<String, String[]>();
+        params.put("description", new String[] { description });
+        params.put("match", new String[] { match.getMatch() });
+        params.put("verbose", new String[] { Boolean.toString(verbose) });
+        params.put("children", new String[] { Boolean.toString(children)});
+        params.put("limit", new String[] { Integer.toString(limit) });
+        return doGet("resource/find.hqu", params,
+                     new XmlResponseHandler<ResourcesResponse>(ResourcesResponse.class));
+    }
+
     /**
      * Update a {@link org.hyperic.hq.hqapi1.types.Resource}
      *
@@ -531,6 +820,139 @@ public class ResourceApi extends BaseApi {
                       new XmlResponseHandler<StatusResponse>(StatusResponse.class));
     }
 
+    /**
+     * Sync only the {@link org.hyperic.hq.hqapi1.types.Resource}s that differ
+     * from the current inventory.  Resources are compared using
+     * {@link ResourceFingerprint#getChanged(java.util.List, java.util.List)},
+     * so unchanged Resources are neither sent nor re-applied by the server.
+     *
+     * @param resources The list of resources to sync.
+     * @param existing The current inventory, as returned by a verbose
+     * listing that includes children, e.g.
+     * {@link #getPlatformResources(boolean, boolean)}.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS} if the
+     * changed resources were synced successfully.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public StatusResponse syncResources(List<Resource> resources,
+                                        List<Resource> existing)
+        throws IOException
+    {
+        return syncResources(ResourceFingerprint.getChanged(resources, existing));
+    }
+
+    /**
+     * Sync a list of {@link org.hyperic.hq.hqapi1.types.Resource}s in
+     * batches, several batches at a time.
+     * <br><br>
+     * Each batch is sent as its own sync request, so a Resource that fails
+     * to sync only fails the batch that contains it.  A failed batch is
+     * retried up to the given number of times with an increasing delay
+     * between attempts.  Since a sync can be repeated safely, a batch that
+     * partly succeeded may be retried as a whole.
+     *
+     * @param resources The list of resources to sync.
+     * @param batchSize The maximum number of top level Resources per request.
+     * @param parallel The number of batches to sync concurrently.
+     * @param retries The number of times a failed batch is retried.
+     *
+     * @return The result of each batch.  Use
+     * {@link ResourceSyncResult#getFailedBatches()} to find the Resources
+     * that were not synced.
+     *
+     * @throws IOException If interrupted while waiting for the batches to
+     * complete.  Network errors while syncing a batch are reported through
+     * {@link ResourceSyncResult.Batch#getError()}.
+     */
+    public ResourceSyncResult syncResources(final List<Resource> resources,
+                                            int batchSize, int parallel,
+                                            final int retries)
+        throws IOException
+    {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be > 0");
+        }
+        if (parallel < 1) {
+            throw new IllegalArgumentException("Parallel must be > 0");
+        }
+        if (retries < 0) {
+            throw new IllegalArgumentException("Retries must be >= 0");
+        }
+
+        List<ResourceSyncResult.Batch> batches =
+            new ArrayList<ResourceSyncResult.Batch>();
+        for (int from = 0; from < resources.size(); from += batchSize) {
+            batches.add(new ResourceSyncResult.Batch(batches.size(), from,
+                                                     Math.min(from + batchSize,
+                                                              resources.size())));
+        }
+        if (batches.isEmpty()) {
+            return new ResourceSyncResult(batches);
+        }
+
+        ExecutorService executor =
+            Executors.newFixedThreadPool(Math.min(parallel, batches.size()),
+                                         new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ResourceSync");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final ResourceSyncResult.Batch batch : batches) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws InterruptedException {
+                        syncBatch(resources, batch, retries);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for sync batches");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            IOException ioe = new IOException(cause.toString());
+            ioe.initCause(cause);
+            throw ioe;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return new ResourceSyncResult(batches);
+    }
+
+    private void syncBatch(List<Resource> resources,
+                           ResourceSyncResult.Batch batch, int retries)
+        throws InterruptedException
+    {
+        List<Resource> batchResources =
+            resources.subList(batch.getFromIndex(), batch.getToIndex());
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(attempt * SYNC_RETRY_DELAY);
+            }
+            try {
+                batch.completed(syncResources(batchResources), null);
+            } catch (IOException e) {
+                batch.completed(null, e);
+            }
+            if (batch.isSuccess()) {
+                return;
+            }
+        }
+    }
+
     /**
      * Delete the given {@link Resource}.
      *
@@ -598,5 +1020,175 @@ public class ResourceApi extends BaseApi {
         return doGet("resource/getPlatformResources.hqu", params,
                      new XmlResponseHandler<ResourcesResponse>(ResourcesResponse.class));        
     }
-    
+
+    /**
+     * Get the {@link Resource}s created, modified or deleted at or after the
+     * given time.  Use this for the first request, then pass the token of
+     * each response to {@link #getResourceChanges(String, boolean)} to get
+     * the changes made since.
+     *
+     * @param since The time in milliseconds since the epoch.
+     * @param verbose Flag to indicate whether {@link org.hyperic.hq.hqapi1.types.ResourceConfig}
+     * and {@link org.hyperic.hq.hqapi1.types.ResourceProperty} information will
+     * be included.
+     * @return On {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS},
+     * the changes are returned oldest first via
+     * {@link org.hyperic.hq.hqapi1.types.ResourceChangesResponse#getResourceChange()}
+     * and the token for the next request via
+     * {@link org.hyperic.hq.hqapi1.types.ResourceChangesResponse#getToken()}.
+     * If {@link org.hyperic.hq.hqapi1.types.ResourceChangesResponse#isComplete()}
+     * is false, deletions may have been missed and the inventory should be
+     * reloaded.
+     * <p>
+     * Creation and modification times are set before the changes are
+     * committed, so the token starts a minute before the request was made.
+     * Changes committed within a minute of their creation or modification
+     * time are returned by a later request even if they were not yet
+     * visible.  Changes already returned within that minute are skipped,
+     * but may be returned again when a large number of changes were made,
+     * so changes should be applied by Resource id rather than appended.
+     * <p>
+     * Deleted Resources can no longer be checked for permissions, so
+     * deletions are only returned to administrators.  For other users the
+     * response is not complete when deletions were withheld.
+     *
+     * @throws java.io.IOException If a network error occurs while making the request.
+     */
+    public ResourceChangesResponse getResourceChanges(long since, boolean verbose)
+        throws IOException
+    {
+        Map<String,String[]> params = new HashMap<String, String[]>();
+        params.put("since", new String[] { Long.toString(since) });
+        params.put("verbose", new String[] { Boolean.toString(verbose) });
+        return doGet("resource/getChanges.hqu", params,
+                     new XmlResponseHandler<ResourceChangesResponse>(ResourceChangesResponse.class));
+    }
+
+    /**
+     * Get the {@link Resource}s created, modified or deleted since the
+     * request that returned the given token.
+     *
+     * @param token The token returned by
+     * {@link org.hyperic.hq.hqapi1.types.ResourceChangesResponse#getToken()}.
+     * @param verbose Flag to indicate whether {@link org.hyperic.hq.hqapi1.types.ResourceConfig}
+     * and {@link org.hyperic.hq.hqapi1.types.ResourceProperty} information will
+     * be included.
+     * @return On {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS},
+     * the changes and the token for the next request are returned as for
+     * {@link #getResourceChanges(long, boolean)}.
+     *
+     * @throws java.io.IOException If a network error occurs while making the request.
+     */
+    public ResourceChangesResponse getResourceChanges(String token, boolean verbose)
+        throws IOException
+    {
+        Map<String,String[]> params = new HashMap<String, String[]>();
+        params.put("token", new String[] { token });
+        params.put("verbose", new String[] { Boolean.toString(verbose) });
+        return doGet("resource/getChanges.hqu", params,
+                     new XmlResponseHandler<ResourceChangesResponse>(ResourceChangesResponse.class));
+    }
+
+    /**
+     * Get all platform {@link Resource}s along with a limited part of the
+     * tree of child Resources below them.
+     *
+     * @param verbose Flag to indicate whether {@link org.hyperic.hq.hqapi1.types.ResourceConfig}
+     * and {@link org.hyperic.hq.hqapi1.types.ResourceProperty} information will
+     * be included.
+     * @param depth The number of levels of child Resources to include, must
+     * be greater than 0.
+     * @param childPrototype If not null, only child Resources of the
+     * ResourcePrototype with this name are included, along with the child
+     * Resources that contain one within the given depth.
+     * @return On {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS},
+     * the platforms are returned via
+     * {@link org.hyperic.hq.hqapi1.types.ResourcesResponse#getResource()}.
+     *
+     * @throws java.io.IOException If a network error occurs while making the request.
+     */
+    public ResourcesResponse getPlatformResources(boolean verbose, int depth,
+                                                  String childPrototype)
+        throws IOException
+    {
+        Map<String,String[]> params = new HashMap<String, String[]>();
+        params.put("verbose", new String[] { Boolean.toString(verbose) });
+        params.put("children", new String[] { Boolean.toString(true) });
+        params.put("depth", new String[] { Integer.toString(depth) });
+        if (childPrototype != null) {
+            params.put("childPrototype", new String[] { childPrototype });
+        }
+        return doGet("resource/getPlatformResources.hqu", params,
+                     new XmlResponseHandler<ResourcesResponse>(ResourcesResponse.class));
+    }
+
+    /**
+     * Get a page of the platform {@link Resource}s, ordered by id.
+     *
+     * @param verbose Flag to indicate whether {@link org.hyperic.hq.hqapi1.types.ResourceConfig}
+     * and {@link org.hyperic.hq.hqapi1.types.ResourceProperty} information will
+     * be included.
+     * @param children Flag to control whether child resources of this resource
+     * will be included.
+     * @param after Only Resources with an id greater than this are returned.
+     * Use 0 for the first page and
+     * {@link org.hyperic.hq.hqapi1.types.ResourcesResponse#getNext()} for
+     * the following pages.
+     * @param limit The maximum number of Resources to return.
+     * @return On {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS},
+     * the page of Resources is returned via
+     * {@link org.hyperic.hq.hqapi1.types.ResourcesResponse#getResource()}.
+     * {@link org.hyperic.hq.hqapi1.types.ResourcesResponse#getNext()} is null
+     * on the last page.
+     *
+     * @throws java.io.IOException If a network error occurs while making the request.
+     */
+    public ResourcesResponse getPlatformResources(boolean verbose, boolean children,
+                                                  int after, int limit)
+        throws IOException
+    {
+        Map<String,String[]> params = new HashMap<String, String[]>();
+        params.put("verbose", new String[] { Boolean.toString(verbose) });
+        params.put("children", new String[] { Boolean.toString(children)});
+        params.put("after", new String[] { Integer.toString(after) });
+        params.put("limit", new String[] { Integer.toString(limit) });
+        return doGet("resource/getPlatformResources.hqu", params,
+                     new XmlResponseHandler<ResourcesResponse>(ResourcesResponse.class));
+    }
+
+    /**
+     * Iterate over the platform {@link Resource}s a page at a time.
+     *
+     * @param verbose Flag to indicate whether {@link org.hyperic.hq.hqapi1.types.ResourceConfig}
+     * and {@link org.hyperic.hq.hqapi1.types.ResourceProperty} information will
+     * be included.
+     * @param children Flag to control whether child resources of this resource
+     * will be included.
+     * @param pageSize The number of Resources to fetch per request.
+     *
+     * @return A {@link ResourcePager} that fetches the next page while the
+     * current one is processed.
+     */
+    public ResourcePager getPlatformResourcePager(final boolean verbose,
+                                                  final boolean children,
+                                                  final int pageSize) {
+        return new ResourcePager(new ResourcePager.PageSource() {
+            public ResourcesResponse getPage(int after) throws IOException {
+                return getPlatformResources(verbose, children, after, pageSize);
+            }
+        });
+    }
+
+    /**
+     * Create a {@link ResourceCache} that serves non-verbose Resource
+     * lookups from an in-memory copy of the inventory.
+     *
+     * @param ttl The time, in milliseconds, after which the inventory is
+     * loaded again.
+     *
+     * @return A new, empty cache.  The inventory is loaded on the first lookup.
+     */
+    public ResourceCache createCache(long ttl) {
+        return new ResourceCache(this, ttl);
+    }
 }
@@ -0,0 +1,439 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.Agent;
+import org.hyperic.hq.hqapi1.types.Ip;
+import org.hyperic.hq.hqapi1.types.Resource;
+import org.hyperic.hq.hqapi1.types.ResourceInfo;
+import org.hyperic.hq.hqapi1.types.ResourcePrototype;
+import org.hyperic.hq.hqapi1.types.ResourceResponse;
+import org.hyperic.hq.hqapi1.types.ResourcesResponse;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An opt-in, in-memory cache of the platform, server and service inventory
+ * in front of the {@link ResourceApi} lookups.
+ * <br><br>
+ * The full Resource tree is loaded with a single
+ * {@link ResourceApi#getPlatformResources(boolean, boolean)} request and
+ * indexed by id, aeid, platform name, fqdn, ip, agent and prototype so
+ * lookups are answered without contacting the server.  Once the time to
+ * live has elapsed the next lookup loads the tree again.  Changes made to
+ * a single Resource can be picked up sooner with
+ * {@link #invalidate(org.hyperic.hq.hqapi1.types.Resource)}, which only
+ * fetches the platform that contains it.
+ * <br><br>
+ * Only non-verbose Resources are cached.  Verbose lookups and lookups that
+ * miss the cache, such as for Resources created since the last load, are
+ * passed through to the {@link ResourceApi}.  Resources returned by the
+ * cache are copies and may be modified by the caller.
+ * <br><br>
+ * Instances are created through {@link ResourceApi#createCache(long)} and
+ * are thread safe.
+ */
+public class ResourceCache {
+
+    private static final String PROP_FQDN = "fqdn";
+
+    private final ResourceApi _api;
+    private final long _ttl;
+
+    // Replaced as a whole on every load so lookups never see a partially
+    // built set of indexes.
+    private volatile Inventory _inventory;
+
+    ResourceCache(ResourceApi api, long ttl) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("Time to live must be > 0");
+        }
+        _api = api;
+        _ttl = ttl;
+    }
+
+    /**
+     * Get a {@link Resource} by id.
+     *
+     * @see ResourceApi#getResource(int, boolean, boolean)
+     */
+    public ResourceResponse getResource(int id, boolean verbose, boolean children)
+        throws IOException
+    {
+        if (!verbose) {
+            Inventory inv = getInventory();
+            Resource r = (inv == null) ? null : inv.byId.get(id);
+            if (r != null) {
+                return getResponse(r, children);
+            }
+        }
+        return _api.getResource(id, verbose, children);
+    }
+
+    /**
+     * Get a {@link Resource} by aeid.
+     *
+     * @see ResourceApi#getResource(String, boolean, boolean)
+     */
+    public ResourceResponse getResource(String aeid, boolean verbose, boolean children)
+        throws IOException
+    {
+        if (!verbose) {
+            Inventory inv = getInventory();
+            Resource r = (inv == null) ? null : inv.byAeid.get(aeid);
+            if (r != null) {
+                return getResponse(r, children);
+            }
+        }
+        return _api.getResource(aeid, verbose, children);
+    }
+
+    /**
+     * Get a platform {@link Resource} by name.
+     *
+     * @see ResourceApi#getPlatformResource(String, boolean, boolean)
+     */
+    public ResourceResponse getPlatformResource(String name, boolean verbose,
+                                                boolean children)
+        throws IOException
+    {
+        if (!verbose) {
+            Inventory inv = getInventory();
+            Resource r = (inv == null) ? null : inv.byPlatformName.get(name);
+            if (r != null) {
+                return getResponse(r, children);
+            }
+        }
+        return _api.getPlatformResource(name, verbose, children);
+    }
+
+    /**
+     * Get a platform {@link Resource} by fqdn.
+     *
+     * @see ResourceApi#getPlatformResourceByFqdn(String, boolean, boolean)
+     */
+    public ResourceResponse getPlatformResourceByFqdn(String fqdn, boolean verbose,
+                                                      boolean children)
+        throws IOException
+    {
+        if (!verbose) {
+            Inventory inv = getInventory();
+            Resource r = (inv == null) ? null : inv.byFqdn.get(fqdn);
+            if (r != null) {
+                return getResponse(r, children);
+            }
+        }
+        return _api.getPlatformResourceByFqdn(fqdn, verbose, children);
+    }
+
+    /**
+     * Get the platform {@link Resource}s with the given ip.
+     *
+     * @see ResourceApi#getPlatformResourceByIp(String, boolean, boolean)
+     */
+    public ResourcesResponse getPlatformResourceByIp(String ip, boolean verbose,
+                                                     boolean children)
+        throws IOException
+    {
+        if (!verbose) {
+            Inventory inv = getInventory();
+            List<Resource> l = (inv == null) ? null : inv.byIp.get(ip);
+            if (l != null) {
+                return getResponse(l, children);
+            }
+        }
+        return _api.getPlatformResourceByIp(ip, verbose, children);
+    }
+
+    /**
+     * Get the platform {@link Resource} that contains the given resource id.
+     *
+     * @see ResourceApi#getPlatformResource(int, boolean, boolean)
+     */
+    public ResourceResponse getPlatformResource(int id, boolean verbose,
+                                                boolean children)
+        throws IOException
+    {
+        if (!verbose) {
+            Inventory inv = getInventory();
+            Resource r = (inv == null) ? null : inv.platformOf.get(id);
+            if (r != null) {
+                return getResponse(r, children);
+            }
+        }
+        return _api.getPlatformResource(id, verbose, children);
+    }
+
+    /**
+     * Get the platform {@link Resource}s serviced by the given
+     * {@link org.hyperic.hq.hqapi1.types.Agent}.
+     *
+     * @see ResourceApi#getResources(org.hyperic.hq.hqapi1.types.Agent, boolean, boolean)
+     */
+    public ResourcesResponse getResources(Agent agent, boolean verbose,
+                                          boolean children)
+        throws IOException
+    {
+        if (!verbose) {
+            Inventory inv = getInventory();
+            List<Resource> l = (inv == null) ? null : inv.byAgent.get(agent.getId());
+            if (l != null) {
+                return getResponse(l, children);
+            }
+        }
+        return _api.getResources(agent, verbose, children);
+    }
+
+    /**
+     * Get the {@link Resource}s of the given
+     * {@link org.hyperic.hq.hqapi1.types.ResourcePrototype}.  Since the
+     * whole inventory is cached, a prototype with no Resources is answered
+     * from memory as an empty List.
+     *
+     * @see ResourceApi#getResources(org.hyperic.hq.hqapi1.types.ResourcePrototype, boolean, boolean)
+     */
+    public ResourcesResponse getResources(ResourcePrototype pt, boolean verbose,
+                                          boolean children)
+        throws IOException
+    {
+        if (!verbose) {
+            Inventory inv = getInventory();
+            if (inv != null) {
+                List<Resource> l = inv.byPrototype.get(pt.getName());
+                if (l == null) {
+                    l = Collections.emptyList();
+                }
+                return getResponse(l, children);
+            }
+        }
+        return _api.getResources(pt, verbose, children);
+    }
+
+    /**
+     * Discard the cached inventory.  The next lookup loads it again.
+     */
+    public void invalidate() {
+        _inventory = null;
+    }
+
+    /**
+     * Refresh the platform that contains the given {@link Resource}.  Only
+     * that platform's tree is fetched from the server.  If the Resource is
+     * not cached, or no inventory is loaded, this is a no-op and the
+     * Resource will be found through the {@link ResourceApi} on lookup.
+     *
+     * @param resource The {@link Resource} that changed.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS} if
+     * the platform was refreshed or removed because it no longer exists.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public synchronized ResourceResponse invalidate(Resource resource)
+        throws IOException
+    {
+        ResourceResponse response = new ResourceResponse();
+        response.setStatus(ResponseStatus.SUCCESS);
+
+        Inventory inv = _inventory;
+        Resource platform = (inv == null) ? null : inv.platformOf.get(resource.getId());
+        if (platform == null) {
+            return response;
+        }
+
+        ResourceResponse fetched =
+            _api.getPlatformResource(platform.getId(), false, true);
+        List<Resource> platforms = new ArrayList<Resource>(inv.platforms);
+        int idx = platforms.indexOf(platform);
+        if (fetched.getStatus() == ResponseStatus.SUCCESS) {
+            platforms.set(idx, fetched.getResource());
+            response.setResource(copy(fetched.getResource(), false));
+        } else if (fetched.getError() != null &&
+                   ErrorCode.OBJECT_NOT_FOUND.getErrorCode().equals(
+                       fetched.getError().getErrorCode())) {
+            platforms.remove(idx);
+        } else {
+            return fetched;
+        }
+        _inventory = new Inventory(platforms, inv.loaded);
+        return response;
+    }
+
+    /**
+     * @return The number of cached Resources, 0 if the inventory is not
+     * loaded.
+     */
+    public int getSize() {
+        Inventory inv = _inventory;
+        return (inv == null) ? 0 : inv.byId.size();
+    }
+
+    /**
+     * Get the current inventory, loading it if it was invalidated or has
+     * expired.  Returns null if the inventory could not be loaded so the
+     * lookup can be passed through to the server.
+     */
+    private Inventory getInventory() throws IOException {
+        Inventory inv = _inventory;
+        if (inv != null && System.currentTimeMillis() - inv.loaded < _ttl) {
+            return inv;
+        }
+        synchronized (this) {
+            inv = _inventory;
+            long now = System.currentTimeMillis();
+            if (inv == null || now - inv.loaded >= _ttl) {
+                ResourcesResponse response = _api.getPlatformResources(false, true);
+                if (response.getStatus() != ResponseStatus.SUCCESS) {
+                    return null;
+                }
+                inv = new Inventory(response.getResource(), now);
+                _inventory = inv;
+            }
+            return inv;
+        }
+    }
+
+    private static ResourceResponse getResponse(Resource r, boolean children) {
+        ResourceResponse response = new ResourceResponse();
+        response.setStatus(ResponseStatus.SUCCESS);
+        response.setResource(copy(r, children));
+        return response;
+    }
+
+    private static ResourcesResponse getResponse(List<Resource> resources,
+                                                 boolean children) {
+        ResourcesResponse response = new ResourcesResponse();
+        response.setStatus(ResponseStatus.SUCCESS);
+        for (Resource r : resources) {
+            response.getResource().add(copy(r, children));
+        }
+        return response;
+    }
+
+    /**
+     * Copy a cached Resource so callers cannot modify the cache.  The
+     * prototype, agent, ip and info elements are not modified by the API
+     * and are shared.
+     */
+    private static Resource copy(Resource r, boolean children) {
+        Resource c = new Resource();
+        c.setId(r.getId());
+        c.setName(r.getName());
+        c.setDescription(r.getDescription());
+        c.setLocation(r.getLocation());
+        c.setTypeId(r.getTypeId());
+        c.setInstanceId(r.getInstanceId());
+        c.setResourcePrototype(r.getResourcePrototype());
+        c.setAgent(r.getAgent());
+        c.getIp().addAll(r.getIp());
+        c.getResourceInfo().addAll(r.getResourceInfo());
+        if (children) {
+            for (Resource child : r.getResource()) {
+                c.getResource().add(copy(child, true));
+            }
+        }
+        return c;
+    }
+
+    private static String getFqdn(Resource platform) {
+        for (ResourceInfo info : platform.getResourceInfo()) {
+            if (PROP_FQDN.equals(info.getKey())) {
+                return info.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static <K> void addTo(Map<K,List<Resource>> index, K key,
+                                  Resource r) {
+        List<Resource> l = index.get(key);
+        if (l == null) {
+            l = new ArrayList<Resource>();
+            index.put(key, l);
+        }
+        l.add(r);
+    }
+
+    /**
+     * An immutable snapshot of the inventory and its indexes.
+     */
+    private static class Inventory {
+        final List<Resource> platforms;
+        final long loaded;
+
+        final Map<Integer,Resource> byId = new HashMap<Integer,Resource>();
+        final Map<String,Resource> byAeid = new HashMap<String,Resource>();
+        final Map<Integer,Resource> platformOf = new HashMap<Integer,Resource>();
+        final Map<String,Resource> byPlatformName = new HashMap<String,Resource>();
+        final Map<String,Resource> byFqdn = new HashMap<String,Resource>();
+        final Map<String,List<Resource>> byIp = new HashMap<String,List<Resource>>();
+        final Map<Integer,List<Resource>> byAgent = new HashMap<Integer,List<Resource>>();
+        final Map<String,List<Resource>> byPrototype = new HashMap<String,List<Resource>>();
+
+        Inventory(List<Resource> platforms, long loaded) {
+            this.platforms = platforms;
+            this.loaded = loaded;
+
+            for (Resource p : platforms) {
+                byPlatformName.put(p.getName(), p);
+                String fqdn = getFqdn(p);
+                if (fqdn != null) {
+                    byFqdn.put(fqdn, p);
+                }
+                for (Ip ip : p.getIp()) {
+                    addTo(byIp, ip.getAddress(), p);
+                }
+                if (p.getAgent() != null) {
+                    addTo(byAgent, p.getAgent().getId(), p);
+                }
+                index(p, p);
+            }
+        }
+
+        private void index(Resource r, Resource platform) {
+            byId.put(r.getId(), r);
+            if (r.getTypeId() != null && r.getInstanceId() != null) {
+                byAeid.put(r.getTypeId() + ":" + r.getInstanceId(), r);
+            }
+            platformOf.put(r.getId(), platform);
+            if (r.getResourcePrototype() != null) {
+                addTo(byPrototype, r.getResourcePrototype().getName(), r);
+            }
+            for (Resource child : r.getResource()) {
+                index(child, platform);
+            }
+        }
+    }
+}
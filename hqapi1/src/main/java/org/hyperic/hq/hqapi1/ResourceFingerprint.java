@@ -0,0 +1,324 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.Ip;
+import org.hyperic.hq.hqapi1.types.Resource;
+import org.hyperic.hq.hqapi1.types.ResourceConfig;
+import org.hyperic.hq.hqapi1.types.ResourceInfo;
+import org.hyperic.hq.hqapi1.types.ResourceProperty;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Content fingerprints for {@link org.hyperic.hq.hqapi1.types.Resource}s,
+ * used to skip unchanged Resources during a sync.
+ * <br><br>
+ * A fingerprint is a SHA-1 hash over a Resource's name, description,
+ * location, agent, {@link org.hyperic.hq.hqapi1.types.Ip}s,
+ * {@link org.hyperic.hq.hqapi1.types.ResourceConfig},
+ * {@link org.hyperic.hq.hqapi1.types.ResourceProperty} and
+ * {@link org.hyperic.hq.hqapi1.types.ResourceInfo}.  Child Resources are not
+ * included, each child has a fingerprint of its own.  Entries are hashed in
+ * key order and entries with empty values are ignored, so two Resources with
+ * the same content have the same fingerprint regardless of how they were
+ * built.
+ * <br><br>
+ * The server returns the fingerprint of each Resource in verbose listings
+ * via {@link org.hyperic.hq.hqapi1.types.Resource#getFingerprint()}.  When
+ * a synced Resource carries a fingerprint, the server computes the
+ * fingerprint of the submitted content and skips the update if it matches
+ * the Resource's current content.  The submitted fingerprint itself is not
+ * trusted, so Resources edited after being listed are still updated.
+ */
+public class ResourceFingerprint {
+
+    private static final String ALGORITHM = "SHA-1";
+    private static final String PROP_FQDN = "fqdn";
+
+    private ResourceFingerprint() {}
+
+    /**
+     * Compute the fingerprint of a Resource.
+     *
+     * @param r The Resource to fingerprint.  Only its own content is used,
+     * child Resources are ignored.
+     *
+     * @return The fingerprint as a hex encoded string.
+     */
+    public static String compute(Resource r) {
+        Map<String,String> config = new HashMap<String,String>();
+        for (ResourceConfig c : r.getResourceConfig()) {
+            config.put(c.getKey(), c.getValue());
+        }
+        Map<String,String> properties = new HashMap<String,String>();
+        for (ResourceProperty p : r.getResourceProperty()) {
+            properties.put(p.getKey(), p.getValue());
+        }
+        Map<String,String> info = new HashMap<String,String>();
+        for (ResourceInfo i : r.getResourceInfo()) {
+            info.put(i.getKey(), i.getValue());
+        }
+        List<String> ips = new ArrayList<String>();
+        for (Ip ip : r.getIp()) {
+            ips.add(getIp(ip.getAddress(), ip.getNetmask(), ip.getMac()));
+        }
+        Integer agentId = r.getAgent() == null ? null : r.getAgent().getId();
+
+        return compute(r.getName(), r.getDescription(), r.getLocation(),
+                       agentId, ips, config, properties, info);
+    }
+
+    /**
+     * Get the value an {@link org.hyperic.hq.hqapi1.types.Ip} is hashed as,
+     * for use with
+     * {@link #compute(String, String, String, Integer, Collection, Map, Map, Map)}.
+     *
+     * @param address The IP address.
+     * @param netmask The netmask, may be null.
+     * @param mac The MAC address, may be null.
+     *
+     * @return The value to hash.
+     */
+    public static String getIp(String address, String netmask, String mac) {
+        return (address == null ? "" : address) + " " +
+               (netmask == null ? "" : netmask) + " " +
+               (mac == null ? "" : mac);
+    }
+
+    /**
+     * Compute a fingerprint from the individual parts of a Resource.  This
+     * is used by the server, which does not hold Resources as
+     * {@link org.hyperic.hq.hqapi1.types.Resource} objects.
+     *
+     * @param name The Resource name.
+     * @param description The Resource description, may be null.
+     * @param location The Resource location, may be null.
+     * @param agentId The id of the platform's Agent, or null if the Resource
+     * is not a platform or the Agent is not known.
+     * @param ips The platform's IPs as returned by
+     * {@link #getIp(String, String, String)}, may be null.
+     * @param config The configuration keys and values.
+     * @param properties The custom property keys and values.
+     * @param info The Resource info keys and values.
+     *
+     * @return The fingerprint as a hex encoded string.
+     */
+    public static String compute(String name, String description,
+                                 String location, Integer agentId,
+                                 Collection<String> ips,
+                                 Map<String,?> config,
+                                 Map<String,?> properties,
+                                 Map<String,?> info) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE is required to provide SHA-1
+            throw new IllegalStateException(e);
+        }
+
+        update(md, "n", name);
+        update(md, "d", description);
+        update(md, "l", location);
+        update(md, "a", agentId == null ? null : agentId.toString());
+        if (ips != null) {
+            List<String> sorted = new ArrayList<String>(ips);
+            Collections.sort(sorted);
+            for (String ip : sorted) {
+                update(md, "ip", ip);
+            }
+        }
+        update(md, "c", config);
+        update(md, "p", properties);
+        update(md, "i", info);
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : md.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Compare a list of Resources to be synced with the current inventory
+     * and return only the Resources that need to be sent.
+     * <br><br>
+     * Resources are matched the same way the server matches them during a
+     * sync: by id, then top level Resources by fqdn or name and child
+     * Resources by name under their parent.  A Resource that does not match
+     * is returned with all of its children.  A Resource whose fingerprint
+     * matches is dropped unless one of its descendants changed, in which
+     * case it is returned with only the changed children so the server can
+     * locate them.  The returned Resources are copies with their
+     * fingerprint set and the given lists are not modified.
+     *
+     * @param resources The Resources to be synced.
+     * @param existing The current inventory, as returned by a verbose
+     * listing that includes children, e.g.
+     * {@link ResourceApi#getPlatformResources(boolean, boolean)}.
+     *
+     * @return The Resources that have been added or changed.
+     */
+    public static List<Resource> getChanged(List<Resource> resources,
+                                            List<Resource> existing) {
+        return getChanged(resources, existing, true);
+    }
+
+    private static List<Resource> getChanged(List<Resource> resources,
+                                             List<Resource> existing,
+                                             boolean topLevel) {
+        Map<Integer,Resource> byId = new HashMap<Integer,Resource>();
+        Map<String,List<Resource>> byName = new HashMap<String,List<Resource>>();
+        Map<String,Resource> byFqdn = new HashMap<String,Resource>();
+        for (Resource r : existing) {
+            if (r.getId() != null) {
+                byId.put(r.getId(), r);
+            }
+            List<Resource> named = byName.get(r.getName());
+            if (named == null) {
+                named = new ArrayList<Resource>();
+                byName.put(r.getName(), named);
+            }
+            named.add(r);
+            String fqdn = getInfo(r, PROP_FQDN);
+            if (topLevel && fqdn != null) {
+                byFqdn.put(fqdn, r);
+            }
+        }
+
+        List<Resource> changed = new ArrayList<Resource>();
+        for (Resource r : resources) {
+            Resource current = r.getId() == null ? null : byId.get(r.getId());
+            if (current == null) {
+                String fqdn = topLevel ? getInfo(r, PROP_FQDN) : null;
+                if (fqdn != null) {
+                    current = byFqdn.get(fqdn);
+                } else {
+                    List<Resource> named = byName.get(r.getName());
+                    if (named != null && named.size() == 1) {
+                        current = named.get(0);
+                    }
+                }
+            }
+
+            String fingerprint = compute(r);
+            if (current == null) {
+                changed.add(copy(r, fingerprint, getAll(r.getResource())));
+                continue;
+            }
+
+            List<Resource> children = getChanged(r.getResource(),
+                                                 current.getResource(), false);
+            if (!fingerprint.equals(current.getFingerprint()) ||
+                children.size() > 0) {
+                changed.add(copy(r, fingerprint, children));
+            }
+        }
+        return changed;
+    }
+
+    private static List<Resource> getAll(List<Resource> resources) {
+        List<Resource> all = new ArrayList<Resource>(resources.size());
+        for (Resource r : resources) {
+            all.add(copy(r, compute(r), getAll(r.getResource())));
+        }
+        return all;
+    }
+
+    private static Resource copy(Resource r, String fingerprint,
+                                 List<Resource> children) {
+        Resource c = new Resource();
+        c.setId(r.getId());
+        c.setName(r.getName());
+        c.setDescription(r.getDescription());
+        c.setLocation(r.getLocation());
+        c.setTypeId(r.getTypeId());
+        c.setInstanceId(r.getInstanceId());
+        c.setFingerprint(fingerprint);
+        c.setResourcePrototype(r.getResourcePrototype());
+        c.setAgent(r.getAgent());
+        c.getIp().addAll(r.getIp());
+        c.getResourceConfig().addAll(r.getResourceConfig());
+        c.getResourceProperty().addAll(r.getResourceProperty());
+        c.getResourceInfo().addAll(r.getResourceInfo());
+        c.getResource().addAll(children);
+        return c;
+    }
+
+    private static String getInfo(Resource r, String key) {
+        for (ResourceInfo info : r.getResourceInfo()) {
+            if (key.equals(info.getKey())) {
+                return info.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static void update(MessageDigest md, String tag,
+                               Map<String,?> values) {
+        if (values == null) {
+            return;
+        }
+        Map<String,String> sorted = new TreeMap<String,String>();
+        for (Map.Entry<String,?> e : values.entrySet()) {
+            if (e.getKey() != null && e.getValue() != null) {
+                String value = e.getValue().toString();
+                if (value.length() > 0) {
+                    sorted.put(e.getKey(), value);
+                }
+            }
+        }
+        for (Map.Entry<String,String> e : sorted.entrySet()) {
+            update(md, tag, e.getKey());
+            update(md, "=", e.getValue());
+        }
+    }
+
+    private static void update(MessageDigest md, String tag, String value) {
+        // Length prefix each value so adjacent values cannot run together
+        String s = value == null ? "" : value;
+        try {
+            md.update((tag + s.length() + ":" + s).getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            // Every JRE is required to support UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+}
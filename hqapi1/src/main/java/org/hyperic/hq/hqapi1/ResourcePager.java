@@ -0,0 +1,185 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.ResourcesResponse;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Iterates over a paged {@link ResourceApi} listing one
+ * {@link org.hyperic.hq.hqapi1.types.ResourcesResponse} at a time.
+ * <br><br>
+ * As soon as a page is returned the request for the following page is made
+ * on a background thread, so the next page is usually available by the time
+ * the caller has processed the current one.  At most two pages are held in
+ * memory.
+ * <br><br>
+ * Iteration stops after the last page or the first unsuccessful response,
+ * which is returned to the caller.  Pagers that are abandoned before the
+ * last page should be closed.
+ * <br><br>
+ * Instances are created through {@link ResourceApi}, for example
+ * {@link ResourceApi#getPlatformResourcePager(boolean, boolean, int)}.
+ */
+public class ResourcePager {
+
+    /**
+     * Fetches the page of Resources following the given id.
+     */
+    interface PageSource {
+        ResourcesResponse getPage(int after) throws IOException;
+    }
+
+    private final PageSource _source;
+    private ExecutorService _executor;
+    private Future<ResourcesResponse> _pending;
+    private boolean _started = false;
+    private boolean _done = false;
+
+    ResourcePager(PageSource source) {
+        _source = source;
+    }
+
+    /**
+     * @return true if there are more pages to fetch.
+     */
+    public synchronized boolean hasNext() {
+        return !_done;
+    }
+
+    /**
+     * Get the next page, waiting for it to arrive if it has not been fetched
+     * yet.
+     *
+     * @return On {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS},
+     * the page of Resources is returned via
+     * {@link org.hyperic.hq.hqapi1.types.ResourcesResponse#getResource()}.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     * @throws NoSuchElementException If there are no more pages.
+     */
+    public synchronized ResourcesResponse next() throws IOException {
+        if (_done) {
+            throw new NoSuchElementException();
+        }
+
+        ResourcesResponse page;
+        if (!_started) {
+            _started = true;
+            page = fetch(0);
+        } else {
+            page = await(_pending);
+            _pending = null;
+        }
+
+        if (page.getStatus() != ResponseStatus.SUCCESS || page.getNext() == null) {
+            close();
+        } else {
+            prefetch(page.getNext());
+        }
+        return page;
+    }
+
+    /**
+     * Stop iterating and discard any page that is being fetched.
+     */
+    public synchronized void close() {
+        _done = true;
+        if (_pending != null) {
+            _pending.cancel(true);
+            _pending = null;
+        }
+        if (_executor != null) {
+            _executor.shutdownNow();
+            _executor = null;
+        }
+    }
+
+    private ResourcesResponse fetch(int after) throws IOException {
+        try {
+            return _source.getPage(after);
+        } catch (IOException e) {
+            close();
+            throw e;
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void prefetch(final int after) {
+        if (_executor == null) {
+            _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ResourcePager");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        _pending = _executor.submit(new Callable<ResourcesResponse>() {
+            public ResourcesResponse call() throws Exception {
+                return _source.getPage(after);
+            }
+        });
+    }
+
+    private ResourcesResponse await(Future<ResourcesResponse> pending)
+        throws IOException
+    {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the next page");
+        } catch (ExecutionException e) {
+            close();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            IOException ioe = new IOException(cause.toString());
+            ioe.initCause(cause);
+            throw ioe;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+import org.hyperic.hq.hqapi1.types.StatusResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a batched sync started with
+ * {@link ResourceApi#syncResources(java.util.List, int, int, int)}.
+ * <br><br>
+ * The Resources to sync are split into batches which are synced
+ * independently, so the failure of one batch does not prevent the others
+ * from being applied.  Each {@link Batch} records the range of Resources
+ * it covered, the number of attempts made and the response of the last
+ * attempt.
+ */
+public class ResourceSyncResult {
+
+    private final List<Batch> _batches;
+
+    ResourceSyncResult(List<Batch> batches) {
+        _batches = Collections.unmodifiableList(batches);
+    }
+
+    /**
+     * @return All batches, in the order of the Resources they cover.
+     */
+    public List<Batch> getBatches() {
+        return _batches;
+    }
+
+    /**
+     * @return The batches that still failed after all retries.
+     */
+    public List<Batch> getFailedBatches() {
+        List<Batch> failed = new ArrayList<Batch>();
+        for (Batch b : _batches) {
+            if (!b.isSuccess()) {
+                failed.add(b);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * @return true if every batch was synced successfully.
+     */
+    public boolean isSuccess() {
+        return getFailedBatches().isEmpty();
+    }
+
+    /**
+     * @return The number of top level Resources in batches that were
+     * synced successfully.
+     */
+    public int getNumSynced() {
+        int num = 0;
+        for (Batch b : _batches) {
+            if (b.isSuccess()) {
+                num += b.getSize();
+            }
+        }
+        return num;
+    }
+
+    /**
+     * A contiguous range of the Resources passed to the sync.
+     */
+    public static class Batch {
+
+        private final int _index;
+        private final int _fromIndex;
+        private final int _toIndex;
+        private int _attempts;
+        private StatusResponse _response;
+        private Exception _error;
+
+        Batch(int index, int fromIndex, int toIndex) {
+            _index = index;
+            _fromIndex = fromIndex;
+            _toIndex = toIndex;
+        }
+
+        /**
+         * @return The position of this batch, starting at 0.
+         */
+        public int getIndex() {
+            return _index;
+        }
+
+        /**
+         * @return The index of the first Resource in this batch, inclusive.
+         */
+        public int getFromIndex() {
+            return _fromIndex;
+        }
+
+        /**
+         * @return The index of the last Resource in this batch, exclusive.
+         */
+        public int getToIndex() {
+            return _toIndex;
+        }
+
+        public int getSize() {
+            return _toIndex - _fromIndex;
+        }
+
+        /**
+         * @return The number of requests made for this batch, including
+         * retries.
+         */
+        public synchronized int getAttempts() {
+            return _attempts;
+        }
+
+        /**
+         * @return The response to the last attempt, or null if the last
+         * attempt failed with an error before a response was received.
+         */
+        public synchronized StatusResponse getResponse() {
+            return _response;
+        }
+
+        /**
+         * @return The error thrown by the last attempt, such as an
+         * {@link java.io.IOException} for a network error, or null if a
+         * response was received.
+         */
+        public synchronized Exception getError() {
+            return _error;
+        }
+
+        public synchronized boolean isSuccess() {
+            return _response != null &&
+                   ResponseStatus.SUCCESS.equals(_response.getStatus());
+        }
+
+        /**
+         * @return A description of why the last attempt failed, or null if
+         * the batch was synced successfully.
+         */
+        public synchronized String getFailureMessage() {
+            if (_error != null) {
+                return _error.getMessage() == null ? _error.toString() :
+                       _error.getMessage();
+            } else if (_response == null) {
+                return "Not attempted";
+            } else if (isSuccess()) {
+                return null;
+            } else if (_response.getError() != null) {
+                return _response.getError().getReasonText();
+            }
+            return "Unknown error";
+        }
+
+        synchronized void completed(StatusResponse response, Exception error) {
+            _attempts++;
+            _response = response;
+            _error = error;
+        }
+    }
+}
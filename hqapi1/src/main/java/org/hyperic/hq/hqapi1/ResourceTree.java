@@ -0,0 +1,282 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.Resource;
+import org.hyperic.hq.hqapi1.types.ResourceResponse;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A tree of {@link org.hyperic.hq.hqapi1.types.Resource}s whose children
+ * are loaded on first access.
+ * <br><br>
+ * Each {@link Node} fetches its direct children with a single depth limited
+ * {@link ResourceApi#getResource(int, boolean, int, String)} request the
+ * first time they are needed, so walking part of the tree only transfers
+ * the Resources that are visited.  The children of several nodes, such as
+ * all the servers on a platform, can be loaded concurrently with
+ * {@link #load(java.util.List, int)} or
+ * {@link #load(ResourceTree.Node, int, int)}.
+ * <br><br>
+ * Instances are created through
+ * {@link ResourceApi#createTree(org.hyperic.hq.hqapi1.types.Resource, boolean)}
+ * and are thread safe.
+ */
+public class ResourceTree {
+
+    // Appdef type of services, which have no children
+    private static final int TYPE_SERVICE = 3;
+
+    private final ResourceApi _api;
+    private final boolean _verbose;
+    private final Node _root;
+
+    ResourceTree(ResourceApi api, Resource root, boolean verbose) {
+        _api = api;
+        _verbose = verbose;
+        _root = new Node(null, root);
+    }
+
+    /**
+     * @return The root of the tree.
+     */
+    public Node getRoot() {
+        return _root;
+    }
+
+    /**
+     * Load the children of several nodes, up to the given number at a
+     * time.  Nodes that are already loaded are not requested again.
+     *
+     * @param nodes The nodes to load.
+     * @param parallel The number of nodes to load concurrently.
+     *
+     * @return The response for each node, in the order given.
+     *
+     * @throws IOException If a network error occurs while making the
+     * requests.
+     */
+    public List<ResourceResponse> load(List<Node> nodes, int parallel)
+        throws IOException
+    {
+        if (parallel < 1) {
+            throw new IllegalArgumentException("Parallel must be > 0");
+        }
+        List<ResourceResponse> responses = new ArrayList<ResourceResponse>();
+        if (parallel == 1 || nodes.size() < 2) {
+            for (Node n : nodes) {
+                responses.add(n.load());
+            }
+            return responses;
+        }
+
+        ExecutorService executor =
+            Executors.newFixedThreadPool(Math.min(parallel, nodes.size()),
+                                         new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ResourceTree");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        try {
+            List<Future<ResourceResponse>> futures =
+                new ArrayList<Future<ResourceResponse>>();
+            for (final Node n : nodes) {
+                futures.add(executor.submit(new Callable<ResourceResponse>() {
+                    public ResourceResponse call() throws IOException {
+                        return n.load();
+                    }
+                }));
+            }
+            for (Future<ResourceResponse> f : futures) {
+                responses.add(f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted loading Resources");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            IOException ioe = new IOException(cause.toString());
+            ioe.initCause(cause);
+            throw ioe;
+        } finally {
+            executor.shutdownNow();
+        }
+        return responses;
+    }
+
+    /**
+     * Load the subtree below a node, one level at a time with the nodes of
+     * each level loaded concurrently.  The children of nodes that fail to
+     * load are skipped.
+     *
+     * @param node The node to load below.
+     * @param depth The number of levels to load.
+     * @param parallel The number of nodes to load concurrently.
+     *
+     * @return The unsuccessful responses, empty if every node was loaded.
+     *
+     * @throws IOException If a network error occurs while making the
+     * requests.
+     */
+    public List<ResourceResponse> load(Node node, int depth, int parallel)
+        throws IOException
+    {
+        List<ResourceResponse> failures = new ArrayList<ResourceResponse>();
+        List<Node> level = Collections.singletonList(node);
+        for (int i = 0; i < depth && !level.isEmpty(); i++) {
+            List<ResourceResponse> responses = load(level, parallel);
+            List<Node> next = new ArrayList<Node>();
+            for (int j = 0; j < level.size(); j++) {
+                ResourceResponse response = responses.get(j);
+                if (response.getStatus() == ResponseStatus.SUCCESS) {
+                    next.addAll(level.get(j).getLoadedChildren());
+                } else {
+                    failures.add(response);
+                }
+            }
+            level = next;
+        }
+        return failures;
+    }
+
+    /**
+     * A Resource in the tree.
+     */
+    public class Node {
+
+        private final Node _parent;
+        private final Resource _resource;
+        private List<Node> _children;
+        private ResourceResponse _response;
+
+        private Node(Node parent, Resource resource) {
+            _parent = parent;
+            _resource = resource;
+        }
+
+        /**
+         * @return The parent node, or null for the root.
+         */
+        public Node getParent() {
+            return _parent;
+        }
+
+        /**
+         * @return The Resource of this node.  Its list of child Resources
+         * is not populated, use {@link #getChildren()} instead.
+         */
+        public Resource getResource() {
+            return _resource;
+        }
+
+        /**
+         * @return true if the children of this node have been loaded.
+         */
+        public synchronized boolean isLoaded() {
+            return _children != null;
+        }
+
+        /**
+         * Load the children of this node if they have not been loaded yet.
+         * A load that failed is retried.
+         *
+         * @return The response of the request that loaded the children.
+         *
+         * @throws IOException If a network error occurs while making the
+         * request.
+         */
+        public synchronized ResourceResponse load() throws IOException {
+            if (_children != null) {
+                return _response;
+            }
+
+            if (_resource.getTypeId() != null &&
+                _resource.getTypeId() == TYPE_SERVICE) {
+                ResourceResponse response = new ResourceResponse();
+                response.setStatus(ResponseStatus.SUCCESS);
+                response.setResource(_resource);
+                _response = response;
+                _children = Collections.emptyList();
+                return _response;
+            }
+
+            _response = _api.getResource(_resource.getId(), _verbose, 1, null);
+            if (_response.getStatus() == ResponseStatus.SUCCESS) {
+                List<Node> children = new ArrayList<Node>();
+                for (Resource child : _response.getResource().getResource()) {
+                    children.add(new Node(this, child));
+                }
+                _children = Collections.unmodifiableList(children);
+            }
+            return _response;
+        }
+
+        /**
+         * Get the children of this node, loading them on first access.
+         *
+         * @return The child nodes, ordered by name.
+         *
+         * @throws IOException If a network error occurs while making the
+         * request, or the server was unable to return the children.
+         */
+        public List<Node> getChildren() throws IOException {
+            ResourceResponse response = load();
+            if (response.getStatus() != ResponseStatus.SUCCESS) {
+                String reason = response.getError() != null ?
+                        response.getError().getReasonText() : "Unknown error";
+                throw new IOException("Unable to load children of " +
+                                      _resource.getName() + ": " + reason);
+            }
+            return getLoadedChildren();
+        }
+
+        private synchronized List<Node> getLoadedChildren() {
+            return _children;
+        }
+    }
+}